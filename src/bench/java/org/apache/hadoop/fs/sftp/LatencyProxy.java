@@ -0,0 +1,129 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * TCP forwarder which delays every byte by a fixed one-way latency without
+ * limiting bandwidth, so a local server behaves like one across a WAN link.
+ */
+public class LatencyProxy implements Runnable {
+
+	private final ServerSocket server;
+
+	private final String targetHost;
+
+	private final int targetPort;
+
+	private final long delayMillis;
+
+	public LatencyProxy(String targetHost, int targetPort, long delayMillis)
+			throws IOException {
+		this.server = new ServerSocket(0);
+		this.targetHost = targetHost;
+		this.targetPort = targetPort;
+		this.delayMillis = delayMillis;
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	public void start() {
+		daemon(this, "latency-proxy-accept");
+	}
+
+	public void stop() throws IOException {
+		server.close();
+	}
+
+	@Override
+	public void run() {
+		while (!server.isClosed()) {
+			try {
+				Socket client = server.accept();
+				Socket target = new Socket(targetHost, targetPort);
+				client.setTcpNoDelay(true);
+				target.setTcpNoDelay(true);
+				pipe(client, target);
+				pipe(target, client);
+			} catch (IOException e) {
+				// closed
+			}
+		}
+	}
+
+	private void pipe(Socket from, Socket to) throws IOException {
+		final BlockingQueue<Packet> queue = new LinkedBlockingQueue<Packet>();
+		final InputStream in = from.getInputStream();
+		final OutputStream out = to.getOutputStream();
+		daemon(new Runnable() {
+
+			@Override
+			public void run() {
+				byte[] buf = new byte[64 * 1024];
+				try {
+					int n;
+					while ((n = in.read(buf)) > 0) {
+						byte[] data = new byte[n];
+						System.arraycopy(buf, 0, data, 0, n);
+						queue.put(new Packet(System.currentTimeMillis() + delayMillis, data));
+					}
+				} catch (Exception e) {
+					// peer gone
+				}
+				queue.add(new Packet(0, null));
+			}
+
+		}, "latency-proxy-read");
+		daemon(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Packet packet = queue.take();
+						if (null == packet.data) {
+							break;
+						}
+						long wait = packet.due - System.currentTimeMillis();
+						if (wait > 0) {
+							Thread.sleep(wait);
+						}
+						out.write(packet.data);
+						out.flush();
+					}
+					out.close();
+				} catch (Exception e) {
+					// peer gone
+				}
+			}
+
+		}, "latency-proxy-write");
+	}
+
+	private static void daemon(Runnable runnable, String name) {
+		Thread t = new Thread(runnable, name);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private static class Packet {
+
+		private final long due;
+
+		private final byte[] data;
+
+		Packet(long due, byte[] data) {
+			this.due = due;
+			this.data = data;
+		}
+
+	}
+
+}
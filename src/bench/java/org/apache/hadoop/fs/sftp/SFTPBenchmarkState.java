@@ -0,0 +1,67 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * An {@link EmbeddedSftpServer} with an uncached {@link SFTPFileSystem} on
+ * it and a local directory it serves, kept for a whole benchmark trial.
+ */
+@State(Scope.Benchmark)
+public abstract class SFTPBenchmarkState {
+
+	protected EmbeddedSftpServer server;
+
+	protected FileSystem fs;
+
+	/** local directory holding the files of the benchmark */
+	protected File root;
+
+	@Setup(Level.Trial)
+	public void startServer() throws Exception {
+		server = new EmbeddedSftpServer();
+		server.start();
+		root = File.createTempFile("rabbit-bench", ".dir");
+		root.delete();
+		if (!root.mkdirs()) {
+			throw new IOException("Failed to create " + root);
+		}
+		Configuration conf = new Configuration();
+		conf.set("fs.sftp.impl", SFTPFileSystem.class.getName());
+		conf.setBoolean("fs.sftp.impl.disable.cache", true);
+		configure(conf);
+		fs = FileSystem.get(server.getUri(), conf);
+		prepare();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopServer() throws Exception {
+		try {
+			fs.close();
+			server.stop();
+		} finally {
+			FileUtil.fullyDelete(root);
+		}
+	}
+
+	/**
+	 * Adjust the configuration of the file system before it is created.
+	 */
+	protected void configure(Configuration conf) {
+	}
+
+	/**
+	 * Create the files of the benchmark below root.
+	 */
+	protected abstract void prepare() throws IOException;
+
+}
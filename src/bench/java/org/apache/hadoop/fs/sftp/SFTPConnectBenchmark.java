@@ -0,0 +1,56 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a new SSH session with its sftp channel against borrowing a
+ * channel from a warm {@link SFTPConnectionPool}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SFTPConnectBenchmark extends SFTPBenchmarkState {
+
+	private Configuration conf;
+
+	private SFTPConnectionPool pool;
+
+	@Override
+	protected void prepare() throws IOException {
+		conf = new Configuration();
+		pool = newPool();
+		pool.borrow().release();
+	}
+
+	@Benchmark
+	public void newSession() throws IOException {
+		SFTPConnection conn = newPool().borrow();
+		conn.disconnect();
+	}
+
+	@Benchmark
+	public void pooledChannel() throws IOException {
+		pool.borrow().release();
+	}
+
+	/**
+	 * A pool of its own, not shared through getPool().
+	 */
+	private SFTPConnectionPool newPool() {
+		return new SFTPConnectionPool("localhost", server.getPort(),
+				EmbeddedSftpServer.USER, EmbeddedSftpServer.PASSWORD, conf);
+	}
+
+}
@@ -0,0 +1,84 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to read a whole file through {@link SFTPInputStream} by the size of
+ * the reads of the caller, sequentially and with read-ahead. Throughput is
+ * sizeMb divided by the time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SFTPInputStreamBenchmark extends SFTPBenchmarkState {
+
+	@Param({ "16" })
+	public int sizeMb;
+
+	@Param({ "4096", "65536", "1048576" })
+	public int bufferSize;
+
+	@Param({ "1", "4" })
+	public int parallelism;
+
+	private Path file;
+
+	private byte[] buffer;
+
+	@Override
+	protected void configure(Configuration conf) {
+		conf.setInt(SFTPConstants.READ_PARALLELISM, parallelism);
+	}
+
+	@Override
+	protected void prepare() throws IOException {
+		File local = new File(root, "data.bin");
+		byte[] block = new byte[1024 * 1024];
+		new Random(0).nextBytes(block);
+		OutputStream out = new FileOutputStream(local);
+		try {
+			for (int i = 0; i < sizeMb; i++) {
+				out.write(block);
+			}
+		} finally {
+			out.close();
+		}
+		file = new Path(local.getAbsolutePath());
+		buffer = new byte[bufferSize];
+	}
+
+	@Benchmark
+	public long read() throws IOException {
+		long total = 0;
+		FSDataInputStream in = fs.open(file);
+		try {
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				total += n;
+			}
+		} finally {
+			in.close();
+		}
+		return total;
+	}
+
+}
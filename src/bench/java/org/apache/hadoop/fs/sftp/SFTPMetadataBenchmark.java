@@ -0,0 +1,61 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of getFileStatus of a file and listStatus of its directory by the
+ * number of entries in the directory, without the metadata cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SFTPMetadataBenchmark extends SFTPBenchmarkState {
+
+	@Param({ "10", "1000", "50000" })
+	public int entries;
+
+	private Path dir;
+
+	private Path file;
+
+	@Override
+	protected void prepare() throws IOException {
+		File local = new File(root, "dir");
+		if (!local.mkdir()) {
+			throw new IOException("Failed to create " + local);
+		}
+		for (int i = 0; i < entries; i++) {
+			if (!new File(local, String.format("file-%06d", i)).createNewFile()) {
+				throw new IOException("Failed to create file " + i + " in " + local);
+			}
+		}
+		dir = new Path(local.getAbsolutePath());
+		file = new Path(dir, String.format("file-%06d", entries / 2));
+	}
+
+	@Benchmark
+	public FileStatus getFileStatus() throws IOException {
+		return fs.getFileStatus(file);
+	}
+
+	@Benchmark
+	public FileStatus[] listStatus() throws IOException {
+		return fs.listStatus(dir);
+	}
+
+}
@@ -0,0 +1,127 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Compares sequential and pipelined read throughput of {@link SFTPFileSystem}
+ * against an embedded SSH server, optionally behind a proxy adding latency.<br />
+ * mvn -Pbench test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.apache.hadoop.fs.sftp.SFTPReadBenchmark
+ * -Dexec.args="-size 64 -latency 20 -parallelism 4"
+ */
+public class SFTPReadBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int sizeMb = 64;
+		long latency = 0;
+		int parallelism = 4;
+		int chunkSize = SFTPConstants.DEFAULT_READ_CHUNK_SIZE;
+		int iterations = 3;
+		for (int i = 0; i < args.length - 1; i += 2) {
+			if ("-size".equals(args[i])) {
+				sizeMb = Integer.parseInt(args[i + 1]);
+			} else if ("-latency".equals(args[i])) {
+				latency = Long.parseLong(args[i + 1]);
+			} else if ("-parallelism".equals(args[i])) {
+				parallelism = Integer.parseInt(args[i + 1]);
+			} else if ("-chunk".equals(args[i])) {
+				chunkSize = Integer.parseInt(args[i + 1]);
+			} else if ("-iterations".equals(args[i])) {
+				iterations = Integer.parseInt(args[i + 1]);
+			} else {
+				System.err.println("Usage: SFTPReadBenchmark [-size mb] [-latency ms]"
+						+ " [-parallelism n] [-chunk bytes] [-iterations n]");
+				return;
+			}
+		}
+
+		EmbeddedSftpServer server = new EmbeddedSftpServer();
+		server.start();
+		LatencyProxy proxy = null;
+		URI uri = server.getUri();
+		if (latency > 0) {
+			proxy = new LatencyProxy("localhost", server.getPort(), latency);
+			proxy.start();
+			uri = server.getUri(proxy.getPort());
+		}
+		File file = createFile(sizeMb);
+		try {
+			System.out.printf("file %d MB, one-way latency %d ms%n", sizeMb, latency);
+			report("sequential", read(uri, file, 1, chunkSize, iterations), sizeMb);
+			report("pipelined x" + parallelism,
+					read(uri, file, parallelism, chunkSize, iterations), sizeMb);
+		} finally {
+			file.delete();
+			if (null != proxy) {
+				proxy.stop();
+			}
+			server.stop();
+		}
+	}
+
+	/**
+	 * @return best time in nanoseconds to read the whole file
+	 */
+	private static long read(URI uri, File file, int parallelism,
+			int chunkSize, int iterations) throws IOException {
+		Configuration conf = new Configuration();
+		conf.set("fs.sftp.impl", SFTPFileSystem.class.getName());
+		conf.setBoolean("fs.sftp.impl.disable.cache", true);
+		conf.setInt(SFTPConstants.READ_PARALLELISM, parallelism);
+		conf.setInt(SFTPConstants.READ_CHUNK_SIZE, chunkSize);
+		FileSystem fs = FileSystem.get(uri, conf);
+		Path path = new Path(file.getAbsolutePath());
+		byte[] buf = new byte[64 * 1024];
+		long best = Long.MAX_VALUE;
+		// first round warms up the pool and the JIT
+		for (int i = 0; i <= iterations; i++) {
+			long start = System.nanoTime();
+			FSDataInputStream in = fs.open(path);
+			try {
+				while (in.read(buf) > 0) {
+					// drain
+				}
+			} finally {
+				in.close();
+			}
+			long elapsed = System.nanoTime() - start;
+			if (i > 0) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		fs.close();
+		return best;
+	}
+
+	private static void report(String mode, long nanos, int sizeMb) {
+		System.out.printf("%-16s %8.1f MB/s (%d ms)%n", mode,
+				sizeMb / (nanos / 1e9), nanos / 1000000);
+	}
+
+	private static File createFile(int sizeMb) throws IOException {
+		File file = File.createTempFile("rabbit-bench", ".bin");
+		file.deleteOnExit();
+		byte[] block = new byte[1024 * 1024];
+		new Random(0).nextBytes(block);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			for (int i = 0; i < sizeMb; i++) {
+				out.write(block);
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+}
@@ -0,0 +1,97 @@
+package org.apache.hadoop.rabbit.worker;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.rabbit.metrics.LatencyHistogram;
+import org.apache.hadoop.rabbit.topology.Topology;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of handing a unit of work to a {@link Worker} which does nothing:
+ * a plain call, a call timed into a histogram as the resident mapper does,
+ * and a single stage {@link Topology} flushed after every batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WorkerDispatchBenchmark {
+
+	private static final int BATCH = 1000;
+
+	private final WorkDesc work = new WorkDesc("unit", new byte[64]);
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private Worker worker;
+
+	private Topology topology;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		worker = new NoopWorker();
+		Configuration conf = new Configuration();
+		Topology.addStage(conf, "noop", NoopWorker.class, 1);
+		topology = new Topology();
+		topology.setConf(conf);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		topology.close();
+	}
+
+	@Benchmark
+	public void direct() throws IOException {
+		worker.process(work);
+	}
+
+	@Benchmark
+	public void timed() throws IOException {
+		long start = System.nanoTime();
+		worker.process(work);
+		latency.record(System.nanoTime() - start);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void topology() throws IOException {
+		for (int i = 0; i < BATCH; i++) {
+			topology.process(work);
+		}
+		topology.flush();
+	}
+
+	public static class NoopWorker implements Worker {
+
+		private long seen;
+
+		@Override
+		public void process(WorkDesc workDesc) throws IOException {
+			// keeps the call from being optimized away
+			seen += workDesc.getPayloadLength();
+		}
+
+		public long getSeen() {
+			return seen;
+		}
+
+	}
+
+}
@@ -5,12 +5,22 @@ import com.jcraft.jsch.Session;
 
 public class SFTPConnection {
 
+	private final SFTPConnectionPool pool;
+
 	private final Session session;
 
 	private final ChannelSftp channelSftp;
 
+	private long idleSince;
+
 	public SFTPConnection(Session session, ChannelSftp channelSftp) {
+		this(null, session, channelSftp);
+	}
+
+	SFTPConnection(SFTPConnectionPool pool, Session session,
+			ChannelSftp channelSftp) {
 		super();
+		this.pool = pool;
 		this.session = session;
 		this.channelSftp = channelSftp;
 	}
@@ -23,6 +33,33 @@ public class SFTPConnection {
 		return channelSftp;
 	}
 
+	public boolean isConnected() {
+		return null != this.getSession() && this.getSession().isConnected()
+				&& null != this.getChannelSftp()
+				&& this.getChannelSftp().isConnected()
+				&& !this.getChannelSftp().isClosed();
+	}
+
+	long getIdleSince() {
+		return idleSince;
+	}
+
+	void setIdleSince(long idleSince) {
+		this.idleSince = idleSince;
+	}
+
+	/**
+	 * Give this connection back to the pool it was borrowed from, or
+	 * disconnect it if it is not pooled.
+	 */
+	public void release() {
+		if (null != pool) {
+			pool.release(this);
+		} else {
+			disconnect();
+		}
+	}
+
 	public void disconnect() {
 		if (false == this.getSession().isConnected()) {
 			throw new SFTPException("Client not connected");
@@ -0,0 +1,365 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.MD5Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Bounded pool of SFTP channels for one (host, port, user).<br />
+ * Several {@link ChannelSftp} are multiplexed over at most
+ * fs.sftp.connection.max.sessions SSH sessions, channels idle for longer than
+ * fs.sftp.connection.validate.idle are checked with the server when borrowed
+ * and closed after sitting idle for fs.sftp.connection.idle.timeout.<br />
+ * Pools are shared per JVM, their limits and timeouts are the ones of the
+ * Configuration the pool was created with.
+ */
+public class SFTPConnectionPool {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SFTPConnectionPool.class);
+
+	private static final Map<String, SFTPConnectionPool> POOLS = new HashMap<String, SFTPConnectionPool>();
+
+	private static final Timer EVICTOR = new Timer("sftp-pool-evictor", true);
+
+	private final JSch jsch = new JSch();
+
+	private final String host;
+
+	private final int port;
+
+	private final String user;
+
+	private final String password;
+
+	private final int maxSessions;
+
+	private final int maxChannelsPerSession;
+
+	private final long idleTimeout;
+
+	private final long borrowTimeout;
+
+	private final long validateIdle;
+
+	/** remote home directory of user, resolved once */
+	private volatile String home;
+
+	/** live (or connecting) sessions, guarded by this */
+	private final List<PooledSession> sessions = new ArrayList<PooledSession>();
+
+	/** idle channels, most recently released first, guarded by this */
+	private final LinkedList<SFTPConnection> idle = new LinkedList<SFTPConnection>();
+
+	/**
+	 * Get the shared pool for the given (host, port, user, password), creating
+	 * it on first use. conf only applies to a pool created by this call.
+	 */
+	public static SFTPConnectionPool getPool(String host, int port, String user,
+			String password, Configuration conf) {
+		// sessions opened with one password are never handed to another
+		String key = user + "@" + host + ":" + port + "/"
+				+ MD5Hash.digest(null == password ? "" : password);
+		synchronized (POOLS) {
+			SFTPConnectionPool pool = POOLS.get(key);
+			if (null == pool) {
+				pool = new SFTPConnectionPool(host, port, user, password, conf);
+				POOLS.put(key, pool);
+				pool.scheduleEviction();
+			}
+			return pool;
+		}
+	}
+
+	SFTPConnectionPool(String host, int port, String user, String password,
+			Configuration conf) {
+		this.host = host;
+		this.port = port;
+		this.user = user;
+		this.password = password;
+		this.maxSessions = Math.max(1, conf.getInt(SFTPConstants.MAX_SESSIONS,
+				SFTPConstants.DEFAULT_MAX_SESSIONS));
+		this.maxChannelsPerSession = Math.max(1, conf.getInt(
+				SFTPConstants.MAX_CHANNELS_PER_SESSION,
+				SFTPConstants.DEFAULT_MAX_CHANNELS_PER_SESSION));
+		this.idleTimeout = conf.getLong(SFTPConstants.IDLE_TIMEOUT,
+				SFTPConstants.DEFAULT_IDLE_TIMEOUT);
+		this.borrowTimeout = conf.getLong(SFTPConstants.BORROW_TIMEOUT,
+				SFTPConstants.DEFAULT_BORROW_TIMEOUT);
+		this.validateIdle = conf.getLong(SFTPConstants.VALIDATE_IDLE,
+				SFTPConstants.DEFAULT_VALIDATE_IDLE);
+	}
+
+	/**
+	 * Borrow a connected channel. Idle channels are reused first, the ones
+	 * idle for long after a round trip to the server shows they still work,
+	 * then a new channel is opened on a session with spare capacity, then a new session is opened if
+	 * the limit allows; otherwise wait for a release.
+	 *
+	 * @return An SFTPConnection which must be given back through
+	 *         {@link SFTPConnection#release()}
+	 * @throws IOException
+	 */
+	public SFTPConnection borrow() throws IOException {
+		long deadline = System.currentTimeMillis() + borrowTimeout;
+		while (true) {
+			SFTPConnection reused = null;
+			PooledSession target = null;
+			boolean newSession = false;
+			synchronized (this) {
+				while (true) {
+					reused = pollIdle();
+					if (null != reused) {
+						break;
+					}
+					target = findSpareSession();
+					if (null != target) {
+						target.channels++;
+						break;
+					}
+					if (sessions.size() < maxSessions) {
+						target = new PooledSession();
+						target.channels = 1;
+						sessions.add(target);
+						newSession = true;
+						break;
+					}
+					long wait = deadline - System.currentTimeMillis();
+					if (wait <= 0) {
+						throw new IOException("Timed out waiting for a connection to "
+								+ user + "@" + host + ":" + port);
+					}
+					try {
+						wait(wait);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted waiting for a connection to " + host);
+					}
+				}
+			}
+			// network round trips happen outside the lock, the slot is reserved
+			if (null != reused) {
+				if (System.currentTimeMillis() - reused.getIdleSince() < validateIdle
+						|| validate(reused)) {
+					return reused;
+				}
+				synchronized (this) {
+					destroy(reused);
+					notifyAll();
+				}
+				continue;
+			}
+			long start = System.nanoTime();
+			try {
+				if (newSession) {
+					Session session = openSession();
+					synchronized (this) {
+						target.session = session;
+						notifyAll();
+					}
+				}
+				Channel channel = target.session.openChannel("sftp");
+				channel.connect();
+				SFTPMetrics.since(SFTPMetrics.CONNECT, start);
+				return new SFTPConnection(this, target.session, (ChannelSftp) channel);
+			} catch (JSchException e) {
+				LOG.error(e.getMessage());
+				synchronized (this) {
+					target.channels--;
+					closeIfUnused(target);
+					notifyAll();
+				}
+				throw new IOException("Server - " + host
+						+ " refused connection on port - " + port + "," + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Give a borrowed connection back. Broken connections are closed instead
+	 * of being reused.
+	 */
+	public synchronized void release(SFTPConnection conn) {
+		if (conn.isConnected()) {
+			conn.setIdleSince(System.currentTimeMillis());
+			idle.addFirst(conn);
+		} else {
+			destroy(conn);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Close channels which have been idle for longer than the idle timeout,
+	 * and their sessions once no channel is left on them.
+	 */
+	synchronized void evictIdle() {
+		long expired = System.currentTimeMillis() - idleTimeout;
+		Iterator<SFTPConnection> it = idle.descendingIterator();
+		while (it.hasNext()) {
+			SFTPConnection conn = it.next();
+			if (conn.getIdleSince() > expired) {
+				break;
+			}
+			it.remove();
+			destroy(conn);
+		}
+	}
+
+	/**
+	 * @return the remote home directory of the pool's user, asking the server
+	 *         only the first time
+	 */
+	public String getHomeDirectory() throws IOException {
+		String dir = home;
+		if (null == dir) {
+			SFTPConnection conn = borrow();
+			try {
+				dir = conn.getChannelSftp().getHome();
+			} catch (SftpException e) {
+				throw new IOException("Failed to get home directory on " + host, e);
+			} finally {
+				conn.release();
+			}
+			home = dir;
+		}
+		return dir;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public synchronized int getSessionCount() {
+		return sessions.size();
+	}
+
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	private Session openSession() throws JSchException {
+		Session session = jsch.getSession(user, host, port);
+		session.setPassword(password);
+		Properties config = new Properties();
+		config.put("StrictHostKeyChecking", "no");
+		session.setConfig(config);
+		session.setTimeout(SFTPFileSystem.DEFAULT_SFTP_TIMEOUT);
+		// pooled sessions must not keep the task JVM alive
+		session.setDaemonThread(true);
+		session.connect();
+		return session;
+	}
+
+	/**
+	 * @return the most recently released idle channel which still looks
+	 *         connected, closing the ones which do not, null if there is none
+	 */
+	private SFTPConnection pollIdle() {
+		SFTPConnection conn;
+		while (null != (conn = idle.poll())) {
+			if (conn.isConnected()) {
+				return conn;
+			}
+			destroy(conn);
+		}
+		return null;
+	}
+
+	/**
+	 * isConnected() only reads local flags, a server or firewall which dropped
+	 * the connection of a channel idle for a while shows up on the first
+	 * request. pwd() is answered from the channel's cache, stat() goes to the
+	 * server.
+	 */
+	private boolean validate(SFTPConnection conn) {
+		try {
+			conn.getChannelSftp().stat(".");
+			return true;
+		} catch (SftpException e) {
+			LOG.warn("Dropping idle connection to " + host + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	private PooledSession findSpareSession() {
+		for (PooledSession pooled : sessions) {
+			if (null != pooled.session && pooled.session.isConnected()
+					&& pooled.channels < maxChannelsPerSession) {
+				return pooled;
+			}
+		}
+		return null;
+	}
+
+	private void destroy(SFTPConnection conn) {
+		conn.getChannelSftp().disconnect();
+		for (PooledSession pooled : sessions) {
+			if (pooled.session == conn.getSession()) {
+				pooled.channels--;
+				closeIfUnused(pooled);
+				break;
+			}
+		}
+	}
+
+	private void closeIfUnused(PooledSession pooled) {
+		if (pooled.channels > 0) {
+			return;
+		}
+		sessions.remove(pooled);
+		if (null != pooled.session) {
+			pooled.session.disconnect();
+		}
+	}
+
+	private void scheduleEviction() {
+		long period = Math.max(1000, idleTimeout / 2);
+		EVICTOR.schedule(new TimerTask() {
+
+			@Override
+			public void run() {
+				evictIdle();
+			}
+
+		}, period, period);
+	}
+
+	/**
+	 * An SSH session together with the number of channels open on it.
+	 */
+	private static class PooledSession {
+
+		private Session session;
+
+		private int channels;
+
+	}
+
+}
@@ -4,4 +4,78 @@ public interface SFTPConstants {
 	
 	public static final int DEFAULT_PORT = 22;
 
+	/** Max SSH sessions kept per (host, port, user) */
+	public static final String MAX_SESSIONS = "fs.sftp.connection.max.sessions";
+
+	public static final int DEFAULT_MAX_SESSIONS = 4;
+
+	/** Max sftp channels multiplexed over one SSH session */
+	public static final String MAX_CHANNELS_PER_SESSION = "fs.sftp.connection.max.channels.per.session";
+
+	public static final int DEFAULT_MAX_CHANNELS_PER_SESSION = 4;
+
+	/** Milliseconds an unused channel is kept open before it is closed */
+	public static final String IDLE_TIMEOUT = "fs.sftp.connection.idle.timeout";
+
+	public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+	/** Milliseconds to wait for a free channel when the pool is exhausted */
+	public static final String BORROW_TIMEOUT = "fs.sftp.connection.borrow.timeout";
+
+	public static final long DEFAULT_BORROW_TIMEOUT = 60 * 1000;
+
+	/** Milliseconds a channel may sit idle before borrowing checks it with the server */
+	public static final String VALIDATE_IDLE = "fs.sftp.connection.validate.idle";
+
+	public static final long DEFAULT_VALIDATE_IDLE = 5 * 1000;
+
+	/** Chunks fetched concurrently ahead of a reader, 1 reads sequentially */
+	public static final String READ_PARALLELISM = "fs.sftp.read.parallelism";
+
+	public static final int DEFAULT_READ_PARALLELISM = 1;
+
+	/** Bytes fetched by one read-ahead request */
+	public static final String READ_CHUNK_SIZE = "fs.sftp.read.chunk.size";
+
+	public static final int DEFAULT_READ_CHUNK_SIZE = 4 * 1024 * 1024;
+
+	/** Max bytes of read-ahead buffers per stream, defaults to two chunks per fetch */
+	public static final String READ_BUFFER_BUDGET = "fs.sftp.read.buffer.budget";
+
+	/** Chunks queued behind an asynchronous upload, 0 uploads from the writing thread */
+	public static final String WRITE_OUTSTANDING_CHUNKS = "fs.sftp.write.outstanding.chunks";
+
+	public static final int DEFAULT_WRITE_OUTSTANDING_CHUNKS = 0;
+
+	/** Bytes buffered before a write is sent to the server */
+	public static final String WRITE_CHUNK_SIZE = "fs.sftp.write.chunk.size";
+
+	public static final int DEFAULT_WRITE_CHUNK_SIZE = 1024 * 1024;
+
+	/** Max bytes of upload buffers per stream, defaults to one chunk more than outstanding */
+	public static final String WRITE_BUFFER_BUDGET = "fs.sftp.write.buffer.budget";
+
+	/** Channels listing a tree concurrently for recursive delete and listFiles */
+	public static final String WALK_PARALLELISM = "fs.sftp.walk.parallelism";
+
+	public static final int DEFAULT_WALK_PARALLELISM = 4;
+
+	/** Order directories of a tree are listed in, dfs or bfs */
+	public static final String WALK_STRATEGY = "fs.sftp.walk.strategy";
+
+	public static final String DEFAULT_WALK_STRATEGY = "dfs";
+
+	/** Cache file statuses and listings inside SFTPFileSystem */
+	public static final String METADATA_CACHE_ENABLED = "fs.sftp.metadata.cache.enabled";
+
+	/** Max paths in the metadata cache */
+	public static final String METADATA_CACHE_SIZE = "fs.sftp.metadata.cache.size";
+
+	public static final int DEFAULT_METADATA_CACHE_SIZE = 10000;
+
+	/** Milliseconds a cached status, listing or miss is trusted */
+	public static final String METADATA_CACHE_TTL = "fs.sftp.metadata.cache.ttl";
+
+	public static final long DEFAULT_METADATA_CACHE_TTL = 5 * 1000;
+
 }
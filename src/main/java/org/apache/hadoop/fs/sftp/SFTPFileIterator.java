@@ -0,0 +1,140 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FileStatus;
+
+import com.jcraft.jsch.ChannelSftp;
+
+/**
+ * Files below a remote directory, returned while the tree is still being
+ * listed by a {@link SFTPTreeWalker}.<br />
+ * At most a fixed number of statuses are buffered ahead of the caller.
+ * Close the iterator when stopping early so the walk ends and its channels
+ * go back to the pool.
+ */
+public class SFTPFileIterator implements Closeable {
+
+	private static final int CAPACITY = 1024;
+
+	/** marks the end of the walk in the queue */
+	private static final FileStatus END = new FileStatus();
+
+	private final BlockingQueue<FileStatus> queue;
+
+	private final SFTPTreeWalker walker;
+
+	private volatile IOException error;
+
+	private volatile boolean closed;
+
+	private FileStatus next;
+
+	private boolean done;
+
+	/**
+	 * Iterate over already known statuses.
+	 */
+	SFTPFileIterator(FileStatus[] statuses) {
+		this.queue = new ArrayBlockingQueue<FileStatus>(statuses.length + 1);
+		this.walker = null;
+		for (FileStatus status : statuses) {
+			queue.add(status);
+		}
+		queue.add(END);
+	}
+
+	/**
+	 * Walk the tree below root in the background.
+	 */
+	SFTPFileIterator(SFTPTreeWalker walker, final FileStatus root) {
+		this.queue = new ArrayBlockingQueue<FileStatus>(CAPACITY);
+		this.walker = walker;
+		Thread driver = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					SFTPFileIterator.this.walker.walk(root, new SFTPTreeWalker.Visitor() {
+
+						@Override
+						public void visit(ChannelSftp client, FileStatus status, int depth)
+								throws Exception {
+							if (!status.isDir()) {
+								put(status);
+							}
+						}
+
+					});
+				} catch (IOException e) {
+					error = e;
+				}
+				try {
+					put(END);
+				} catch (IOException e) {
+					// closed by the caller, nobody waits for the end
+				}
+			}
+
+		}, "sftp-list-files");
+		driver.setDaemon(true);
+		driver.start();
+	}
+
+	public boolean hasNext() throws IOException {
+		if (null == next && !done) {
+			try {
+				next = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted listing files");
+			}
+			if (END == next) {
+				next = null;
+				done = true;
+				if (null != error) {
+					throw error;
+				}
+			}
+		}
+		return null != next;
+	}
+
+	public FileStatus next() throws IOException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		FileStatus status = next;
+		next = null;
+		return status;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		done = true;
+		if (null != walker) {
+			walker.cancel();
+		}
+		queue.clear();
+	}
+
+	private void put(FileStatus status) throws IOException {
+		try {
+			while (!queue.offer(status, 100, TimeUnit.MILLISECONDS)) {
+				if (closed) {
+					throw new IOException("Iterator closed");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted listing files");
+		}
+	}
+
+}
@@ -3,10 +3,10 @@ package org.apache.hadoop.fs.sftp;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
 import java.util.Vector;
 
 import org.apache.hadoop.conf.Configuration;
@@ -22,12 +22,8 @@ import org.apache.hadoop.util.Progressable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.ChannelSftp.LsEntry;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.JSchException;
-import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
 
@@ -43,6 +39,16 @@ public class SFTPFileSystem extends FileSystem {
 	
 	private URI uri;
 
+	private SFTPConnectionPool pool;
+
+	private volatile Path homeDir;
+
+	/** null until set, which means the home directory */
+	private volatile Path workingDir;
+
+	/** null unless fs.sftp.metadata.cache.enabled */
+	private SFTPMetadataCache cache;
+
 	@Override
 	public void initialize(URI uri, Configuration conf) throws IOException { // get
 		super.initialize(uri, conf);
@@ -76,98 +82,123 @@ public class SFTPFileSystem extends FileSystem {
 		}
 		setConf(conf);
 		this.uri = uri;
+		this.pool = SFTPConnectionPool.getPool(host, port, userPasswdInfo[0],
+				conf.get("fs.sftp.password." + host), conf);
+		if (conf.getBoolean(SFTPConstants.METADATA_CACHE_ENABLED, false)) {
+			this.cache = new SFTPMetadataCache(conf.getInt(
+					SFTPConstants.METADATA_CACHE_SIZE,
+					SFTPConstants.DEFAULT_METADATA_CACHE_SIZE), conf.getLong(
+					SFTPConstants.METADATA_CACHE_TTL,
+					SFTPConstants.DEFAULT_METADATA_CACHE_TTL));
+		}
+	}
+
+	/**
+	 * @return the metadata cache with its hit/miss counters, or null if it is
+	 *         not enabled
+	 */
+	public SFTPMetadataCache getMetadataCache() {
+		return cache;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (null != cache) {
+			LOG.info(uri + " " + cache);
+			cache.clear();
+		}
+		super.close();
 	}
 
 	/**
-	 * Connect to the SFTP server using configuration parameters *
+	 * Borrow a connection to the SFTP server from the pool shared by this
+	 * host, port and user *
 	 * 
 	 * @return An SFTPConnection instance
 	 * @throws IOException
 	 */
 	private SFTPConnection connect() throws IOException {
-		JSch jsch = null;
-		Configuration conf = getConf();
-		String host = conf.get("fs.sftp.host");
-		int port = conf.getInt("fs.sftp.host.port", SFTPConstants.DEFAULT_PORT);
-		String user = conf.get("fs.sftp.user." + host);
-		String password = conf.get("fs.sftp.password." + host);
-		jsch = new JSch();
-		Session session = null;
-		ChannelSftp sftpChaneel = null;
-		try {
-			session = jsch.getSession(user, host, port);
-			session.setPassword(password);
-			Properties config = new Properties();
-		    config.put("StrictHostKeyChecking","no");
-			session.setConfig(config);
-			session.setTimeout(DEFAULT_SFTP_TIMEOUT);
-			session.connect();
-			Channel channel = session.openChannel("sftp");
-			channel.connect();
-			sftpChaneel = (ChannelSftp)channel;
-		} catch (JSchException e) {
-			LOG.error(e.getMessage());
-			throw new IOException("Server - " + host
-					+ " refused connection on port - " + port + ","+e.getMessage());
-			
-		}
-		return new SFTPConnection(session, sftpChaneel);
+		return pool.borrow();
 	}
 
 	/**
-	 * Logout and disconnect the given SFTPConnection. *
+	 * Give the given SFTPConnection back to the pool. *
 	 * 
 	 * @param client
 	 * @throws IOException
 	 */
 	private void disconnect(SFTPConnection conn) throws IOException {
 		if(null != conn){
-			conn.disconnect();
+			conn.release();
 		}
 	}
 
 	/**
-	 * Resolve against given working directory. *
+	 * Resolve against the working directory, without a round trip. *
 	 * 
-	 * @param workDir
 	 * @param path
 	 * @return
 	 */
-	private Path makeAbsolute(Path workDir, Path path) {
+	private Path makeAbsolute(Path path) {
 		if (path.isAbsolute()) {
 			return path;
 		}
-		return new Path(workDir, path);
+		return new Path(getWorkingDirectory(), path);
+	}
+
+	/**
+	 * Drop cached metadata of an absolute path about to be changed, and of
+	 * everything below it if it is a directory.
+	 */
+	private void invalidate(Path absolute, boolean tree) {
+		if (null != cache) {
+			if (tree) {
+				cache.invalidateTree(absolute.toUri().getPath());
+			} else {
+				cache.invalidate(absolute.toUri().getPath());
+			}
+		}
 	}
 
 	@Override
 	public FSDataInputStream open(Path file, int bufferSize) throws IOException {
 		SFTPConnection conn = connect();
 		ChannelSftp client = conn.getChannelSftp();
-		Path workDir = null;;
-		try {
-			workDir = new Path(client.pwd());
-		} catch (SftpException e1) {
-			disconnect(conn);
-			throw new IOException("Path " + file + " can not get current working directory.");
-		}
-		Path absolute = makeAbsolute(workDir, file);
-		FileStatus fileStat = getFileStatus(conn.getChannelSftp(), absolute);
-		if (fileStat.isDir()) {
-			disconnect(conn);
-			throw new IOException("Path " + file + " is a directory.");
-		}
-		InputStream in = null;
 		FSDataInputStream fis = null;
-		try{
-			in = client.get(absolute.toUri().getPath().toString());
-			fis = new FSDataInputStream(new SFTPInputStream(in, conn, statistics));
-		}catch (Exception e) {
-			disconnect(conn);
-			if(null != fis){
-				fis.close();
+		try {
+			Path absolute = makeAbsolute(file);
+			FileStatus fileStat = getFileStatus(client, absolute);
+			if (fileStat.isDir()) {
+				throw new IOException("Path " + file + " is a directory.");
+			}
+			int parallelism = getConf().getInt(SFTPConstants.READ_PARALLELISM,
+					SFTPConstants.DEFAULT_READ_PARALLELISM);
+			int chunkSize = getConf().getInt(SFTPConstants.READ_CHUNK_SIZE,
+					SFTPConstants.DEFAULT_READ_CHUNK_SIZE);
+			if (parallelism > 1 && fileStat.getLen() > chunkSize) {
+				// fetches borrow their own channels, this one is not needed
+				long budget = getConf().getLong(SFTPConstants.READ_BUFFER_BUDGET,
+						2L * parallelism * chunkSize);
+				SFTPReadAhead readAhead = new SFTPReadAhead(pool,
+						absolute.toUri().getPath(), fileStat.getLen(),
+						parallelism, chunkSize, budget);
+				return new FSDataInputStream(new SFTPInputStream(readAhead,
+						absolute.toUri().getPath(), fileStat.getLen(), statistics));
+			}
+			InputStream in = null;
+			try{
+				long start = System.nanoTime();
+				in = client.get(absolute.toUri().getPath().toString());
+				SFTPMetrics.since(SFTPMetrics.GET, start);
+			}catch (Exception e) {
+				throw new IOException("Unable to open file: " + file + ", Aborting");
+			}
+			fis = new FSDataInputStream(new SFTPInputStream(in, conn,
+					absolute.toUri().getPath(), fileStat.getLen(), statistics));
+		} finally {
+			if (null == fis) {
+				disconnect(conn);
 			}
-			throw new IOException("Unable to open file: " + file + ", Aborting");
 		}
 		return fis;
 	}
@@ -180,63 +211,72 @@ public class SFTPFileSystem extends FileSystem {
 	public FSDataOutputStream create(final Path file, FsPermission permission,
 			boolean overwrite, int bufferSize, short replication,
 			long blockSize, Progressable progress) throws IOException {
-//		final FTPClient client = connect();
 		final SFTPConnection conn = connect();
 		final ChannelSftp client = conn.getChannelSftp();
-		Path workDir;
+		FSDataOutputStream fos = null;
 		try {
-			workDir = new Path(client.pwd());
-		} catch (SftpException e) {
-			throw new IOException(e);
-		}
-		Path absolute = makeAbsolute(workDir, file);
-		if (true == exists(client, file)) {
-			if (true == overwrite) {
-				try {
-					delete(client, file);
-				} catch (SftpException e) {
-					throw new IOException(e);
-				}
-			} else {
-				disconnect(conn);
+			final Path absolute = makeAbsolute(file);
+			String remote = absolute.toUri().getPath();
+			// an overwrite truncates in place, no delete round trip needed
+			if (!overwrite && exists(client, absolute)) {
 				throw new IOException("File already exists: " + file);
 			}
-		}
-		Path parent = absolute.getParent();
-		try {
-			if (parent == null
-					|| !mkdirs(client, parent, FsPermission.getDefault())) {
-				parent = (parent == null) ? new Path("/") : parent;
-				disconnect(conn);
-				throw new IOException("create(): Mkdirs failed to create: "
-						+ parent);
+			invalidate(absolute, false);
+			OutputStream out;
+			try {
+				// pooled channels are shared, so write by absolute path instead of cd
+				long start = System.nanoTime();
+				out = client.put(remote);
+				SFTPMetrics.since(SFTPMetrics.PUT, start);
+			} catch (SftpException e) {
+				// only look at the parents when the open failed, servers
+				// disagree on the status code for a missing parent
+				Path parent = absolute.getParent();
+				if (parent != null && exists(client, parent)) {
+					throw e;
+				}
+				if (parent == null
+						|| !mkdirs(client, parent, FsPermission.getDefault())) {
+					parent = (parent == null) ? new Path("/") : parent;
+					throw new IOException("create(): Mkdirs failed to create: "
+							+ parent);
+				}
+				long start = System.nanoTime();
+				out = client.put(remote);
+				SFTPMetrics.since(SFTPMetrics.PUT, start);
 			}
-		} catch (SftpException e) {
-			throw new IOException(e);
-		}
-		FSDataOutputStream fos = null;
-		try {
-			client.cd(parent.toUri().getPath().toString());
-			
-			fos = new FSDataOutputStream(client.put(file.getName()),statistics){
+			int chunkSize = getConf().getInt(SFTPConstants.WRITE_CHUNK_SIZE,
+					SFTPConstants.DEFAULT_WRITE_CHUNK_SIZE);
+			int outstanding = getConf().getInt(SFTPConstants.WRITE_OUTSTANDING_CHUNKS,
+					SFTPConstants.DEFAULT_WRITE_OUTSTANDING_CHUNKS);
+			long budget = getConf().getLong(SFTPConstants.WRITE_BUFFER_BUDGET,
+					(outstanding + 1L) * chunkSize);
+			fos = new FSDataOutputStream(new SFTPOutputStream(out, conn, remote,
+					progress, chunkSize, outstanding, budget), statistics) {
+
+				private boolean closed = false;
 
 				@Override
-				public void close() throws IOException {
-					super.close();
-					if (!client.isConnected()) {
-						throw new SFTPException("Client not connected");
+				public synchronized void close() throws IOException {
+					if (closed) {
+						return;
+					}
+					closed = true;
+					try {
+						// also gives the connection back
+						super.close();
+					} finally {
+						invalidate(absolute, false);
 					}
-//					boolean cmdCompleted = client.isEOF();
-					disconnect(conn);
-					/*if (!cmdCompleted) {
-						throw new SFTPException(
-								"Could not complete transfer file "+ file.getName());
-					}*/
 				}
 				
 			};
 		} catch (SftpException e) {
 			throw new IOException(e);
+		} finally {
+			if (null == fos) {
+				disconnect(conn);
+			}
 		}
 		return fos;
 	}
@@ -253,8 +293,18 @@ public class SFTPFileSystem extends FileSystem {
 	 * incurs the overhead of opening/closing a TCP connection.
 	 */
 	private boolean exists(ChannelSftp client, Path file) {
+		if (null != cache) {
+			try {
+				getFileStatus(client, file);
+				return true;
+			} catch (IOException e) {
+				return false;
+			} catch (SFTPException e) {
+				return false;
+			}
+		}
 		try {
-			return client.lstat(file.toUri().getPath()) != null;
+			return client.lstat(makeAbsolute(file).toUri().getPath()) != null;
 		} catch (SftpException e) {
 			return false;
 		}
@@ -269,6 +319,19 @@ public class SFTPFileSystem extends FileSystem {
 
 	@Override
 	public boolean delete(Path file, boolean recursive) throws IOException {
+		Path absolute = makeAbsolute(file);
+		if (recursive) {
+			FileStatus status = getFileStatus(absolute);
+			if (status.isDir()) {
+				invalidate(absolute, true);
+				try {
+					newTreeWalker().delete(status);
+				} finally {
+					invalidate(absolute, true);
+				}
+				return true;
+			}
+		}
 		SFTPConnection conn = connect();
 		ChannelSftp client = conn.getChannelSftp();
 		try {
@@ -296,11 +359,11 @@ public class SFTPFileSystem extends FileSystem {
 	 */
 	private boolean delete(ChannelSftp client, Path file, boolean recursive)
 			throws IOException, SftpException {
-		Path workDir = new Path(client.pwd());
-		Path absolute = makeAbsolute(workDir, file);
+		Path absolute = makeAbsolute(file);
 		String pathName = absolute.toUri().getPath();
 		FileStatus fileStat = getFileStatus(client, absolute);
 		if (!fileStat.isDir()) {
+			invalidate(absolute, false);
 			client.rm(pathName);
 			return true;
 		}
@@ -314,6 +377,7 @@ public class SFTPFileSystem extends FileSystem {
 						recursive);
 			}
 		}
+		invalidate(absolute, true);
 		client.rmdir(pathName);
 		return true;
 	}
@@ -323,13 +387,13 @@ public class SFTPFileSystem extends FileSystem {
 		for(int i = 0; i < accessGroup.length();i++){
 			switch (accessGroup.charAt(i)) {
 			case 'r':
-				action.or(FsAction.READ);
+				action = action.or(FsAction.READ);
 				break;
 			case 'w':
-				action.or(FsAction.WRITE);
+				action = action.or(FsAction.WRITE);
 				break;
 			case 'x':
-				action.or(FsAction.EXECUTE);
+				action = action.or(FsAction.EXECUTE);
 				break;
 			default:
 				break;
@@ -377,35 +441,78 @@ public class SFTPFileSystem extends FileSystem {
 	 */
 	private FileStatus[] listStatus(ChannelSftp client, Path file)
 			throws IOException, SftpException {
-		Path workDir = new Path(client.pwd());
-		Path absolute = makeAbsolute(workDir, file);
+		Path absolute = makeAbsolute(file);
 		FileStatus fileStat = getFileStatus(client, absolute);
 		if (!fileStat.isDir()) {
 			return new FileStatus[] { fileStat };
 		}
-		@SuppressWarnings("unchecked")
-		Vector<LsEntry> sftpFiles = client.ls(absolute.toUri().getPath().toString());
-		List<LsEntry> preProcessEntry = new ArrayList<LsEntry>();
-		for(int i = 0; i < sftpFiles.size();i++){
-			boolean excludeDir  = sftpFiles.get(i).getFilename().endsWith(".");
-//			boolean excludeHiddenFiles =  sftpFiles.get(i).getFilename().startsWith(".");
-			if(false == excludeDir){
-				preProcessEntry.add(sftpFiles.get(i));
+		if (null != cache) {
+			FileStatus[] cached = cache.getListing(absolute.toUri().getPath());
+			if (null != cached) {
+				return cached;
 			}
 		}
-		FileStatus[] fileStatusArray = new FileStatus[preProcessEntry.size()];
-		for (int i = 0; i < preProcessEntry.size(); i++) {
-			FileStatus fileStatus = getFileStatus(preProcessEntry.get(i), absolute);
-//			System.out.println(fileStatus.getPath().getName());
-//			String filename = fileStatus.getPath().getName();
-//			if((false == ".".equals(filename)) || (false == ("..").equals(filename))){
-			fileStatusArray[i] = fileStatus;
-//			}
-		
+		FileStatus[] fileStatusArray = listDirectory(client, absolute);
+		if (null != cache) {
+			cache.putListing(absolute.toUri().getPath(), fileStatusArray.clone());
 		}
 		return fileStatusArray;
 	}
 
+	/**
+	 * List a directory known to exist, converting the attributes returned by
+	 * ls without any further round trip. Bypasses the metadata cache.
+	 */
+	FileStatus[] listDirectory(ChannelSftp client, Path absolute)
+			throws SftpException {
+		long start = System.nanoTime();
+		@SuppressWarnings("unchecked")
+		Vector<LsEntry> sftpFiles = client.ls(absolute.toUri().getPath());
+		SFTPMetrics.since(SFTPMetrics.LS, start);
+		List<FileStatus> statuses = new ArrayList<FileStatus>(sftpFiles.size());
+		for (LsEntry entry : sftpFiles) {
+			String name = entry.getFilename();
+			if (!".".equals(name) && !"..".equals(name)) {
+				statuses.add(getFileStatus(entry, absolute));
+			}
+		}
+		return statuses.toArray(new FileStatus[statuses.size()]);
+	}
+
+	/**
+	 * List the files below a directory, also in its subdirectories if
+	 * recursive. Directories are listed concurrently, see
+	 * fs.sftp.walk.parallelism and fs.sftp.walk.strategy.
+	 * 
+	 * @return the files, or the path itself if it is a file
+	 */
+	public SFTPFileIterator listFiles(Path file, boolean recursive)
+			throws IOException {
+		FileStatus status = getFileStatus(file);
+		if (!status.isDir()) {
+			return new SFTPFileIterator(new FileStatus[] { status });
+		}
+		if (recursive) {
+			return new SFTPFileIterator(newTreeWalker(), status);
+		}
+		List<FileStatus> files = new ArrayList<FileStatus>();
+		for (FileStatus child : listStatus(file)) {
+			if (!child.isDir()) {
+				files.add(child);
+			}
+		}
+		return new SFTPFileIterator(files.toArray(new FileStatus[files.size()]));
+	}
+
+	private SFTPTreeWalker newTreeWalker() {
+		String strategy = getConf().get(SFTPConstants.WALK_STRATEGY,
+				SFTPConstants.DEFAULT_WALK_STRATEGY);
+		return new SFTPTreeWalker(this, pool, getConf().getInt(
+				SFTPConstants.WALK_PARALLELISM,
+				SFTPConstants.DEFAULT_WALK_PARALLELISM),
+				!"bfs".equalsIgnoreCase(strategy));
+	}
+
 	@Override
 	public FileStatus getFileStatus(Path file) throws IOException {
 		SFTPConnection conn = connect();
@@ -421,19 +528,12 @@ public class SFTPFileSystem extends FileSystem {
 	/**
 	 * Convenience method, so that we don't open a new connection when using
 	 * this method from within another method. Otherwise every API invocation
-	 * incurs the overhead of opening/closing a TCP connection.
+	 * incurs the overhead of opening/closing a TCP connection.<br />
+	 * Costs a single stat round trip whatever the size of the parent dir.
 	 */
-	@SuppressWarnings("unchecked")
 	private FileStatus getFileStatus(ChannelSftp client, Path file)
 			throws IOException {
-		FileStatus fileStat = null;
-		Path workDir = null;
-		try {
-			workDir = new Path(client.pwd());
-		} catch (SftpException e1) {
-			throw new SFTPException(e1.getMessage());
-		}
-		Path absolute = makeAbsolute(workDir, file);
+		Path absolute = makeAbsolute(file);
 		Path parentPath = absolute.getParent();
 		if (parentPath == null) { // root dir
 			long length = -1; // Length of root dir on server not known
@@ -445,27 +545,34 @@ public class SFTPFileSystem extends FileSystem {
 			return new FileStatus(length, isDir, blockReplication, blockSize,
 					modTime, root.makeQualified(this));
 		}
-		String pathName = parentPath.toUri().getPath();
-		Vector<LsEntry> entries = null;
+		String pathName = absolute.toUri().getPath();
+		if (null != cache) {
+			FileStatus cached = cache.getStatus(pathName);
+			if (SFTPMetadataCache.MISSING == cached) {
+				throw new FileNotFoundException("File " + file + " does not exist.");
+			}
+			if (null != cached) {
+				return cached;
+			}
+		}
+		SftpATTRS attr = null;
 		try {
-			entries = client.ls(pathName);
-			if(null != entries){
-				for(int i = 0; i < entries.size();i++){
-					if(entries.get(i).getFilename().equals(file.getName())){ // file found in dir
-						fileStat = getFileStatus(entries.get(i),parentPath);
-						break;
-					}
-				}
-				if (fileStat == null) {
-					throw new FileNotFoundException("File " + file
-							+ " does not exist.");
+			long start = System.nanoTime();
+			attr = client.stat(pathName);
+			SFTPMetrics.since(SFTPMetrics.STAT, start);
+		} catch (SftpException e) {
+			if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				if (null != cache) {
+					cache.putMissing(pathName);
 				}
-			} else {
 				throw new FileNotFoundException("File " + file + " does not exist.");
 			}
-		} catch (SftpException e) {
 			throw new SFTPException(e.getMessage());
 		}
+		FileStatus fileStat = getFileStatus(attr, absolute);
+		if (null != cache) {
+			cache.putStatus(pathName, fileStat);
+		}
 		return fileStat;
 	}
 
@@ -477,18 +584,29 @@ public class SFTPFileSystem extends FileSystem {
 	 * @return FileStatus
 	 */
 	private FileStatus getFileStatus(LsEntry entry, Path parentPath) {
-		SftpATTRS attr = entry.getAttrs();
+		return getFileStatus(entry.getAttrs(), new Path(parentPath, entry.getFilename()));
+	}
+
+	/**
+	 * Convert sftp attributes of the given path to a {@link FileStatus}
+	 * object. *
+	 * 
+	 * @param attr
+	 * @param filePath
+	 * @return FileStatus
+	 */
+	private FileStatus getFileStatus(SftpATTRS attr, Path filePath) {
 		long length = attr.getSize();
 		boolean isDir = attr.isDir();
 		int blockReplication = 1;
 		long blockSize = DEFAULT_BLOCK_SIZE;
-		long modTime = attr.getMTime();
-		long accessTime = attr.getATime();
+		// sftp times are in seconds, FileStatus times in milliseconds
+		long modTime = attr.getMTime() * 1000L;
+		long accessTime = attr.getATime() * 1000L;
 		FsPermission permission = getPermissions(attr);
 		
 		String user = String.valueOf(attr.getUId());
 		String group = String.valueOf(attr.getGId());
-		Path filePath = new Path(parentPath,entry.getFilename());
 		return new FileStatus(length, isDir, blockReplication, blockSize,
 				modTime, accessTime, permission, user, group,
 				filePath.makeQualified(this));
@@ -521,18 +639,15 @@ public class SFTPFileSystem extends FileSystem {
 	private boolean mkdirs(ChannelSftp client, Path file, FsPermission permission)
 			throws IOException, SftpException {
 		boolean created = true;
-		Path workDir = new Path(client.pwd());
-		Path absolute = makeAbsolute(workDir, file);
-		String pathName = absolute.getName();
+		Path absolute = makeAbsolute(file);
 		if (false == exists(client, absolute)) {
 			Path parent = absolute.getParent();
 			created = (parent == null || mkdirs(client, parent,
 					FsPermission.getDefault()));
 			if (true == created) {
-				String parentDir = parent.toUri().getPath();
 				try{
-					client.cd(parentDir);
-					client.mkdir(pathName);
+					invalidate(absolute, false);
+					client.mkdir(absolute.toUri().getPath());
 					created = true ;
 				}catch (SftpException e) {
 					created = false;
@@ -563,8 +678,8 @@ public class SFTPFileSystem extends FileSystem {
 	}
 
 	/*
-	 * Assuming that parent of both source and destination is the same. Is the
-	 * assumption correct or it is suppose to work like 'move' ?
+	 * Works like 'move': source and destination may be in different
+	 * directories, the destination must not exist yet.
 	 */
 	@Override
 	public boolean rename(Path src, Path dst) throws IOException {
@@ -591,14 +706,8 @@ public class SFTPFileSystem extends FileSystem {
 	 */
 	private boolean rename(ChannelSftp client, Path src, Path dst)
 			throws IOException {
-		Path workDir;
-		try {
-			workDir = new Path(client.pwd());
-		} catch (SftpException e) {
-			throw new IOException(e);
-		}
-		Path absoluteSrc = makeAbsolute(workDir, src);
-		Path absoluteDst = makeAbsolute(workDir, dst);
+		Path absoluteSrc = makeAbsolute(src);
+		Path absoluteDst = makeAbsolute(dst);
 		if (!exists(client, absoluteSrc)) {
 			throw new IOException("Source path " + src + " does not exist");
 		}
@@ -606,22 +715,13 @@ public class SFTPFileSystem extends FileSystem {
 			throw new IOException("Destination path " + dst
 					+ " already exist, cannot rename!");
 		}
-		String parentSrc = absoluteSrc.getParent().toUri().toString();
-		String parentDst = absoluteDst.getParent().toUri().toString();
-		String from = src.getName();
-		String to = dst.getName();
-		if (!parentSrc.equals(parentDst)) {
-			throw new IOException("Cannot rename parent(source): " + parentSrc
-					+ ", parent(destination):  " + parentDst);
-		}
-		try {
-			client.cd(parentSrc);
-		} catch (SftpException e) {
-			throw new IOException(e);
-		}
+		// the sftp rename request moves across directories of the same server
+		invalidate(absoluteSrc, true);
+		invalidate(absoluteDst, true);
 		boolean renamed = true; 
 		try {
-			client.rename(from, to);
+			client.rename(absoluteSrc.toUri().getPath(),
+					absoluteDst.toUri().getPath());
 		} catch (SftpException e) {
 			renamed = false;
 		}
@@ -630,35 +730,30 @@ public class SFTPFileSystem extends FileSystem {
 
 	@Override
 	public Path getWorkingDirectory() {
-		// Return home directory always since we do not maintain state.
-		return getHomeDirectory();
+		Path dir = workingDir;
+		return (null == dir) ? getHomeDirectory() : dir;
 	}
 
+	/**
+	 * The home directory is resolved once per host and user, later calls do
+	 * not touch the server.
+	 */
 	@Override
 	public Path getHomeDirectory() {
-		SFTPConnection conn;
-		try {
-			conn = connect();
-		} catch (IOException e1) {
-			throw new  RuntimeException(e1);
-		}
-		ChannelSftp client = conn.getChannelSftp();
-		try {
-			Path homeDir = new Path(client.pwd());
-			return homeDir;
-		} catch (SftpException e) {
-			throw new SFTPException("Failed to get home directory", e);
-		} finally {
+		Path dir = homeDir;
+		if (null == dir) {
 			try {
-				disconnect(conn);
+				dir = new Path(pool.getHomeDirectory());
 			} catch (IOException e) {
-				throw new SFTPException("Failed to disconnect", e);
+				throw new SFTPException("Failed to get home directory", e);
 			}
+			homeDir = dir;
 		}
+		return dir;
 	}
 
 	@Override
 	public void setWorkingDirectory(Path newDir) {
-		// we do not maintain the working directory state
+		workingDir = makeAbsolute(newDir);
 	}
 }
@@ -6,20 +6,45 @@ import java.io.InputStream;
 import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.FileSystem;
 
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Seekable stream over one remote file.<br />
+ * A seek only moves the position, the remote read is repositioned lazily on
+ * the next read: short forward seeks read through, anything else reopens the
+ * file at the new offset on the same channel. With fs.sftp.read.parallelism
+ * above 1 reads are served by a {@link SFTPReadAhead} instead.
+ */
 public class SFTPInputStream extends FSInputStream {
 
+	/** Forward seeks up to this many bytes are read through instead of reopening */
+	private static final int SKIP_THRESHOLD = 128 * 1024;
+
 	private InputStream wrappedStream;
-	
+
 	private SFTPConnection conn;
-	
+
 	private FileSystem.Statistics stats;
-	
+
 	private boolean closed;
-	
+
 	private long pos;
 
+	private final String path;
+
+	private final long length;
+
+	/** offset the wrapped stream reads next */
+	private long streamPos;
+
+	private byte[] skipBuffer;
+
+	private final byte[] oneByte = new byte[1];
+
+	private final SFTPReadAhead readAhead;
+
 	public SFTPInputStream(InputStream stream, SFTPConnection conn,
-			FileSystem.Statistics stats) {
+			String path, long length, FileSystem.Statistics stats) {
 		if (stream == null) {
 			throw new IllegalArgumentException("Null InputStream");
 		}
@@ -29,22 +54,45 @@ public class SFTPInputStream extends FSInputStream {
 		}
 		this.wrappedStream = stream;
 		this.conn = conn;
+		this.path = path;
+		this.length = length;
 		this.stats = stats;
 		this.pos = 0;
+		this.streamPos = 0;
 		this.closed = false;
+		this.readAhead = null;
 	}
 
-	public long getPos() throws IOException {
+	SFTPInputStream(SFTPReadAhead readAhead, String path, long length,
+			FileSystem.Statistics stats) {
+		this.readAhead = readAhead;
+		this.path = path;
+		this.length = length;
+		this.stats = stats;
+		this.pos = 0;
+		this.closed = false;
+	}
+
+	public synchronized long getPos() throws IOException {
 		return pos;
 	}
 
-	// We don't support seek.
-	public void seek(long pos) throws IOException {
-		throw new IOException("Seek not supported");
+	public synchronized void seek(long pos) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (pos < 0) {
+			throw new IOException("Cannot seek to negative offset " + pos);
+		}
+		if (pos > length) {
+			throw new IOException("Cannot seek after EOF");
+		}
+		this.pos = pos;
 	}
 
+	// There is only one copy of a remote file.
 	public boolean seekToNewSource(long targetPos) throws IOException {
-		throw new IOException("Seek not supported");
+		return false;
 	}
 
 	public synchronized int read() throws IOException {
@@ -52,7 +100,7 @@ public class SFTPInputStream extends FSInputStream {
 			throw new IOException("Stream closed");
 		}
 
-		int byteRead = wrappedStream.read();
+		int byteRead = readRemote(oneByte, 0, 1) > 0 ? oneByte[0] & 0xff : -1;
 		if (byteRead >= 0) {
 			pos++;
 		}
@@ -67,8 +115,11 @@ public class SFTPInputStream extends FSInputStream {
 		if (closed) {
 			throw new IOException("Stream closed");
 		}
+		if (len == 0) {
+			return 0;
+		}
 
-		int result = wrappedStream.read(buf, off, len);
+		int result = readRemote(buf, off, len);
 		if (result > 0) {
 			pos += result;
 		}
@@ -79,26 +130,100 @@ public class SFTPInputStream extends FSInputStream {
 		return result;
 	}
 
+	/**
+	 * Read at pos from the read-ahead window or the wrapped stream.
+	 */
+	private int readRemote(byte buf[], int off, int len) throws IOException {
+		if (null != readAhead) {
+			return readAhead.read(pos, buf, off, len);
+		}
+		positionStream();
+		int result;
+		// jsch answers 0 when it had to drop out-of-order replies
+		do {
+			result = wrappedStream.read(buf, off, len);
+		} while (result == 0);
+		if (result > 0) {
+			streamPos += result;
+		}
+		return result;
+	}
+
+	/**
+	 * Read at the given offset without moving the stream position. Sequential
+	 * positioned reads keep reading from the same remote handle.
+	 */
+	@Override
+	public synchronized int read(long position, byte[] buf, int off, int len)
+			throws IOException {
+		if (position < 0) {
+			throw new IOException("Cannot read at negative offset " + position);
+		}
+		long oldPos = pos;
+		try {
+			pos = position;
+			return read(buf, off, len);
+		} finally {
+			pos = oldPos;
+		}
+	}
+
+	/**
+	 * Make the wrapped stream read from pos next.
+	 */
+	private void positionStream() throws IOException {
+		if (null != wrappedStream) {
+			long gap = pos - streamPos;
+			if (gap == 0) {
+				return;
+			}
+			if (gap > 0 && gap <= SKIP_THRESHOLD && skipFully((int) gap)) {
+				return;
+			}
+			wrappedStream.close();
+			wrappedStream = null;
+		}
+		try {
+			wrappedStream = conn.getChannelSftp().get(path, null, pos);
+		} catch (SftpException e) {
+			throw new IOException("Unable to open file: " + path + " at offset " + pos, e);
+		}
+		streamPos = pos;
+	}
+
+	private boolean skipFully(int gap) throws IOException {
+		if (null == skipBuffer) {
+			skipBuffer = new byte[8 * 1024];
+		}
+		while (gap > 0) {
+			int n = wrappedStream.read(skipBuffer, 0, Math.min(gap, skipBuffer.length));
+			if (n < 0) {
+				return false;
+			}
+			streamPos += n;
+			gap -= n;
+		}
+		return true;
+	}
+
 	public synchronized void close() throws IOException {
 		if (closed) {
 			throw new IOException("Stream closed");
 		}
 		super.close();
 		closed = true;
-		if (!conn.getChannelSftp().isConnected()) {
-			throw new SFTPException("Client not connected");
+		if (null != readAhead) {
+			readAhead.close();
+			return;
 		}
-
-//		boolean cmdCompleted = client.completePendingCommand();
-//		boolean cmdCompleted = client.isEOF();
-//		conn.getChannelSftp().disconnect();
-//		conn.getSession().disconnect();
-		if(null != conn){
-			conn.disconnect();
+		// close the remote handle first so the channel is clean for its next user
+		try {
+			if (null != wrappedStream) {
+				wrappedStream.close();
+			}
+		} finally {
+			conn.release();
 		}
-	/*	if (!cmdCompleted) {
-			throw new SFTPException("Could not complete transfer");
-		}*/
 	}
 
 	// Not supported.
@@ -0,0 +1,179 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * Bounded LRU of file statuses and directory listings keyed by absolute
+ * path.<br />
+ * Entries expire after fs.sftp.metadata.cache.ttl milliseconds, paths known
+ * not to exist are cached as {@link #MISSING}. {@link SFTPFileSystem}
+ * invalidates the entries its own create, delete, rename and mkdirs touch.
+ */
+public class SFTPMetadataCache {
+
+	/** Cached status of a path which does not exist */
+	public static final FileStatus MISSING = new FileStatus();
+
+	private final int maxEntries;
+
+	private final long ttl;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/** guarded by this */
+	private final LinkedHashMap<String, CachedPath> entries;
+
+	public SFTPMetadataCache(final int maxEntries, long ttl) {
+		this.maxEntries = maxEntries;
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<String, CachedPath>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedPath> eldest) {
+				return size() > SFTPMetadataCache.this.maxEntries;
+			}
+
+		};
+	}
+
+	/**
+	 * @return the cached status, {@link #MISSING} for a cached miss, or null
+	 *         if the path has to be looked up
+	 */
+	public synchronized FileStatus getStatus(String path) {
+		CachedPath entry = entries.get(path);
+		if (null != entry && null != entry.status
+				&& entry.statusExpires > System.currentTimeMillis()) {
+			hits.incrementAndGet();
+			return entry.status;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * @return the cached listing, or null if the directory has to be listed
+	 */
+	public synchronized FileStatus[] getListing(String path) {
+		CachedPath entry = entries.get(path);
+		if (null != entry && null != entry.listing
+				&& entry.listingExpires > System.currentTimeMillis()) {
+			hits.incrementAndGet();
+			return entry.listing.clone();
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	public synchronized void putStatus(String path, FileStatus status) {
+		CachedPath entry = entry(path);
+		entry.status = status;
+		entry.statusExpires = System.currentTimeMillis() + ttl;
+	}
+
+	public void putMissing(String path) {
+		putStatus(path, MISSING);
+	}
+
+	/**
+	 * Cache a listing together with the status of every entry in it.
+	 */
+	public synchronized void putListing(String path, FileStatus[] listing) {
+		long expires = System.currentTimeMillis() + ttl;
+		CachedPath entry = entry(path);
+		entry.listing = listing;
+		entry.listingExpires = expires;
+		for (FileStatus status : listing) {
+			CachedPath child = entry(status.getPath().toUri().getPath());
+			child.status = status;
+			child.statusExpires = expires;
+		}
+	}
+
+	/**
+	 * Forget a path which was created or changed, and the listing of its
+	 * parent.
+	 */
+	public synchronized void invalidate(String path) {
+		entries.remove(path);
+		String parent = getParent(path);
+		if (null != parent) {
+			entries.remove(parent);
+		}
+	}
+
+	/**
+	 * Forget a path, everything below it and the listing of its parent.
+	 */
+	public synchronized void invalidateTree(String path) {
+		invalidate(path);
+		String prefix = path.endsWith("/") ? path : path + "/";
+		Iterator<String> it = entries.keySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return "SFTPMetadataCache[entries=" + size() + ", hits=" + getHits()
+				+ ", misses=" + getMisses() + "]";
+	}
+
+	private CachedPath entry(String path) {
+		CachedPath entry = entries.get(path);
+		if (null == entry) {
+			entry = new CachedPath();
+			entries.put(path, entry);
+		}
+		return entry;
+	}
+
+	private static String getParent(String path) {
+		int slash = path.lastIndexOf('/');
+		if (slash < 0 || path.length() == 1) {
+			return null;
+		}
+		return slash == 0 ? "/" : path.substring(0, slash);
+	}
+
+	private static class CachedPath {
+
+		private FileStatus status;
+
+		private long statusExpires;
+
+		private FileStatus[] listing;
+
+		private long listingExpires;
+
+	}
+
+}
@@ -0,0 +1,34 @@
+package org.apache.hadoop.fs.sftp;
+
+import org.apache.hadoop.rabbit.metrics.LatencyHistogram;
+import org.apache.hadoop.rabbit.metrics.RabbitMetrics;
+
+/**
+ * Latencies of the SFTP round trips, published as sftp.* histograms of the
+ * {@link RabbitMetrics}. Bytes moved stay in the FileSystem statistics.<br />
+ * get and put measure opening the remote file, not the transfer.
+ */
+final class SFTPMetrics {
+
+	/** opening a channel, with its session if a new one is needed */
+	static final LatencyHistogram CONNECT = RabbitMetrics.get().histogram("sftp.connect");
+
+	static final LatencyHistogram STAT = RabbitMetrics.get().histogram("sftp.stat");
+
+	static final LatencyHistogram LS = RabbitMetrics.get().histogram("sftp.ls");
+
+	static final LatencyHistogram GET = RabbitMetrics.get().histogram("sftp.get");
+
+	static final LatencyHistogram PUT = RabbitMetrics.get().histogram("sftp.put");
+
+	private SFTPMetrics() {
+	}
+
+	/**
+	 * Record the time since start, taken from System.nanoTime().
+	 */
+	static void since(LatencyHistogram histogram, long start) {
+		histogram.record(System.nanoTime() - start);
+	}
+
+}
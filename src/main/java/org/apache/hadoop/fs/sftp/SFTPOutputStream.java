@@ -0,0 +1,298 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * Buffered upload of one remote file.<br />
+ * Writes are collected into chunks of fs.sftp.write.chunk.size. With
+ * outstanding chunks above 0 full chunks are queued to an uploader thread, so
+ * the writer fills the next chunk while the previous ones are sent; at most
+ * outstanding chunks wait behind the one being sent, and all buffers together
+ * are bounded by the per stream byte budget. flush and close return once the
+ * server acknowledged every write.
+ */
+class SFTPOutputStream extends OutputStream {
+
+	private static final ExecutorService UPLOADERS = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "sftp-upload-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+
+			});
+
+	private final OutputStream out;
+
+	private final SFTPConnection conn;
+
+	private final String path;
+
+	private final Progressable progress;
+
+	private final int chunkSize;
+
+	private final int outstanding;
+
+	private final int maxBuffers;
+
+	/** chunk being filled by the writer, null until the next write */
+	private byte[] buf;
+
+	private int count;
+
+	/** full chunks waiting for the uploader, guarded by this */
+	private final LinkedList<Chunk> queue = new LinkedList<Chunk>();
+
+	/** recycled chunk buffers, guarded by this */
+	private final LinkedList<byte[]> freeBuffers = new LinkedList<byte[]>();
+
+	private int allocatedBuffers;
+
+	/** true while an uploader drains the queue, guarded by this */
+	private boolean uploading;
+
+	/** first upload failure, rethrown to the writer, guarded by this */
+	private IOException error;
+
+	private volatile boolean closed;
+
+	private final byte[] oneByte = new byte[1];
+
+	SFTPOutputStream(OutputStream out, SFTPConnection conn, String path,
+			Progressable progress, int chunkSize, int outstanding, long budget) {
+		this.out = out;
+		this.conn = conn;
+		this.path = path;
+		this.progress = progress;
+		this.chunkSize = chunkSize;
+		this.outstanding = Math.max(0, outstanding);
+		this.maxBuffers = (int) Math.max(this.outstanding + 1, budget / chunkSize);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		oneByte[0] = (byte) b;
+		write(oneByte, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkOpen();
+		while (len > 0) {
+			if (null == buf) {
+				buf = takeBuffer();
+				count = 0;
+			}
+			int n = Math.min(len, chunkSize - count);
+			System.arraycopy(b, off, buf, count, n);
+			count += n;
+			off += n;
+			len -= n;
+			if (count == chunkSize) {
+				submit();
+			}
+		}
+	}
+
+	/**
+	 * Send everything written so far and wait until the server acknowledged
+	 * it.
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkOpen();
+		if (count > 0) {
+			submit();
+		}
+		awaitUploads();
+		rethrow();
+		out.flush();
+		report();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		boolean clean = false;
+		try {
+			flush();
+			out.close();
+			clean = true;
+		} finally {
+			closed = true;
+			try {
+				if (!clean) {
+					awaitUploads();
+				}
+			} finally {
+				if (!clean) {
+					// unread acks are left on the channel, it must not be reused
+					conn.getChannelSftp().disconnect();
+				}
+				synchronized (this) {
+					freeBuffers.clear();
+				}
+				conn.release();
+			}
+		}
+	}
+
+	/**
+	 * Hand the current chunk to the uploader, waiting while outstanding chunks
+	 * are queued, or upload it in place when nothing may be outstanding.
+	 */
+	private void submit() throws IOException {
+		Chunk chunk = new Chunk(buf, count);
+		buf = null;
+		count = 0;
+		if (0 == outstanding) {
+			upload(chunk);
+			recycle(chunk.data);
+			return;
+		}
+		synchronized (this) {
+			while (queue.size() >= outstanding && null == error) {
+				waitForUploader();
+			}
+			rethrow();
+			queue.add(chunk);
+			if (!uploading) {
+				uploading = true;
+				UPLOADERS.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						drain();
+					}
+
+				});
+			}
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			Chunk chunk;
+			synchronized (this) {
+				chunk = queue.poll();
+				if (null == chunk || null != error) {
+					queue.clear();
+					uploading = false;
+					notifyAll();
+					return;
+				}
+				// room for a writer waiting in submit()
+				notifyAll();
+			}
+			try {
+				upload(chunk);
+			} catch (IOException e) {
+				synchronized (this) {
+					error = e;
+				}
+			}
+			recycle(chunk.data);
+		}
+	}
+
+	private void upload(Chunk chunk) throws IOException {
+		try {
+			out.write(chunk.data, 0, chunk.length);
+		} catch (IOException e) {
+			throw new IOException("Unable to write " + path, e);
+		}
+		report();
+	}
+
+	private void report() {
+		if (null != progress) {
+			progress.progress();
+		}
+	}
+
+	/**
+	 * @return a free chunk buffer, waiting for the uploader while the budget
+	 *         is used up
+	 */
+	private synchronized byte[] takeBuffer() throws IOException {
+		while (true) {
+			rethrow();
+			if (!freeBuffers.isEmpty()) {
+				return freeBuffers.removeFirst();
+			}
+			if (allocatedBuffers < maxBuffers) {
+				allocatedBuffers++;
+				return new byte[chunkSize];
+			}
+			waitForUploader();
+		}
+	}
+
+	private synchronized void recycle(byte[] data) {
+		if (!closed) {
+			freeBuffers.add(data);
+		}
+		notifyAll();
+	}
+
+	private synchronized void awaitUploads() throws IOException {
+		while (uploading) {
+			waitForUploader();
+		}
+	}
+
+	private void waitForUploader() throws IOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted writing " + path);
+		}
+	}
+
+	private synchronized void rethrow() throws IOException {
+		if (null != error) {
+			throw error;
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		rethrow();
+	}
+
+	/**
+	 * Bytes of the file waiting to be uploaded.
+	 */
+	private static class Chunk {
+
+		private final byte[] data;
+
+		private final int length;
+
+		Chunk(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+
+	}
+
+}
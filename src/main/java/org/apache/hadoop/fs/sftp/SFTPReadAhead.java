@@ -0,0 +1,270 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel read-ahead over one remote file.<br />
+ * Up to parallelism chunks ahead of the reader are fetched concurrently, each
+ * on its own pooled channel, and handed back in file order. Chunk buffers are
+ * recycled and their total size is bounded by the per stream byte budget.
+ */
+class SFTPReadAhead {
+
+	private static final ExecutorService FETCHERS = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "sftp-read-ahead-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+
+			});
+
+	private final SFTPConnectionPool pool;
+
+	private final String path;
+
+	private final long length;
+
+	private final int parallelism;
+
+	private final int chunkSize;
+
+	private final int maxBuffers;
+
+	/** chunks in file order, the head is the one being read, guarded by this */
+	private final LinkedList<Chunk> window = new LinkedList<Chunk>();
+
+	/** recycled chunk buffers, guarded by this */
+	private final LinkedList<byte[]> freeBuffers = new LinkedList<byte[]>();
+
+	private int allocatedBuffers;
+
+	/** offset of the first byte not yet scheduled */
+	private long nextOffset;
+
+	private boolean closed;
+
+	SFTPReadAhead(SFTPConnectionPool pool, String path, long length,
+			int parallelism, int chunkSize, long budget) {
+		this.pool = pool;
+		this.path = path;
+		this.length = length;
+		this.parallelism = parallelism;
+		this.chunkSize = chunkSize;
+		this.maxBuffers = (int) Math.max(parallelism, budget / chunkSize);
+	}
+
+	/**
+	 * Copy bytes at the given offset, waiting for the chunk holding them.
+	 *
+	 * @return bytes copied, or -1 at end of file
+	 */
+	synchronized int read(long position, byte[] buf, int off, int len)
+			throws IOException {
+		if (position >= length) {
+			return -1;
+		}
+		Chunk head = seekWindow(position);
+		while (!head.done) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted reading " + path);
+			}
+		}
+		if (null != head.error) {
+			IOException error = head.error;
+			reset(position);
+			throw error;
+		}
+		int start = (int) (position - head.offset);
+		if (start >= head.filled) {
+			// the file shrank since it was opened
+			return -1;
+		}
+		int n = Math.min(len, head.filled - start);
+		System.arraycopy(head.data, start, buf, off, n);
+		if (start + n == head.length) {
+			window.removeFirst();
+			recycle(head);
+			schedule();
+		}
+		return n;
+	}
+
+	synchronized void close() {
+		closed = true;
+		while (!window.isEmpty()) {
+			discard(window.removeFirst());
+		}
+		freeBuffers.clear();
+	}
+
+	/**
+	 * Drop chunks before position, or restart the window at position if it
+	 * is not covered by the chunks in flight.
+	 */
+	private Chunk seekWindow(long position) {
+		while (!window.isEmpty()) {
+			Chunk head = window.getFirst();
+			if (position < head.offset) {
+				break;
+			}
+			if (position < head.offset + head.length) {
+				return head;
+			}
+			discard(window.removeFirst());
+		}
+		reset(position);
+		return window.getFirst();
+	}
+
+	private void reset(long position) {
+		while (!window.isEmpty()) {
+			discard(window.removeFirst());
+		}
+		nextOffset = position;
+		schedule();
+		if (window.isEmpty()) {
+			// every buffer is still held by abandoned fetches
+			window.add(fetch(new byte[chunkSize]));
+		}
+	}
+
+	/**
+	 * Keep up to parallelism chunks in flight while buffers are available.
+	 */
+	private void schedule() {
+		while (window.size() < parallelism && nextOffset < length) {
+			byte[] data = takeBuffer();
+			if (null == data) {
+				break;
+			}
+			window.add(fetch(data));
+		}
+	}
+
+	private Chunk fetch(byte[] data) {
+		final Chunk chunk = new Chunk(nextOffset,
+				(int) Math.min(chunkSize, length - nextOffset), data);
+		nextOffset += chunk.length;
+		FETCHERS.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				IOException error = null;
+				int filled = 0;
+				try {
+					filled = fill(chunk);
+				} catch (IOException e) {
+					error = e;
+				}
+				synchronized (SFTPReadAhead.this) {
+					chunk.filled = filled;
+					chunk.error = error;
+					chunk.done = true;
+					if (chunk.abandoned) {
+						recycle(chunk);
+					}
+					SFTPReadAhead.this.notifyAll();
+				}
+			}
+
+		});
+		return chunk;
+	}
+
+	private int fill(Chunk chunk) throws IOException {
+		SFTPConnection conn = pool.borrow();
+		try {
+			long start = System.nanoTime();
+			InputStream in = conn.getChannelSftp().get(path, null, chunk.offset);
+			SFTPMetrics.since(SFTPMetrics.GET, start);
+			try {
+				int filled = 0;
+				while (filled < chunk.length) {
+					int n = in.read(chunk.data, filled, chunk.length - filled);
+					if (n < 0) {
+						break;
+					}
+					filled += n;
+				}
+				return filled;
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			throw new IOException("Unable to read " + path + " at offset "
+					+ chunk.offset, e);
+		} finally {
+			conn.release();
+		}
+	}
+
+	private void discard(Chunk chunk) {
+		if (chunk.done) {
+			recycle(chunk);
+		} else {
+			chunk.abandoned = true;
+		}
+	}
+
+	private byte[] takeBuffer() {
+		if (!freeBuffers.isEmpty()) {
+			return freeBuffers.removeFirst();
+		}
+		if (allocatedBuffers < maxBuffers) {
+			allocatedBuffers++;
+			return new byte[chunkSize];
+		}
+		return null;
+	}
+
+	private void recycle(Chunk chunk) {
+		if (!closed && chunk.data.length == chunkSize
+				&& freeBuffers.size() < maxBuffers) {
+			freeBuffers.add(chunk.data);
+		}
+		chunk.data = null;
+	}
+
+	/**
+	 * One range of the file fetched by a single remote read.
+	 */
+	private static class Chunk {
+
+		private final long offset;
+
+		private final int length;
+
+		private byte[] data;
+
+		private int filled;
+
+		private IOException error;
+
+		private boolean done;
+
+		private boolean abandoned;
+
+		Chunk(long offset, int length, byte[] data) {
+			this.offset = offset;
+			this.length = length;
+			this.data = data;
+		}
+
+	}
+
+}
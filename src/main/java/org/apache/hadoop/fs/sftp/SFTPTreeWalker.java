@@ -0,0 +1,305 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.fs.FileStatus;
+
+import com.jcraft.jsch.ChannelSftp;
+
+/**
+ * Walks a remote tree with up to fs.sftp.walk.parallelism workers, each
+ * listing directories on its own pooled channel.<br />
+ * Directories waiting to be listed are taken breadth first or depth first
+ * (fs.sftp.walk.strategy); depth first keeps fewer of them in memory on wide
+ * trees. Entries are visited with the attributes ls returned, symbolic links
+ * are not followed.
+ */
+class SFTPTreeWalker {
+
+	private static final ExecutorService WALKERS = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "sftp-walker-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+
+			});
+
+	/**
+	 * Called by a worker for every entry below the root, on the channel of
+	 * that worker.
+	 */
+	interface Visitor {
+
+		void visit(ChannelSftp client, FileStatus status, int depth)
+				throws Exception;
+
+	}
+
+	private final SFTPFileSystem fs;
+
+	private final SFTPConnectionPool pool;
+
+	private final int parallelism;
+
+	private final boolean depthFirst;
+
+	/** directories waiting to be listed, guarded by this */
+	private final LinkedList<Dir> frontier = new LinkedList<Dir>();
+
+	/** workers started and not yet finished, guarded by this */
+	private int running;
+
+	/** workers listing a directory right now, guarded by this */
+	private int busy;
+
+	/** first failure, ends the walk, guarded by this */
+	private IOException error;
+
+	private volatile boolean cancelled;
+
+	SFTPTreeWalker(SFTPFileSystem fs, SFTPConnectionPool pool, int parallelism,
+			boolean depthFirst) {
+		this.fs = fs;
+		this.pool = pool;
+		this.parallelism = Math.max(1, parallelism);
+		this.depthFirst = depthFirst;
+	}
+
+	/**
+	 * Visit everything below the root directory, returning once the whole
+	 * tree was listed.
+	 */
+	void walk(FileStatus root, final Visitor visitor) throws IOException {
+		synchronized (this) {
+			frontier.add(new Dir(root, 0));
+			spawn(visitor);
+			try {
+				while (running > 0) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancel();
+				throw new IOException("Interrupted walking " + root.getPath());
+			}
+			if (null != error) {
+				throw error;
+			}
+		}
+	}
+
+	/**
+	 * Delete the root directory and everything below it. Files are removed
+	 * while the tree is listed, directories afterwards, deepest first.
+	 */
+	void delete(FileStatus root) throws IOException {
+		final List<List<String>> dirsByDepth = new ArrayList<List<String>>();
+		walk(root, new Visitor() {
+
+			@Override
+			public void visit(ChannelSftp client, FileStatus status, int depth)
+					throws Exception {
+				String path = status.getPath().toUri().getPath();
+				if (!status.isDir()) {
+					client.rm(path);
+					return;
+				}
+				synchronized (dirsByDepth) {
+					while (dirsByDepth.size() < depth) {
+						dirsByDepth.add(new ArrayList<String>());
+					}
+					dirsByDepth.get(depth - 1).add(path);
+				}
+			}
+
+		});
+		for (int depth = dirsByDepth.size(); depth > 0; depth--) {
+			removeDirectories(dirsByDepth.get(depth - 1));
+		}
+		List<String> top = new ArrayList<String>(1);
+		top.add(root.getPath().toUri().getPath());
+		removeDirectories(top);
+	}
+
+	/**
+	 * Stop the walk, workers finish the directory they are listing.
+	 */
+	void cancel() {
+		cancelled = true;
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Start another worker while directories are waiting with nobody idle to
+	 * take them.
+	 */
+	private void spawn(final Visitor visitor) {
+		while (running < parallelism && frontier.size() > running - busy) {
+			running++;
+			WALKERS.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					work(visitor);
+				}
+
+			});
+		}
+	}
+
+	private void work(Visitor visitor) {
+		SFTPConnection conn = null;
+		try {
+			conn = pool.borrow();
+			ChannelSftp client = conn.getChannelSftp();
+			Dir dir;
+			while (null != (dir = take())) {
+				List<Dir> subdirs = new ArrayList<Dir>();
+				try {
+					for (FileStatus child : fs.listDirectory(client, dir.status.getPath())) {
+						if (cancelled) {
+							break;
+						}
+						visitor.visit(client, child, dir.depth + 1);
+						if (child.isDir()) {
+							subdirs.add(new Dir(child, dir.depth + 1));
+						}
+					}
+				} finally {
+					synchronized (this) {
+						busy--;
+						frontier.addAll(subdirs);
+						spawn(visitor);
+						notifyAll();
+					}
+				}
+			}
+		} catch (Exception e) {
+			fail(e);
+		} finally {
+			if (null != conn) {
+				conn.release();
+			}
+			synchronized (this) {
+				running--;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return next directory to list, or null once the walk is over
+	 */
+	private synchronized Dir take() throws InterruptedException {
+		while (frontier.isEmpty() && busy > 0 && null == error && !cancelled) {
+			wait();
+		}
+		if (frontier.isEmpty() || null != error || cancelled) {
+			return null;
+		}
+		busy++;
+		return depthFirst ? frontier.removeLast() : frontier.removeFirst();
+	}
+
+	private synchronized void fail(Exception e) {
+		if (null == error) {
+			error = e instanceof IOException ? (IOException) e : new IOException(
+					"Failed to walk " + e.getMessage(), e);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Remove empty directories with up to parallelism channels.
+	 */
+	private void removeDirectories(List<String> paths) throws IOException {
+		final LinkedList<String> queue = new LinkedList<String>(paths);
+		final int workers = Math.min(parallelism, queue.size());
+		final List<Exception> errors = new ArrayList<Exception>();
+		final AtomicInteger remaining = new AtomicInteger(workers);
+		for (int i = 0; i < workers; i++) {
+			WALKERS.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					SFTPConnection conn = null;
+					try {
+						conn = pool.borrow();
+						while (true) {
+							String path;
+							synchronized (queue) {
+								path = queue.poll();
+							}
+							if (null == path || cancelled) {
+								break;
+							}
+							conn.getChannelSftp().rmdir(path);
+						}
+					} catch (Exception e) {
+						synchronized (queue) {
+							errors.add(e);
+							queue.clear();
+						}
+					} finally {
+						if (null != conn) {
+							conn.release();
+						}
+						synchronized (queue) {
+							remaining.decrementAndGet();
+							queue.notifyAll();
+						}
+					}
+				}
+
+			});
+		}
+		synchronized (queue) {
+			try {
+				while (remaining.get() > 0) {
+					queue.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancel();
+				throw new IOException("Interrupted removing directories");
+			}
+			if (!errors.isEmpty()) {
+				Exception e = errors.get(0);
+				throw e instanceof IOException ? (IOException) e : new IOException(
+						"Failed to remove directory " + e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * A directory waiting to be listed.
+	 */
+	private static class Dir {
+
+		private final FileStatus status;
+
+		private final int depth;
+
+		Dir(FileStatus status, int depth) {
+			this.status = status;
+			this.depth = depth;
+		}
+
+	}
+
+}
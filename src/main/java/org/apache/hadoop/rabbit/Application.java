@@ -1,20 +1,197 @@
 package org.apache.hadoop.rabbit;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.rabbit.load.LoadRelay;
+import org.apache.hadoop.rabbit.load.LoadSink;
+import org.apache.hadoop.rabbit.load.LoadSource;
+import org.apache.hadoop.rabbit.mapreduce.RabbitMapper;
+import org.apache.hadoop.rabbit.mapreduce.lib.input.RabbitInputFormat;
+import org.apache.hadoop.rabbit.metrics.LatencyHistogram;
+import org.apache.hadoop.rabbit.metrics.RabbitMetrics;
+import org.apache.hadoop.rabbit.topology.Topology;
+import org.apache.hadoop.rabbit.util.Accumulator;
+import org.apache.hadoop.rabbit.util.JobUtils.JobBuilder;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.apache.hadoop.rabbit.worker.Source;
+import org.apache.hadoop.rabbit.worker.Worker;
 import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Load generator measuring what a Rabbit job sustains on a single box.<br />
+ * Runs a resident {@link RabbitMapper} in the local job runner, fed by a
+ * {@link LoadSource} at the given rate through a {@link Topology} of relay
+ * stages ending in a {@link LoadSink}, and prints the throughput, the end to
+ * end latency percentiles and the GC time every report interval and for the
+ * whole run. Stages already set in mapreduce.rabbit.topology.stages are used
+ * instead of the relays, they must emit every event. The job runs in this
+ * JVM, so the metrics of the mapper are read directly.
+ */
+public class Application extends Configured implements Tool {
+
+	private static final String SINK = "load-sink";
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	public static void main(String[] args) throws Exception {
+		System.exit(ToolRunner.run(new Application(), args));
+	}
+
+	@Override
+	public int run(String[] args) throws Exception {
+		Configuration conf = getConf();
+		int stages = 1;
+		int parallelism = 1;
+		long report = 5;
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 == args.length) {
+				return usage();
+			}
+			String option = args[i];
+			String value = args[i + 1];
+			if ("-rate".equals(option)) {
+				conf.setLong(RabbitConstants.LOAD_RATE, Long.parseLong(value));
+			} else if ("-duration".equals(option)) {
+				conf.setLong(RabbitConstants.LOAD_DURATION, 1000 * Long.parseLong(value));
+			} else if ("-payload".equals(option)) {
+				conf.setInt(RabbitConstants.LOAD_PAYLOAD, Integer.parseInt(value));
+			} else if ("-stages".equals(option)) {
+				stages = Math.max(1, Integer.parseInt(value));
+			} else if ("-parallelism".equals(option)) {
+				parallelism = Math.max(1, Integer.parseInt(value));
+			} else if ("-report".equals(option)) {
+				report = Math.max(1, Long.parseLong(value));
+			} else {
+				return usage();
+			}
+		}
+		Job job = createJob(conf, stages, parallelism);
+		return measure(job, conf, 1000 * report) ? 0 : 1;
+	}
 
-public class Application extends Configured implements Tool{
+	private int usage() {
+		JobBuilder.printUsage(this, "[-rate events/s] [-duration s] [-payload bytes]"
+				+ " [-stages n] [-parallelism n] [-report s]");
+		return -1;
+	}
 
 	/**
-	 * @param args
+	 * A local job with a single work plan served by the load topology.
 	 */
-	public static void main(String[] args) {
+	private Job createJob(Configuration conf, int stages, int parallelism)
+			throws IOException {
+		conf.set("mapred.job.tracker", "local");
+		conf.set("fs.default.name", "file:///");
+		conf.setClass(RabbitConstants.SOURCE_CLASS, LoadSource.class, Source.class);
+		conf.setClass(RabbitConstants.WORKER_CLASS, Topology.class, Worker.class);
+		if (null == conf.get(RabbitConstants.TOPOLOGY_STAGES)) {
+			for (int i = 1; i < stages; i++) {
+				Topology.addStage(conf, "relay-" + i, LoadRelay.class, parallelism);
+			}
+		}
+		Topology.addStage(conf, SINK, LoadSink.class, parallelism);
+
+		// the local runner keeps its files below hadoop.tmp.dir too
+		FileSystem fs = FileSystem.getLocal(conf);
+		Path plan = fs.makeQualified(new Path(conf.get("hadoop.tmp.dir"),
+				"rabbit-load-" + System.currentTimeMillis() + "/plan"));
+		OutputStream out = fs.create(plan, true);
+		try {
+			out.write("load\n".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		fs.deleteOnExit(plan.getParent());
 
+		Job job = new Job(conf, "rabbit-load");
+		job.setJarByClass(getClass());
+		job.setInputFormatClass(RabbitInputFormat.class);
+		FileInputFormat.addInputPath(job, plan);
+		job.setMapperClass(RabbitMapper.class);
+		job.setNumReduceTasks(0);
+		job.setOutputKeyClass(NullWritable.class);
+		job.setOutputValueClass(NullWritable.class);
+		job.setOutputFormatClass(NullOutputFormat.class);
+		return job;
 	}
 
-	@Override
-	public int run(String[] arg0) throws Exception {
-		return 0;
+	/**
+	 * Run the job, reporting every interval ms and for the whole run.
+	 *
+	 * @return whether the job succeeded
+	 */
+	private boolean measure(Job job, Configuration conf, long interval)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		RabbitMetrics metrics = RabbitMetrics.get();
+		LatencyHistogram latency = metrics.histogram(LoadSink.LATENCY);
+		Accumulator sent = metrics.meter(LoadSource.SENT);
+		Accumulator received = metrics.meter(LoadSink.RECEIVED);
+		System.out.printf("rate %d events/s for %d s, %s%n",
+				conf.getLong(RabbitConstants.LOAD_RATE, RabbitConstants.DEFAULT_LOAD_RATE),
+				conf.getLong(RabbitConstants.LOAD_DURATION,
+						RabbitConstants.DEFAULT_LOAD_DURATION) / 1000,
+				conf.get(RabbitConstants.TOPOLOGY_STAGES));
+		System.out.printf("%8s %10s %10s %10s %10s %10s %10s %10s %8s%n", "time s",
+				"sent/s", "recv/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms",
+				"gc ms");
+
+		LatencyHistogram.Snapshot first = latency.snapshot();
+		long firstSent = sent.sum();
+		long firstReceived = received.sum();
+		long firstGc = metrics.gcTime();
+		long start = System.currentTimeMillis();
+
+		LatencyHistogram.Snapshot last = first;
+		long lastSent = firstSent;
+		long lastReceived = firstReceived;
+		long lastGc = firstGc;
+		long lastTime = start;
+		job.submit();
+		while (!job.isComplete()) {
+			Thread.sleep(interval);
+			long now = System.currentTimeMillis();
+			LatencyHistogram.Snapshot snapshot = latency.snapshot();
+			long s = sent.sum();
+			long r = received.sum();
+			long gc = metrics.gcTime();
+			print((now - start) / 1000 + "", now - lastTime, s - lastSent, r - lastReceived,
+					snapshot.minus(last), gc - lastGc);
+			last = snapshot;
+			lastSent = s;
+			lastReceived = r;
+			lastGc = gc;
+			lastTime = now;
+		}
+		long now = System.currentTimeMillis();
+		print("total", now - start, sent.sum() - firstSent, received.sum() - firstReceived,
+				latency.snapshot().minus(first), metrics.gcTime() - firstGc);
+		boolean success = job.isSuccessful();
+		if (!success) {
+			System.out.println("Load job failed, see the log");
+		}
+		return success;
+	}
+
+	private static void print(String label, long millis, long sent, long received,
+			LatencyHistogram.Snapshot latency, long gc) {
+		double seconds = Math.max(1, millis) / 1000.0;
+		StringBuilder line = new StringBuilder(String.format("%8s %10.0f %10.0f", label,
+				sent / seconds, received / seconds));
+		for (double percentile : PERCENTILES) {
+			line.append(String.format(" %10.2f", latency.getValueAtPercentile(percentile) / 1e6));
+		}
+		line.append(String.format(" %10.2f %8d", latency.getMax() / 1e6, gc));
+		System.out.println(line);
 	}
 
 }
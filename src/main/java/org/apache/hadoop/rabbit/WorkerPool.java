@@ -0,0 +1,150 @@
+package org.apache.hadoop.rabbit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.rabbit.mapreduce.RabbitPoolMapper;
+import org.apache.hadoop.rabbit.mapreduce.lib.input.RabbitInputFormat;
+import org.apache.hadoop.rabbit.pool.Deployment;
+import org.apache.hadoop.rabbit.pool.DeploymentRegistry;
+import org.apache.hadoop.rabbit.util.JobUtils;
+import org.apache.hadoop.rabbit.util.JobUtils.JobBuilder;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Starts worker pools and deploys topologies to them.<br />
+ * start submits a job of resident {@link RabbitPoolMapper}s, one per member,
+ * and returns. deploy adds a topology to a running pool or replaces the one
+ * of the same name, its worker and source classes may come from jars on
+ * HDFS and its -set properties are laid over the job configuration of the
+ * pool. undeploy stops a topology, list shows what is deployed. All of it
+ * goes through ZooKeeper, mapreduce.rabbit.zk.quorum must be set.
+ */
+public class WorkerPool extends Configured implements Tool {
+
+	public static void main(String[] args) throws Exception {
+		System.exit(ToolRunner.run(new WorkerPool(), args));
+	}
+
+	@Override
+	public int run(String[] args) throws Exception {
+		if (args.length < 2) {
+			return usage();
+		}
+		String command = args[0];
+		String pool = args[1];
+		if ("start".equals(command) && 3 == args.length) {
+			return start(pool, Integer.parseInt(args[2]));
+		}
+		if ("deploy".equals(command) && args.length >= 4) {
+			return deploy(pool, args);
+		}
+		if ("undeploy".equals(command) && 3 == args.length) {
+			DeploymentRegistry registry = DeploymentRegistry.open(getConf(), pool);
+			try {
+				if (!registry.undeploy(args[2])) {
+					System.err.println("No deployment " + args[2] + " in " + pool);
+					return 1;
+				}
+			} finally {
+				registry.close();
+			}
+			return 0;
+		}
+		if ("list".equals(command) && 2 == args.length) {
+			DeploymentRegistry registry = DeploymentRegistry.open(getConf(), pool);
+			try {
+				for (Map.Entry<String, Deployment> entry : registry.list().entrySet()) {
+					Deployment deployment = entry.getValue();
+					System.out.printf("%s\t%s\t%d\t%s\t%s%n", entry.getKey(),
+							deployment.getPlan().getDesc(), deployment.getRevision(),
+							deployment.getJars(), deployment.getProperties());
+				}
+			} finally {
+				registry.close();
+			}
+			return 0;
+		}
+		return usage();
+	}
+
+	private int usage() {
+		JobBuilder.printUsage(this, "start <pool> <members>\n"
+				+ "  deploy <pool> <name> <plan> [-jar path]... [-set key=value]...\n"
+				+ "  undeploy <pool> <name>\n"
+				+ "  list <pool>");
+		return -1;
+	}
+
+	/**
+	 * Submit the job of the pool, every input line is a member.
+	 */
+	private int start(String pool, int members) throws IOException,
+			InterruptedException, ClassNotFoundException {
+		Configuration conf = getConf();
+		// a speculative member would serve every deployment twice
+		conf.setBoolean("mapred.map.tasks.speculative.execution", false);
+		Path input = new Path(JobUtils.getTmpSubDir("pool-" + pool), "members");
+		FileSystem fs = input.getFileSystem(conf);
+		OutputStream out = fs.create(input, true);
+		try {
+			for (int i = 0; i < members; i++) {
+				out.write((pool + "\n").getBytes("UTF-8"));
+			}
+		} finally {
+			out.close();
+		}
+
+		Job job = new Job(conf, "rabbit-pool-" + pool);
+		job.setJarByClass(getClass());
+		job.setInputFormatClass(RabbitInputFormat.class);
+		FileInputFormat.addInputPath(job, input);
+		job.setMapperClass(RabbitPoolMapper.class);
+		job.setNumReduceTasks(0);
+		job.setOutputKeyClass(NullWritable.class);
+		job.setOutputValueClass(NullWritable.class);
+		job.setOutputFormatClass(NullOutputFormat.class);
+		job.submit();
+		System.out.println("Started pool " + pool + " as " + job.getJobID());
+		return 0;
+	}
+
+	private int deploy(String pool, String[] args) throws IOException {
+		Deployment deployment = new Deployment(args[2], new WorkDesc(args[3]));
+		for (int i = 4; i < args.length; i += 2) {
+			if (i + 1 == args.length) {
+				return usage();
+			}
+			if ("-jar".equals(args[i])) {
+				Path jar = new Path(args[i + 1]);
+				// members resolve it against their own file system otherwise
+				deployment.addJar(jar.getFileSystem(getConf()).makeQualified(jar).toString());
+			} else if ("-set".equals(args[i]) && args[i + 1].indexOf('=') > 0) {
+				int split = args[i + 1].indexOf('=');
+				deployment.set(args[i + 1].substring(0, split),
+						args[i + 1].substring(split + 1));
+			} else {
+				return usage();
+			}
+		}
+		DeploymentRegistry registry = DeploymentRegistry.open(getConf(), pool);
+		try {
+			registry.deploy(deployment);
+		} finally {
+			registry.close();
+		}
+		return 0;
+	}
+
+}
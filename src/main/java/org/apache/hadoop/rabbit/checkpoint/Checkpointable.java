@@ -0,0 +1,23 @@
+package org.apache.hadoop.rabbit.checkpoint;
+
+import java.io.IOException;
+
+/**
+ * A worker or source whose state survives the re-execution of its task.<br />
+ * The resident mapper calls {@link #checkpoint(StateStore)} at points where
+ * the worker processed exactly what the source read, a source from its reader
+ * thread and a worker from the processing thread. A new attempt of the task
+ * gets the entries of the latest checkpoint through
+ * {@link #restore(String, byte[])} before any work.
+ */
+public interface Checkpointable {
+
+	/**
+	 * Put the entries changed since the last checkpoint into the store, it
+	 * may also be filled as changes happen.
+	 */
+	public void checkpoint(StateStore store) throws IOException;
+
+	public void restore(String key, byte[] value) throws IOException;
+
+}
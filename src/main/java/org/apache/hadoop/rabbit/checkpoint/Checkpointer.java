@@ -0,0 +1,367 @@
+package org.apache.hadoop.rabbit.checkpoint;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incremental checkpoints of named {@link Checkpointable} participants in a
+ * directory.<br />
+ * Every checkpoint is a delta file holding the entries changed since the one
+ * before, written by a background thread under a temporary name and renamed
+ * once complete. After every compactDeltas deltas the same thread merges the
+ * latest base and the deltas since into a new base and deletes them, so a
+ * restore reads one base and at most compactDeltas deltas.
+ */
+public class Checkpointer implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(Checkpointer.class);
+
+	private static final int MAGIC = 0x52434b50;
+
+	private static final byte VERSION = 1;
+
+	private static final String BASE = "base-";
+
+	private static final String DELTA = "delta-";
+
+	private static final String TMP = "_tmp-";
+
+	private final FileSystem fs;
+
+	private final Path dir;
+
+	private final int compactDeltas;
+
+	private final ExecutorService writer;
+
+	/** last written or restored checkpoint, only touched by the writer */
+	private long seq = -1;
+
+	/** seq of the latest base, only touched by the writer */
+	private long baseSeq = -1;
+
+	/** guards pending and error */
+	private final Object lock = new Object();
+
+	private int pending;
+
+	private IOException error;
+
+	public Checkpointer(FileSystem fs, Path dir, int compactDeltas) {
+		this.fs = fs;
+		this.dir = dir;
+		this.compactDeltas = Math.max(1, compactDeltas);
+		this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "rabbit-checkpoint");
+				t.setDaemon(true);
+				return t;
+			}
+
+		});
+	}
+
+	/**
+	 * Hand the latest checkpoint to the participants, call it before the
+	 * first {@link #write(Map)}.
+	 *
+	 * @return whether there was a checkpoint
+	 */
+	public boolean restore(Map<String, Checkpointable> participants) throws IOException {
+		long start = System.currentTimeMillis();
+		Map<String, Map<String, byte[]>> state = readLatest();
+		if (seq < 0) {
+			return false;
+		}
+		long entries = 0;
+		for (Map.Entry<String, Map<String, byte[]>> section : state.entrySet()) {
+			Checkpointable participant = participants.get(section.getKey());
+			if (null == participant) {
+				LOG.warn("Nobody restores " + section.getKey() + " of " + dir);
+				continue;
+			}
+			for (Map.Entry<String, byte[]> entry : section.getValue().entrySet()) {
+				participant.restore(entry.getKey(), entry.getValue());
+				entries++;
+			}
+		}
+		LOG.info("Restored " + entries + " entries of checkpoint " + seq + " from "
+				+ dir + " in " + (System.currentTimeMillis() - start) + " ms");
+		return true;
+	}
+
+	/**
+	 * Write the changes of the participants by name as the next checkpoint,
+	 * in the background.
+	 *
+	 * @throws IOException if an earlier checkpoint failed
+	 */
+	public void write(final Map<String, Map<String, byte[]>> changes) throws IOException {
+		synchronized (lock) {
+			checkError();
+			pending++;
+		}
+		writer.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					writeDelta(changes);
+					if (seq - baseSeq >= compactDeltas) {
+						compact();
+					}
+				} catch (IOException e) {
+					synchronized (lock) {
+						if (null == error) {
+							LOG.error("Checkpoint to " + dir + " failed", e);
+							error = e;
+						}
+					}
+				} finally {
+					synchronized (lock) {
+						pending--;
+						lock.notifyAll();
+					}
+				}
+			}
+
+		});
+	}
+
+	/**
+	 * @return whether no checkpoint is being written
+	 */
+	public boolean isIdle() {
+		synchronized (lock) {
+			return 0 == pending;
+		}
+	}
+
+	/**
+	 * Wait for the checkpoints being written.
+	 */
+	@Override
+	public void close() throws IOException {
+		writer.shutdown();
+		synchronized (lock) {
+			while (pending > 0) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted waiting for checkpoints");
+				}
+			}
+			checkError();
+		}
+	}
+
+	/**
+	 * Remove all checkpoints, once the task does not need them any more.
+	 */
+	public void delete() throws IOException {
+		close();
+		fs.delete(dir, true);
+	}
+
+	private void checkError() throws IOException {
+		if (null != error) {
+			throw new IOException("Checkpoint to " + dir + " failed", error);
+		}
+	}
+
+	private void writeDelta(Map<String, Map<String, byte[]>> changes) throws IOException {
+		long next = seq + 1;
+		write(DELTA, next, changes);
+		seq = next;
+	}
+
+	/**
+	 * Merge the latest base and the deltas since into a new base.
+	 */
+	private void compact() throws IOException {
+		long start = System.currentTimeMillis();
+		Map<String, Map<String, byte[]>> state = readLatest();
+		write(BASE, seq, state);
+		for (FileStatus status : list()) {
+			String name = status.getPath().getName();
+			if (seqOf(name) < seq || (name.startsWith(DELTA) && seqOf(name) == seq)) {
+				fs.delete(status.getPath(), false);
+			}
+		}
+		baseSeq = seq;
+		LOG.info("Compacted checkpoints of " + dir + " up to " + seq + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private void write(String prefix, long seq, Map<String, Map<String, byte[]>> sections)
+			throws IOException {
+		Path tmp = new Path(dir, TMP + prefix + format(seq));
+		DataOutputStream out = fs.create(tmp, true);
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			WritableUtils.writeVInt(out, sections.size());
+			for (Map.Entry<String, Map<String, byte[]>> section : sections.entrySet()) {
+				Text.writeString(out, section.getKey());
+				WritableUtils.writeVInt(out, section.getValue().size());
+				for (Map.Entry<String, byte[]> entry : section.getValue().entrySet()) {
+					Text.writeString(out, entry.getKey());
+					byte[] value = entry.getValue();
+					WritableUtils.writeVInt(out, null == value ? -1 : value.length);
+					if (null != value) {
+						out.write(value);
+					}
+				}
+			}
+			out.close();
+			out = null;
+		} finally {
+			IOUtils.closeStream(out);
+		}
+		Path target = new Path(dir, prefix + format(seq));
+		if (!fs.rename(tmp, target)) {
+			throw new IOException("Failed to rename " + tmp + " to " + target);
+		}
+	}
+
+	/**
+	 * Read the latest base and apply the deltas since, setting seq and
+	 * baseSeq.
+	 */
+	private Map<String, Map<String, byte[]>> readLatest() throws IOException {
+		FileStatus[] files = list();
+		long base = -1;
+		for (FileStatus status : files) {
+			String name = status.getPath().getName();
+			if (name.startsWith(BASE)) {
+				base = Math.max(base, seqOf(name));
+			}
+		}
+		List<Path> deltas = new ArrayList<Path>();
+		for (FileStatus status : files) {
+			String name = status.getPath().getName();
+			if (name.startsWith(DELTA) && seqOf(name) > base) {
+				deltas.add(status.getPath());
+			}
+		}
+		// fixed width names sort by seq
+		Path[] sorted = deltas.toArray(new Path[deltas.size()]);
+		Arrays.sort(sorted);
+
+		Map<String, Map<String, byte[]>> state = new HashMap<String, Map<String, byte[]>>();
+		long latest = base;
+		if (base >= 0) {
+			read(new Path(dir, BASE + format(base)), state);
+		}
+		for (int i = 0; i < sorted.length; i++) {
+			long deltaSeq = seqOf(sorted[i].getName());
+			if (deltaSeq != latest + 1) {
+				// a gap means a lost delta, later ones are worthless and in the
+				// way of the next writes, which reuse their seqs
+				LOG.warn("Checkpoint " + (latest + 1) + " of " + dir
+						+ " is missing, dropping " + (sorted.length - i) + " after it");
+				for (int j = i; j < sorted.length; j++) {
+					fs.delete(sorted[j], false);
+				}
+				break;
+			}
+			read(sorted[i], state);
+			latest = deltaSeq;
+		}
+		seq = latest;
+		baseSeq = base;
+		return state;
+	}
+
+	private void read(Path file, Map<String, Map<String, byte[]>> state) throws IOException {
+		FSDataInputStream stream = fs.open(file);
+		DataInputStream in = stream;
+		try {
+			if (MAGIC != in.readInt()) {
+				throw new IOException(file + " is no checkpoint");
+			}
+			byte version = in.readByte();
+			if (version < 1 || version > VERSION) {
+				throw new IOException("Unsupported checkpoint version " + version + " of " + file);
+			}
+			int sections = WritableUtils.readVInt(in);
+			for (int i = 0; i < sections; i++) {
+				String name = Text.readString(in);
+				Map<String, byte[]> entries = state.get(name);
+				if (null == entries) {
+					entries = new HashMap<String, byte[]>();
+					state.put(name, entries);
+				}
+				int count = WritableUtils.readVInt(in);
+				for (int j = 0; j < count; j++) {
+					String key = Text.readString(in);
+					int length = WritableUtils.readVInt(in);
+					if (length < 0) {
+						entries.remove(key);
+					} else {
+						byte[] value = new byte[length];
+						in.readFully(value);
+						entries.put(key, value);
+					}
+				}
+			}
+		} finally {
+			IOUtils.closeStream(in);
+		}
+	}
+
+	private FileStatus[] list() throws IOException {
+		if (!fs.exists(dir)) {
+			return new FileStatus[0];
+		}
+		FileStatus[] files = fs.listStatus(dir);
+		return null == files ? new FileStatus[0] : files;
+	}
+
+	private static String format(long seq) {
+		return String.format("%019d", seq);
+	}
+
+	/**
+	 * @return seq of a base or delta file, -1 for anything else
+	 */
+	private static long seqOf(String name) {
+		String digits;
+		if (name.startsWith(BASE)) {
+			digits = name.substring(BASE.length());
+		} else if (name.startsWith(DELTA)) {
+			digits = name.substring(DELTA.length());
+		} else {
+			return -1;
+		}
+		try {
+			return Long.parseLong(digits);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+package org.apache.hadoop.rabbit.checkpoint;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Entries changed since the last checkpoint, written by one thread.<br />
+ * Taking a checkpoint swaps in a fresh map and hands the old one to the
+ * background writer, so the owner never waits for the write. Values must not
+ * be changed once put.
+ */
+public class StateStore {
+
+	/** changed entries, a null value marks a removed key */
+	private Map<String, byte[]> changes = new HashMap<String, byte[]>();
+
+	public void put(String key, byte[] value) {
+		if (null == value) {
+			throw new NullPointerException("Value of " + key + " is null");
+		}
+		changes.put(key, value);
+	}
+
+	public void remove(String key) {
+		changes.put(key, null);
+	}
+
+	/**
+	 * @return the changes so far, the store starts over empty
+	 */
+	public Map<String, byte[]> swap() {
+		Map<String, byte[]> swapped = changes;
+		changes = new HashMap<String, byte[]>();
+		return swapped;
+	}
+
+}
@@ -0,0 +1,21 @@
+package org.apache.hadoop.rabbit.configuration;
+
+import java.util.Set;
+
+/**
+ * Told about every reloaded {@link ConfigSnapshot}, see
+ * {@link ConfigManager#addListener(ConfigListener)}. A worker or source
+ * implementing it is registered by the RabbitMapper while it serves a work
+ * plan, so it can retune itself without a restart.
+ */
+public interface ConfigListener {
+
+	/**
+	 * Called by the reloading thread once snapshot is the current one, return
+	 * quickly.
+	 *
+	 * @param changed keys whose value differs from the previous snapshot
+	 */
+	void reconfigure(ConfigSnapshot snapshot, Set<String> changed);
+
+}
@@ -0,0 +1,193 @@
+package org.apache.hadoop.rabbit.configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The rabbit configuration of this JVM, loaded once and reloaded when it
+ * changes.<br />
+ * A rabbit-site.xml found as a local file is checked every
+ * mapreduce.rabbit.config.reload.interval ms, one inside a jar is not. With
+ * mapreduce.rabbit.config.zk.node and mapreduce.rabbit.zk.quorum set, the
+ * properties of that ZooKeeper node, in the same XML format, are laid over
+ * the files and followed as well. A reload which changes any setting swaps
+ * in a new {@link ConfigSnapshot} and tells the {@link ConfigListener}s what
+ * changed, readers never wait for it.
+ */
+public class ConfigManager {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ConfigManager.class);
+
+	private static volatile ConfigManager instance;
+
+	private final CopyOnWriteArrayList<ConfigListener> listeners =
+			new CopyOnWriteArrayList<ConfigListener>();
+
+	private volatile Configuration conf;
+
+	private volatile ConfigSnapshot snapshot;
+
+	/** rabbit-site.xml if it is a local file */
+	private final File site;
+
+	/** guarded by this */
+	private long siteModified;
+
+	/** properties of the ZooKeeper node, guarded by this */
+	private Map<String, String> overlay = Collections.emptyMap();
+
+	ConfigManager() {
+		conf = load(overlay);
+		snapshot = ConfigSnapshot.of(conf, 0);
+		site = localFile(conf.getResource(RabbitConstants.RABBIT_OVERWRITE_DEFAULT_CONFIG_FILE));
+		siteModified = null == site ? 0 : site.lastModified();
+	}
+
+	/**
+	 * @return the configuration of this JVM, loaded on first use
+	 */
+	public static ConfigManager get() {
+		ConfigManager manager = instance;
+		if (null == manager) {
+			synchronized (ConfigManager.class) {
+				manager = instance;
+				if (null == manager) {
+					manager = new ConfigManager();
+					manager.start();
+					instance = manager;
+				}
+			}
+		}
+		return manager;
+	}
+
+	/**
+	 * @return the latest snapshot
+	 */
+	public ConfigSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return the configuration the latest snapshot was taken from, copy it
+	 *         before changing anything
+	 */
+	public Configuration getConfiguration() {
+		return conf;
+	}
+
+	public void addListener(ConfigListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(ConfigListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Load the configuration again and publish it if any setting changed.
+	 *
+	 * @return the latest snapshot
+	 */
+	public synchronized ConfigSnapshot reload() {
+		Configuration loaded = load(overlay);
+		ConfigSnapshot last = snapshot;
+		ConfigSnapshot next = ConfigSnapshot.of(loaded, last.getVersion() + 1);
+		Set<String> changed = last.diff(next);
+		if (changed.isEmpty()) {
+			return last;
+		}
+		conf = loaded;
+		snapshot = next;
+		LOG.info("Reloaded the configuration, changed " + changed);
+		for (ConfigListener listener : listeners) {
+			try {
+				listener.reconfigure(next, changed);
+			} catch (RuntimeException e) {
+				LOG.warn(listener + " failed to take over the configuration", e);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Lay the properties of the ZooKeeper node over the files.
+	 */
+	synchronized void setOverlay(Map<String, String> properties) {
+		overlay = properties;
+		reload();
+	}
+
+	private void start() {
+		long interval = snapshot.getLong(RabbitConstants.CONFIG_RELOAD_INTERVAL,
+				RabbitConstants.DEFAULT_CONFIG_RELOAD_INTERVAL);
+		if (interval > 0 && null != site) {
+			new Timer("rabbit-config", true).schedule(new TimerTask() {
+
+				@Override
+				public void run() {
+					checkSite();
+				}
+
+			}, interval, interval);
+		}
+		String node = snapshot.get(RabbitConstants.CONFIG_ZK_NODE);
+		String quorum = snapshot.get(RabbitConstants.ZK_QUORUM);
+		if (null != node && null != quorum) {
+			try {
+				new ZooKeeperConfigWatcher(this, quorum, snapshot.getInt(
+						RabbitConstants.ZK_SESSION_TIMEOUT,
+						RabbitConstants.DEFAULT_ZK_SESSION_TIMEOUT), node).start();
+			} catch (IOException e) {
+				LOG.warn("Can not follow the configuration in " + node, e);
+			}
+		}
+	}
+
+	private synchronized void checkSite() {
+		long modified = site.lastModified();
+		if (modified == siteModified) {
+			return;
+		}
+		// a file broken while being edited is read again once it changes again
+		siteModified = modified;
+		try {
+			reload();
+		} catch (RuntimeException e) {
+			LOG.warn("Failed to reload " + site + ", keeping the configuration", e);
+		}
+	}
+
+	private static Configuration load(Map<String, String> overlay) {
+		Configuration loaded = RabbitConfiguration.create();
+		for (Map.Entry<String, String> entry : overlay.entrySet()) {
+			loaded.set(entry.getKey(), entry.getValue());
+		}
+		return loaded;
+	}
+
+	private static File localFile(URL url) {
+		if (null == url || !"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+}
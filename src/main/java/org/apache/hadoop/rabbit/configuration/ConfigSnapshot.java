@@ -0,0 +1,169 @@
+package org.apache.hadoop.rabbit.configuration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Immutable copy of the rabbit.*, mapreduce.rabbit.* and fs.sftp.* settings
+ * of a configuration, variables already expanded.<br />
+ * Unlike a Configuration it takes no lock, so it may be read from any thread
+ * on every use. Typed values are parsed once and kept, values which do not
+ * parse read as the default like in a Configuration.
+ */
+public final class ConfigSnapshot {
+
+	private static final String[] PREFIXES = { "rabbit.", "mapreduce.rabbit.", "fs.sftp." };
+
+	private final long version;
+
+	private final Map<String, String> values;
+
+	/** typed values by key, filled on first use */
+	private final ConcurrentMap<String, Object> parsed = new ConcurrentHashMap<String, Object>();
+
+	ConfigSnapshot(long version, Map<String, String> values) {
+		this.version = version;
+		this.values = Collections.unmodifiableMap(values);
+	}
+
+	/**
+	 * Take the settings out of conf.
+	 */
+	public static ConfigSnapshot of(Configuration conf, long version) {
+		Map<String, String> values = new HashMap<String, String>();
+		for (Map.Entry<String, String> entry : conf) {
+			String key = entry.getKey();
+			for (String prefix : PREFIXES) {
+				if (key.startsWith(prefix)) {
+					values.put(key, conf.get(key));
+					break;
+				}
+			}
+		}
+		return new ConfigSnapshot(version, values);
+	}
+
+	/**
+	 * @return how many snapshots were loaded before this one
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public String get(String name) {
+		return values.get(name);
+	}
+
+	public String get(String name, String defaultValue) {
+		String value = values.get(name);
+		return null == value ? defaultValue : value;
+	}
+
+	public int getInt(String name, int defaultValue) {
+		Object value = parsed.get(name);
+		if (value instanceof Integer) {
+			return (Integer) value;
+		}
+		String raw = values.get(name);
+		if (null == raw) {
+			return defaultValue;
+		}
+		try {
+			Integer parsedValue = Integer.valueOf(raw.trim());
+			parsed.put(name, parsedValue);
+			return parsedValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	public long getLong(String name, long defaultValue) {
+		Object value = parsed.get(name);
+		if (value instanceof Long) {
+			return (Long) value;
+		}
+		String raw = values.get(name);
+		if (null == raw) {
+			return defaultValue;
+		}
+		try {
+			Long parsedValue = Long.valueOf(raw.trim());
+			parsed.put(name, parsedValue);
+			return parsedValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	public boolean getBoolean(String name, boolean defaultValue) {
+		String raw = values.get(name);
+		if (null == raw) {
+			return defaultValue;
+		}
+		raw = raw.trim();
+		if ("true".equalsIgnoreCase(raw)) {
+			return true;
+		}
+		if ("false".equalsIgnoreCase(raw)) {
+			return false;
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * @return the comma separated values of name, null if it is not set
+	 */
+	public String[] getStrings(String name) {
+		Object value = parsed.get(name);
+		if (value instanceof String[]) {
+			return ((String[]) value).clone();
+		}
+		String raw = values.get(name);
+		if (null == raw) {
+			return null;
+		}
+		String[] strings = StringUtils.getStrings(raw);
+		if (null == strings) {
+			strings = new String[0];
+		}
+		parsed.put(name, strings);
+		return strings.clone();
+	}
+
+	/**
+	 * @return the keys set to another value in other, or set in only one of
+	 *         both, sorted
+	 */
+	public Set<String> diff(ConfigSnapshot other) {
+		Set<String> changed = new TreeSet<String>();
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			if (!entry.getValue().equals(other.values.get(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+		for (String key : other.values.keySet()) {
+			if (!values.containsKey(key)) {
+				changed.add(key);
+			}
+		}
+		return changed;
+	}
+
+	public Map<String, String> getValues() {
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigSnapshot " + version + " " + values.size() + " keys";
+	}
+
+}
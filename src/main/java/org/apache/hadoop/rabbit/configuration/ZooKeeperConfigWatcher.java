@@ -0,0 +1,113 @@
+package org.apache.hadoop.rabbit.configuration;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Follows a ZooKeeper node holding configuration properties in the Hadoop
+ * XML format and hands them to the {@link ConfigManager} whenever the node is
+ * created, changed or deleted. The node is read again after every
+ * (re)connect, an expired session is replaced.
+ */
+class ZooKeeperConfigWatcher implements Watcher {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ZooKeeperConfigWatcher.class);
+
+	private final ConfigManager manager;
+
+	private final String quorum;
+
+	private final int sessionTimeout;
+
+	private final String node;
+
+	private volatile ZooKeeper zk;
+
+	ZooKeeperConfigWatcher(ConfigManager manager, String quorum, int sessionTimeout,
+			String node) {
+		this.manager = manager;
+		this.quorum = quorum;
+		this.sessionTimeout = sessionTimeout;
+		this.node = node;
+	}
+
+	/**
+	 * Connect, the node is read once the session is established.
+	 */
+	void start() throws IOException {
+		zk = new ZooKeeper(quorum, sessionTimeout, this);
+	}
+
+	@Override
+	public void process(WatchedEvent event) {
+		if (Event.KeeperState.Expired == event.getState()) {
+			LOG.info("ZooKeeper session expired, reconnecting to follow " + node);
+			try {
+				zk.close();
+				start();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (IOException e) {
+				LOG.warn("No longer following the configuration in " + node, e);
+			}
+			return;
+		}
+		if (Event.EventType.None == event.getType()) {
+			if (Event.KeeperState.SyncConnected == event.getState()) {
+				read();
+			}
+		} else if (node.equals(event.getPath())) {
+			read();
+		}
+	}
+
+	private void read() {
+		try {
+			byte[] data = null;
+			while (true) {
+				try {
+					data = zk.getData(node, this, null);
+					break;
+				} catch (KeeperException.NoNodeException e) {
+					// watch for its creation, unless it was created meanwhile
+					if (null == zk.exists(node, this)) {
+						break;
+					}
+				}
+			}
+			manager.setOverlay(parse(data));
+		} catch (KeeperException e) {
+			// read again on reconnect
+			LOG.warn("Failed to read the configuration in " + node, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			LOG.warn("Invalid configuration in " + node + ", keeping the last one", e);
+		}
+	}
+
+	private static Map<String, String> parse(byte[] data) {
+		if (null == data || 0 == data.length) {
+			return Collections.emptyMap();
+		}
+		Configuration parsed = new Configuration(false);
+		parsed.addResource(new ByteArrayInputStream(data));
+		Map<String, String> properties = new HashMap<String, String>();
+		for (Map.Entry<String, String> entry : parsed) {
+			properties.put(entry.getKey(), entry.getValue());
+		}
+		return properties;
+	}
+
+}
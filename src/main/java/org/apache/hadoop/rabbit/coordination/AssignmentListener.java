@@ -0,0 +1,18 @@
+package org.apache.hadoop.rabbit.coordination;
+
+import java.util.Collection;
+
+/**
+ * Told which work units this member owns, called from the coordinator's own
+ * thread.<br />
+ * Units given up by the member are revoked before their claim is released,
+ * so a listener must stop working on them before returning. Units lost with
+ * an expired session are revoked as soon as the expiry is noticed.
+ */
+public interface AssignmentListener {
+
+	public void assigned(Collection<String> units);
+
+	public void revoked(Collection<String> units);
+
+}
@@ -0,0 +1,495 @@
+package org.apache.hadoop.rabbit.coordination;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads the work units of a group over its live members through
+ * ZooKeeper.<br />
+ * Under the group path every member holds an ephemeral node in members/,
+ * units are persistent nodes in units/ and a unit is owned by whoever holds
+ * the ephemeral owners/&lt;unit&gt;. Whenever one of them changes, each member
+ * computes its fair share and only gives up units above it or claims free
+ * units below it, so assignments are sticky: units of a member which stays
+ * never move unless the share of every member shrinks. The extra units of an
+ * uneven split go to the members already holding the most.
+ */
+public class WorkCoordinator implements Watcher, Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(WorkCoordinator.class);
+
+	private static final String MEMBERS = "/members";
+
+	private static final String UNITS = "/units";
+
+	private static final String OWNERS = "/owners";
+
+	/** rebalance now and then even without events, a safety net */
+	private static final long RECHECK_INTERVAL = 30000;
+
+	private final String quorum;
+
+	private final int sessionTimeout;
+
+	private final String group;
+
+	private final String memberId;
+
+	private final AssignmentListener listener;
+
+	private final ScheduledExecutorService executor;
+
+	/** thread of the executor, interrupted to free it from a dead session */
+	private volatile Thread worker;
+
+	private volatile ZooKeeper zk;
+
+	/** units this member owns, changed on the executor thread only */
+	private final Set<String> owned = Collections.synchronizedSet(new TreeSet<String>());
+
+	/** a rebalance is queued and has not started yet, guarded by this */
+	private boolean pending;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param quorum ZooKeeper connect string
+	 * @param group path of the group, created if missing
+	 * @param memberId unique id of this member within the group
+	 */
+	public WorkCoordinator(String quorum, int sessionTimeout, String group,
+			String memberId, AssignmentListener listener) {
+		this.quorum = quorum;
+		this.sessionTimeout = sessionTimeout;
+		this.group = group;
+		this.memberId = memberId;
+		this.listener = listener;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "rabbit-coordinator");
+				t.setDaemon(true);
+				worker = t;
+				return t;
+			}
+
+		});
+	}
+
+	/**
+	 * Join the group and claim a first share of its units.
+	 */
+	public void start() throws IOException {
+		connect();
+		executor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				rebalance();
+			}
+
+		}, RECHECK_INTERVAL, RECHECK_INTERVAL, TimeUnit.MILLISECONDS);
+		scheduleRebalance();
+	}
+
+	/**
+	 * Register units of the group, units which exist already are kept.
+	 */
+	public void addUnits(Collection<String> units) throws IOException {
+		try {
+			for (String unit : units) {
+				createIfMissing(group + UNITS + "/" + unit);
+			}
+		} catch (KeeperException e) {
+			throw new IOException("Failed to register units of " + group, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted registering units of " + group);
+		}
+	}
+
+	/**
+	 * @return units currently owned by this member
+	 */
+	public Set<String> getAssignment() {
+		synchronized (owned) {
+			return new TreeSet<String>(owned);
+		}
+	}
+
+	public String getMemberId() {
+		return memberId;
+	}
+
+	/**
+	 * Give every unit up and leave the group.<br />
+	 * Waits a session timeout at most for the executor, the units are given
+	 * up on the calling thread if it does not get to them.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		boolean revoked = false;
+		try {
+			executor.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					revokeAll();
+				}
+
+			}).get(sessionTimeout, TimeUnit.MILLISECONDS);
+			revoked = true;
+		} catch (TimeoutException e) {
+			LOG.warn("Coordinator of " + memberId + " is stuck, closing anyway");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			LOG.warn("Failed to revoke units of " + memberId, e.getCause());
+			revoked = true;
+		} catch (RejectedExecutionException e) {
+			// closed before
+		}
+		executor.shutdownNow();
+		if (!revoked) {
+			try {
+				executor.awaitTermination(sessionTimeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			revokeAll();
+		}
+		if (null != zk) {
+			// ephemeral member and owner nodes go with the session
+			closeQuietly(zk);
+		}
+	}
+
+	@Override
+	public void process(WatchedEvent event) {
+		if (closed) {
+			return;
+		}
+		if (Event.KeeperState.Expired == event.getState()) {
+			// a request sent just as the session died may never be answered,
+			// which would keep the reconnect below waiting forever
+			Thread current = worker;
+			if (null != current) {
+				current.interrupt();
+			}
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					reconnect();
+				}
+
+			});
+		} else if (Event.EventType.None != event.getType()) {
+			scheduleRebalance();
+		}
+	}
+
+	private synchronized void scheduleRebalance() {
+		if (pending || closed) {
+			return;
+		}
+		pending = true;
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized (WorkCoordinator.this) {
+					pending = false;
+				}
+				rebalance();
+			}
+
+		});
+	}
+
+	/**
+	 * Move this member towards its fair share, on the executor thread.
+	 */
+	private void rebalance() {
+		if (closed) {
+			return;
+		}
+		try {
+			List<String> members = zk.getChildren(group + MEMBERS, true);
+			List<String> units = zk.getChildren(group + UNITS, true);
+			Map<String, String> owners = readOwners();
+			if (!members.contains(memberId)) {
+				LOG.warn(memberId + " is not registered in " + group);
+				return;
+			}
+
+			// units lost without being released, e.g. to a new session
+			Set<String> mine = new TreeSet<String>();
+			for (Map.Entry<String, String> entry : owners.entrySet()) {
+				if (memberId.equals(entry.getValue()) && units.contains(entry.getKey())) {
+					mine.add(entry.getKey());
+				}
+			}
+			Set<String> lost = getAssignment();
+			lost.removeAll(mine);
+			revoke(lost);
+
+			int target = getTarget(members, units.size(), owners);
+			if (mine.size() > target) {
+				List<String> release = new ArrayList<String>(mine);
+				release = release.subList(target, release.size());
+				revoke(new ArrayList<String>(release));
+				for (String unit : release) {
+					deleteQuietly(group + OWNERS + "/" + unit);
+				}
+			} else if (mine.size() < target) {
+				claim(units, owners, target - mine.size());
+			}
+		} catch (KeeperException e) {
+			LOG.warn("Rebalance of " + group + " failed, retrying", e);
+			executor.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					rebalance();
+				}
+
+			}, 1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Fair share of this member. Members are ranked by the units they hold,
+	 * most first, so the remainder of an uneven split stays where it is.
+	 */
+	private int getTarget(List<String> members, int units,
+			Map<String, String> owners) {
+		final Map<String, Integer> held = new HashMap<String, Integer>();
+		for (String owner : owners.values()) {
+			Integer count = held.get(owner);
+			held.put(owner, null == count ? 1 : count + 1);
+		}
+		List<String> ranked = new ArrayList<String>(members);
+		Collections.sort(ranked, new Comparator<String>() {
+
+			@Override
+			public int compare(String a, String b) {
+				int countA = held.containsKey(a) ? held.get(a) : 0;
+				int countB = held.containsKey(b) ? held.get(b) : 0;
+				return countA != countB ? countB - countA : a.compareTo(b);
+			}
+
+		});
+		int base = units / members.size();
+		int extra = units % members.size();
+		return base + (ranked.indexOf(memberId) < extra ? 1 : 0);
+	}
+
+	/**
+	 * Claim up to count free units. Members start looking at different
+	 * units to avoid racing for the same ones.
+	 */
+	private void claim(List<String> units, Map<String, String> owners, int count)
+			throws KeeperException, InterruptedException {
+		List<String> free = new ArrayList<String>();
+		for (String unit : units) {
+			if (!owners.containsKey(unit)) {
+				free.add(unit);
+			}
+		}
+		Collections.sort(free);
+		List<String> claimed = new ArrayList<String>();
+		int start = free.isEmpty() ? 0 : Math.abs(memberId.hashCode() % free.size());
+		for (int i = 0; i < free.size() && claimed.size() < count; i++) {
+			String unit = free.get((start + i) % free.size());
+			try {
+				zk.create(group + OWNERS + "/" + unit, memberId.getBytes("UTF-8"),
+						ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+				claimed.add(unit);
+			} catch (KeeperException.NodeExistsException e) {
+				// claimed by another member meanwhile
+			} catch (java.io.UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		if (!claimed.isEmpty()) {
+			owned.addAll(claimed);
+			LOG.info(memberId + " claimed " + claimed);
+			listener.assigned(claimed);
+		}
+	}
+
+	private Map<String, String> readOwners() throws KeeperException,
+			InterruptedException {
+		Map<String, String> owners = new HashMap<String, String>();
+		for (String unit : zk.getChildren(group + OWNERS, true)) {
+			try {
+				owners.put(unit, new String(zk.getData(group + OWNERS + "/" + unit,
+						false, null), "UTF-8"));
+			} catch (KeeperException.NoNodeException e) {
+				// released meanwhile
+			} catch (java.io.UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return owners;
+	}
+
+	private void revoke(Collection<String> units) {
+		if (units.isEmpty()) {
+			return;
+		}
+		owned.removeAll(units);
+		LOG.info(memberId + " gives up " + units);
+		listener.revoked(units);
+	}
+
+	private void revokeAll() {
+		revoke(getAssignment());
+	}
+
+	/**
+	 * A new session after the old one expired, its ephemeral nodes and with
+	 * them every claim are gone.
+	 */
+	private void reconnect() {
+		if (closed) {
+			return;
+		}
+		LOG.warn("Session of " + memberId + " expired, joining " + group + " again");
+		revokeAll();
+		try {
+			zk.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			connect();
+			rebalance();
+		} catch (IOException e) {
+			LOG.error("Failed to join " + group + " again, retrying", e);
+			executor.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					reconnect();
+				}
+
+			}, 1, TimeUnit.SECONDS);
+		}
+	}
+
+	private void connect() throws IOException {
+		final CountDownLatch connected = new CountDownLatch(1);
+		zk = new ZooKeeper(quorum, sessionTimeout, new Watcher() {
+
+			@Override
+			public void process(WatchedEvent event) {
+				if (Event.KeeperState.SyncConnected == event.getState()) {
+					connected.countDown();
+				}
+				WorkCoordinator.this.process(event);
+			}
+
+		});
+		boolean joined = false;
+		try {
+			if (!connected.await(sessionTimeout, TimeUnit.MILLISECONDS)) {
+				throw new IOException("Timed out connecting to " + quorum);
+			}
+			createIfMissing(group + MEMBERS);
+			createIfMissing(group + UNITS);
+			createIfMissing(group + OWNERS);
+			zk.create(group + MEMBERS + "/" + memberId, null,
+					ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+			joined = true;
+		} catch (KeeperException e) {
+			throw new IOException("Failed to join " + group, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted joining " + group);
+		} finally {
+			if (!joined) {
+				// a client left open keeps its threads and retries forever
+				closeQuietly(zk);
+			}
+		}
+		LOG.info(memberId + " joined " + group);
+	}
+
+	private static void closeQuietly(ZooKeeper zk) {
+		try {
+			zk.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void createIfMissing(String path) throws KeeperException,
+			InterruptedException {
+		if (null != zk.exists(path, false)) {
+			return;
+		}
+		int slash = path.lastIndexOf('/');
+		if (slash > 0) {
+			createIfMissing(path.substring(0, slash));
+		}
+		try {
+			zk.create(path, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+		} catch (KeeperException.NodeExistsException e) {
+			// created by another member meanwhile
+		}
+	}
+
+	private void deleteQuietly(String path) throws InterruptedException {
+		try {
+			zk.delete(path, -1);
+		} catch (KeeperException e) {
+			LOG.warn("Failed to delete " + path, e);
+		}
+	}
+
+	/**
+	 * @return the units "0" to count - 1, for {@link #addUnits(Collection)}
+	 */
+	public static Set<String> units(int count) {
+		Set<String> units = new HashSet<String>();
+		for (int i = 0; i < count; i++) {
+			units.add(String.valueOf(i));
+		}
+		return units;
+	}
+
+}
@@ -0,0 +1,26 @@
+package org.apache.hadoop.rabbit.load;
+
+import java.io.IOException;
+
+import org.apache.hadoop.rabbit.worker.Emitter;
+import org.apache.hadoop.rabbit.worker.EmittingWorker;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+
+/**
+ * Intermediate stage of a load test, passes every event on unchanged.
+ */
+public class LoadRelay implements EmittingWorker {
+
+	private Emitter emitter;
+
+	@Override
+	public void setEmitter(Emitter emitter) {
+		this.emitter = emitter;
+	}
+
+	@Override
+	public void process(WorkDesc workDesc) throws IOException {
+		emitter.emit(workDesc);
+	}
+
+}
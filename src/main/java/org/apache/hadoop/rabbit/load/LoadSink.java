@@ -0,0 +1,33 @@
+package org.apache.hadoop.rabbit.load;
+
+import java.io.IOException;
+
+import org.apache.hadoop.rabbit.metrics.LatencyHistogram;
+import org.apache.hadoop.rabbit.metrics.RabbitMetrics;
+import org.apache.hadoop.rabbit.util.Accumulator;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+import org.apache.hadoop.rabbit.worker.Worker;
+
+/**
+ * Last stage of a load test, records how long after it was due every
+ * {@link LoadSource} event arrived in the load.latency histogram.
+ */
+public class LoadSink implements Worker {
+
+	/** meter of the events received */
+	public static final String RECEIVED = "load.received";
+
+	/** histogram of the end to end latency */
+	public static final String LATENCY = "load.latency";
+
+	private final LatencyHistogram latency = RabbitMetrics.get().histogram(LATENCY);
+
+	private final Accumulator received = RabbitMetrics.get().meter(RECEIVED);
+
+	@Override
+	public void process(WorkDesc workDesc) throws IOException {
+		latency.record(System.nanoTime() - LoadSource.dueTime(workDesc));
+		received.increment();
+	}
+
+}
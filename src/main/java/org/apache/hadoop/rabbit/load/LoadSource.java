@@ -0,0 +1,109 @@
+package org.apache.hadoop.rabbit.load;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.rabbit.metrics.RabbitMetrics;
+import org.apache.hadoop.rabbit.util.Accumulator;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.apache.hadoop.rabbit.worker.Source;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+
+/**
+ * Synthetic events at mapreduce.rabbit.load.rate per second for
+ * mapreduce.rabbit.load.duration ms.<br />
+ * Every event carries the time it was due in the first 8 bytes of its
+ * payload, so a source falling behind does not hide the delay from the
+ * latency measured by {@link LoadSink}. Keys cycle through
+ * mapreduce.rabbit.load.keys distinct values.
+ */
+public class LoadSource implements Source, Configurable {
+
+	/** meter of the events generated */
+	public static final String SENT = "load.sent";
+
+	private Configuration conf;
+
+	private long interval;
+
+	private int payload;
+
+	private int keys;
+
+	private long start;
+
+	private long end;
+
+	private long seq;
+
+	private Accumulator sent;
+
+	private volatile boolean closed;
+
+	@Override
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+		long rate = Math.max(1, conf.getLong(RabbitConstants.LOAD_RATE,
+				RabbitConstants.DEFAULT_LOAD_RATE));
+		this.interval = Math.max(1, 1000000000L / rate);
+		this.payload = Math.max(8, conf.getInt(RabbitConstants.LOAD_PAYLOAD,
+				RabbitConstants.DEFAULT_LOAD_PAYLOAD));
+		this.keys = Math.max(1, conf.getInt(RabbitConstants.LOAD_KEYS,
+				RabbitConstants.DEFAULT_LOAD_KEYS));
+		this.sent = RabbitMetrics.get().meter(SENT);
+	}
+
+	@Override
+	public Configuration getConf() {
+		return conf;
+	}
+
+	@Override
+	public WorkDesc next() throws IOException, InterruptedException {
+		if (0 == seq) {
+			start = System.nanoTime();
+			end = start + 1000000L * conf.getLong(RabbitConstants.LOAD_DURATION,
+					RabbitConstants.DEFAULT_LOAD_DURATION);
+		}
+		long due = start + seq * interval;
+		if (closed || due >= end) {
+			return null;
+		}
+		long wait;
+		while ((wait = due - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(wait);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+		byte[] bytes = new byte[payload];
+		for (int i = 0; i < 8; i++) {
+			bytes[i] = (byte) (due >>> (56 - 8 * i));
+		}
+		WorkDesc work = new WorkDesc("key-" + (seq % keys), bytes);
+		seq++;
+		sent.increment();
+		return work;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+	}
+
+	/**
+	 * @return the System.nanoTime() at which the event was due
+	 */
+	public static long dueTime(WorkDesc work) {
+		byte[] bytes = work.getPayloadBytes();
+		int offset = work.getPayloadOffset();
+		long due = 0;
+		for (int i = 0; i < 8; i++) {
+			due = (due << 8) | (bytes[offset + i] & 0xff);
+		}
+		return due;
+	}
+
+}
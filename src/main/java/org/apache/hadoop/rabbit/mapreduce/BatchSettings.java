@@ -0,0 +1,102 @@
+package org.apache.hadoop.rabbit.mapreduce;
+
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.rabbit.configuration.ConfigListener;
+import org.apache.hadoop.rabbit.configuration.ConfigSnapshot;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batch size, linger and queue watermarks of a running loop, read on every
+ * round. They start from the task configuration, and every key changed in a
+ * reloaded {@link ConfigSnapshot} is taken over, so they can be tuned without
+ * restarting the job.
+ */
+class BatchSettings implements ConfigListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BatchSettings.class);
+
+	private final int capacity;
+
+	/** as configured, -1 for a watermark not set, guarded by this */
+	private int configuredBatchSize;
+
+	private long configuredLinger;
+
+	private int configuredHighWatermark;
+
+	private int configuredLowWatermark;
+
+	private volatile int batchSize;
+
+	private volatile long linger;
+
+	private volatile int highWatermark;
+
+	private volatile int lowWatermark;
+
+	BatchSettings(Configuration conf, int capacity) {
+		this.capacity = capacity;
+		configuredBatchSize = conf.getInt(RabbitConstants.BATCH_SIZE,
+				RabbitConstants.DEFAULT_BATCH_SIZE);
+		configuredLinger = conf.getLong(RabbitConstants.BATCH_LINGER,
+				RabbitConstants.DEFAULT_BATCH_LINGER);
+		configuredHighWatermark = conf.getInt(RabbitConstants.QUEUE_HIGH_WATERMARK, -1);
+		configuredLowWatermark = conf.getInt(RabbitConstants.QUEUE_LOW_WATERMARK, -1);
+		update();
+	}
+
+	@Override
+	public synchronized void reconfigure(ConfigSnapshot snapshot, Set<String> changed) {
+		if (changed.contains(RabbitConstants.BATCH_SIZE)) {
+			configuredBatchSize = snapshot.getInt(RabbitConstants.BATCH_SIZE,
+					RabbitConstants.DEFAULT_BATCH_SIZE);
+		}
+		if (changed.contains(RabbitConstants.BATCH_LINGER)) {
+			configuredLinger = snapshot.getLong(RabbitConstants.BATCH_LINGER,
+					RabbitConstants.DEFAULT_BATCH_LINGER);
+		}
+		if (changed.contains(RabbitConstants.QUEUE_HIGH_WATERMARK)) {
+			configuredHighWatermark = snapshot.getInt(RabbitConstants.QUEUE_HIGH_WATERMARK, -1);
+		}
+		if (changed.contains(RabbitConstants.QUEUE_LOW_WATERMARK)) {
+			configuredLowWatermark = snapshot.getInt(RabbitConstants.QUEUE_LOW_WATERMARK, -1);
+		}
+		update();
+		LOG.info("Batches of " + batchSize + " lingering " + linger
+				+ " ms, queue watermarks " + highWatermark + "/" + lowWatermark);
+	}
+
+	private void update() {
+		int size = Math.max(1, configuredBatchSize);
+		// below a batch the worker would wait out the linger on every batch
+		int high = Math.max(size, configuredHighWatermark < 0 ? capacity
+				: configuredHighWatermark);
+		int low = Math.min(high - 1, configuredLowWatermark < 0 ? high / 2
+				: configuredLowWatermark);
+		batchSize = size;
+		linger = configuredLinger;
+		highWatermark = high;
+		lowWatermark = low;
+	}
+
+	int getBatchSize() {
+		return batchSize;
+	}
+
+	long getLinger() {
+		return linger;
+	}
+
+	int getHighWatermark() {
+		return highWatermark;
+	}
+
+	int getLowWatermark() {
+		return lowWatermark;
+	}
+
+}
@@ -0,0 +1,356 @@
+package org.apache.hadoop.rabbit.mapreduce;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.rabbit.metrics.Gauge;
+import org.apache.hadoop.rabbit.metrics.LatencyHistogram;
+import org.apache.hadoop.rabbit.metrics.RabbitMetrics;
+import org.apache.hadoop.rabbit.util.Accumulator;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.apache.hadoop.rabbit.worker.Throttled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tells the TaskTracker a resident mapper is alive and publishes its
+ * {@link RabbitCounter}s every mapreduce.rabbit.report.interval ms.<br />
+ * Only this thread touches the task context. The processing threads record
+ * into {@link Accumulator}s and volatile timestamps, the blocked time of
+ * {@link Throttled} workers is read from them directly. The reporter stops
+ * reporting progress once any {@link Loop} serving a plan has not come around
+ * for mapreduce.rabbit.report.stall.timeout ms, so a hung task still times
+ * out; while no plan is served the mapper itself has to call
+ * {@link #heartbeat(boolean)}.
+ * The work read and processed and the queue depth are also published as
+ * metrics, whose latency histograms are rolled up into counters of the task.
+ */
+class ProgressReporter extends Thread {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ProgressReporter.class);
+
+	/** counter group of the blocked time by stage */
+	private static final String STAGE_BLOCKED_GROUP = "RabbitStageBlocked";
+
+	/** counter group of the latency histograms */
+	private static final String LATENCY_GROUP = "RabbitLatency";
+
+	static final String READ_METER = "source.read";
+
+	static final String PROCESSED_METER = "worker.processed";
+
+	static final String QUEUE_DEPTH_GAUGE = "queue.depth";
+
+	private final TaskInputOutputContext<?, ?, ?, ?> context;
+
+	private final long interval;
+
+	private final long stallTimeout;
+
+	private final Set<RabbitCounter> counters = EnumSet.noneOf(RabbitCounter.class);
+
+	private final RabbitMetrics metrics = RabbitMetrics.get();
+
+	private final boolean reportMetrics;
+
+	/** histograms when the task started, the JVM may be reused */
+	private final Map<LatencyHistogram, LatencyHistogram.Snapshot> baselines =
+			new HashMap<LatencyHistogram, LatencyHistogram.Snapshot>();
+
+	private final Accumulator read = new Accumulator();
+
+	private final Accumulator processed = new Accumulator();
+
+	private final Accumulator sourceBlocked = new Accumulator();
+
+	/** throttled workers of running and just finished work plans */
+	private final List<Throttled> throttled = new CopyOnWriteArrayList<Throttled>();
+
+	private final Set<Throttled> retired = Collections.newSetFromMap(
+			new ConcurrentHashMap<Throttled, Boolean>());
+
+	/** processed as of the last report */
+	private long reported;
+
+	private long reportedSourceBlocked;
+
+	private long reportedGcTime = metrics.gcTime();
+
+	/** blocked time of each throttled worker by stage as of the last report */
+	private final Map<Throttled, Map<String, Long>> reportedBlocked =
+			new HashMap<Throttled, Map<String, Long>>();
+
+	/** loops serving a plan, each one has to come around */
+	private final Set<Loop> loops = new CopyOnWriteArraySet<Loop>();
+
+	/** last time the mapper or a loop which ended came around */
+	private volatile long heartbeat = System.currentTimeMillis();
+
+	/** last time the mapper or a loop which ended had processed everything read */
+	private volatile long caughtUp = System.currentTimeMillis();
+
+	private volatile boolean stopped;
+
+	ProgressReporter(TaskInputOutputContext<?, ?, ?, ?> context) {
+		super("rabbit-progress-reporter");
+		setDaemon(true);
+		this.context = context;
+		Configuration conf = context.getConfiguration();
+		this.interval = Math.max(1, conf.getLong(RabbitConstants.REPORT_INTERVAL,
+				RabbitConstants.DEFAULT_REPORT_INTERVAL));
+		this.stallTimeout = conf.getLong(RabbitConstants.REPORT_STALL_TIMEOUT,
+				RabbitConstants.DEFAULT_REPORT_STALL_TIMEOUT);
+		for (String name : conf.get(RabbitConstants.REPORT_COUNTERS,
+				RabbitConstants.DEFAULT_REPORT_COUNTERS).split(",")) {
+			if (0 == name.trim().length()) {
+				continue;
+			}
+			try {
+				counters.add(RabbitCounter.valueOf(name.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				LOG.warn("Unknown counter " + name + " in "
+						+ RabbitConstants.REPORT_COUNTERS);
+			}
+		}
+		this.reportMetrics = conf.getBoolean(RabbitConstants.REPORT_METRICS,
+				RabbitConstants.DEFAULT_REPORT_METRICS);
+		for (LatencyHistogram histogram : metrics.getHistograms().values()) {
+			baselines.put(histogram, histogram.snapshot());
+		}
+		metrics.register(READ_METER, read);
+		metrics.register(PROCESSED_METER, processed);
+		metrics.register(QUEUE_DEPTH_GAUGE, new Gauge() {
+
+			@Override
+			public long getValue() {
+				return Math.max(0, pending());
+			}
+
+		});
+	}
+
+	/**
+	 * Called by the source thread for every unit of work read.
+	 */
+	void read() {
+		read.increment();
+	}
+
+	/**
+	 * Called by the source thread after it was paused.
+	 */
+	void sourceBlocked(long millis) {
+		sourceBlocked.add(millis);
+	}
+
+	/**
+	 * @return work read and not yet processed
+	 */
+	long pending() {
+		return read.sum() - processed.sum();
+	}
+
+	/**
+	 * Publish the blocked time of a worker until {@link #untrack(Throttled)}.
+	 */
+	void track(Throttled worker) {
+		throttled.add(worker);
+	}
+
+	/**
+	 * Stop publishing the blocked time of a worker after one more report.
+	 */
+	void untrack(Throttled worker) {
+		retired.add(worker);
+	}
+
+	/**
+	 * Called by the loop after handing a batch to the worker.
+	 */
+	void processed(int count) {
+		processed.add(count);
+	}
+
+	/**
+	 * Called by the mapper while it serves no plan, busy or idle.
+	 *
+	 * @param drained whether everything read was processed
+	 */
+	void heartbeat(boolean drained) {
+		long now = System.currentTimeMillis();
+		heartbeat = now;
+		if (drained) {
+			caughtUp = now;
+		}
+	}
+
+	/**
+	 * @return the loop of a plan starting to be served, its heartbeats keep
+	 *         the task alive until {@link #endLoop(Loop)}
+	 */
+	Loop startLoop() {
+		Loop loop = new Loop();
+		loops.add(loop);
+		return loop;
+	}
+
+	void endLoop(Loop loop) {
+		loops.remove(loop);
+		heartbeat(true);
+	}
+
+	@Override
+	public void run() {
+		while (!stopped) {
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				// stopped, publish the final values
+			}
+			report();
+		}
+	}
+
+	/**
+	 * Stop reporting after a last report, the counters are final then.
+	 */
+	void shutdown() throws InterruptedException {
+		stopped = true;
+		interrupt();
+		join();
+		metrics.unregister(READ_METER);
+		metrics.unregister(PROCESSED_METER);
+		metrics.unregister(QUEUE_DEPTH_GAUGE);
+	}
+
+	private void report() {
+		long now = System.currentTimeMillis();
+		long done = processed.sum();
+		if (counters.contains(RabbitCounter.PROCESSED)) {
+			counter(RabbitCounter.PROCESSED).increment(done - reported);
+		}
+		reported = done;
+		if (counters.contains(RabbitCounter.QUEUE_DEPTH)) {
+			counter(RabbitCounter.QUEUE_DEPTH).setValue(Math.max(0, read.sum() - done));
+		}
+		long lastHeartbeat = heartbeat;
+		long lastCaughtUp = caughtUp;
+		if (!loops.isEmpty()) {
+			// the task is as far behind as its slowest plan
+			lastHeartbeat = Long.MAX_VALUE;
+			lastCaughtUp = Long.MAX_VALUE;
+			for (Loop loop : loops) {
+				lastHeartbeat = Math.min(lastHeartbeat, loop.heartbeat);
+				lastCaughtUp = Math.min(lastCaughtUp, loop.caughtUp);
+			}
+		}
+		if (counters.contains(RabbitCounter.LAG)) {
+			counter(RabbitCounter.LAG).setValue(Math.max(0, now - lastCaughtUp));
+		}
+		long blocked = sourceBlocked.sum();
+		if (counters.contains(RabbitCounter.SOURCE_BLOCKED)) {
+			counter(RabbitCounter.SOURCE_BLOCKED).increment(blocked - reportedSourceBlocked);
+		}
+		reportedSourceBlocked = blocked;
+		long gcTime = metrics.gcTime();
+		if (counters.contains(RabbitCounter.GC_TIME)) {
+			counter(RabbitCounter.GC_TIME).increment(gcTime - reportedGcTime);
+		}
+		reportedGcTime = gcTime;
+		reportBlocked();
+		if (reportMetrics) {
+			reportLatencies();
+		}
+		if (stallTimeout <= 0 || now - lastHeartbeat < stallTimeout) {
+			context.progress();
+		} else if (!stopped) {
+			LOG.warn("No progress for " + (now - lastHeartbeat) + " ms, not reporting");
+		}
+	}
+
+	/**
+	 * Publish the growth of the blocked time of every throttled worker.
+	 */
+	private void reportBlocked() {
+		for (Throttled worker : throttled) {
+			boolean last = retired.contains(worker);
+			Map<String, Long> before = reportedBlocked.get(worker);
+			Map<String, Long> now = worker.getBlockedTime();
+			if (counters.contains(RabbitCounter.WORKER_BLOCKED)) {
+				for (Map.Entry<String, Long> stage : now.entrySet()) {
+					Long previous = null == before ? null : before.get(stage.getKey());
+					long delta = stage.getValue() - (null == previous ? 0 : previous);
+					counter(RabbitCounter.WORKER_BLOCKED).increment(delta);
+					context.getCounter(STAGE_BLOCKED_GROUP, stage.getKey()).increment(delta);
+				}
+			}
+			if (last) {
+				throttled.remove(worker);
+				retired.remove(worker);
+				reportedBlocked.remove(worker);
+			} else {
+				reportedBlocked.put(worker, now);
+			}
+		}
+	}
+
+	/**
+	 * Publish the count and total time of every histogram since the task
+	 * started, they add up across the tasks of the job.
+	 */
+	private void reportLatencies() {
+		for (Map.Entry<String, LatencyHistogram> entry : metrics.getHistograms().entrySet()) {
+			LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+			LatencyHistogram.Snapshot baseline = baselines.get(entry.getValue());
+			if (null != baseline) {
+				snapshot = snapshot.minus(baseline);
+			}
+			if (0 == snapshot.getCount()) {
+				continue;
+			}
+			context.getCounter(LATENCY_GROUP, entry.getKey() + ".count").setValue(
+					snapshot.getCount());
+			context.getCounter(LATENCY_GROUP, entry.getKey() + ".ms").setValue(
+					snapshot.getSum() / 1000000);
+		}
+	}
+
+	private Counter counter(RabbitCounter name) {
+		return context.getCounter(name);
+	}
+
+	/**
+	 * Heartbeat of the loop serving one plan.
+	 */
+	static class Loop {
+
+		private volatile long heartbeat = System.currentTimeMillis();
+
+		private volatile long caughtUp = heartbeat;
+
+		/**
+		 * Called by the loop on every round, busy or idle.
+		 *
+		 * @param drained whether the loop took everything that was queued
+		 */
+		void heartbeat(boolean drained) {
+			long now = System.currentTimeMillis();
+			heartbeat = now;
+			if (drained) {
+				caughtUp = now;
+			}
+		}
+
+	}
+
+}
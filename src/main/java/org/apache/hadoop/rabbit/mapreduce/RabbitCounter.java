@@ -0,0 +1,34 @@
+package org.apache.hadoop.rabbit.mapreduce;
+
+/**
+ * Counters published by the resident mapper, select them with
+ * mapreduce.rabbit.report.counters.<br />
+ * QUEUE_DEPTH and LAG are overwritten with their current value on every
+ * report, the others only grow. The latency histograms of the
+ * {@link org.apache.hadoop.rabbit.metrics.RabbitMetrics} are published in
+ * the RabbitLatency group as name.count and name.ms.
+ */
+public enum RabbitCounter {
+
+	/** work handed to the worker */
+	PROCESSED,
+
+	/** work read from the source and not yet processed */
+	QUEUE_DEPTH,
+
+	/** milliseconds since the worker last caught up with the source */
+	LAG,
+
+	/** milliseconds the source was paused because the worker fell behind */
+	SOURCE_BLOCKED,
+
+	/**
+	 * milliseconds a Throttled worker held up its callers, also published by
+	 * stage in the RabbitStageBlocked group
+	 */
+	WORKER_BLOCKED,
+
+	/** milliseconds the JVM spent collecting garbage */
+	GC_TIME
+
+}
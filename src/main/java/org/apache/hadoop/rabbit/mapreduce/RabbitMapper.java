@@ -1,41 +1,673 @@
 package org.apache.hadoop.rabbit.mapreduce;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.rabbit.checkpoint.Checkpointable;
+import org.apache.hadoop.rabbit.configuration.ConfigListener;
+import org.apache.hadoop.rabbit.configuration.ConfigManager;
+import org.apache.hadoop.rabbit.coordination.AssignmentListener;
+import org.apache.hadoop.rabbit.coordination.WorkCoordinator;
+import org.apache.hadoop.rabbit.metrics.LatencyHistogram;
+import org.apache.hadoop.rabbit.metrics.RabbitMetrics;
+import org.apache.hadoop.rabbit.spill.SpillLog;
+import org.apache.hadoop.rabbit.spill.SpillingQueue;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.apache.hadoop.rabbit.worker.Source;
+import org.apache.hadoop.rabbit.worker.Throttled;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+import org.apache.hadoop.rabbit.worker.Worker;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-
+/**
+ * Resident map task, one job submission serves a stream for hours.<br />
+ * Each input line is the work plan of the mapper. The configured
+ * {@link Source} is read by its own thread into a bounded queue, and the
+ * configured {@link Worker} takes the work in batches of
+ * mapreduce.rabbit.batch.size, waiting at most mapreduce.rabbit.batch.linger
+ * ms for a batch to fill. The loop runs until the source is exhausted or
+ * {@link #shutdown()} is called; work already queued is still processed.
+ * With mapreduce.rabbit.zk.quorum and mapreduce.rabbit.work.units set, the
+ * map tasks serving the same plan share its units through a
+ * {@link WorkCoordinator}.
+ * A {@link ProgressReporter} thread keeps the task alive and publishes the
+ * {@link RabbitCounter}s meanwhile. The source is paused while the worker is
+ * mapreduce.rabbit.queue.high.watermark units behind, a {@link Throttled}
+ * worker passes the backpressure of its own stages on this way. The latency
+ * of the worker is recorded in the worker.process and worker.flush
+ * histograms of the {@link RabbitMetrics}.
+ * With mapreduce.rabbit.spill.max.bytes set, a burst beyond the queue
+ * capacity is spilled to a {@link SpillLog} in mapred.local.dir instead of
+ * blocking the source, and replayed in order as the worker catches up; the
+ * high watermark then defaults to no limit.
+ * A {@link Checkpointable} worker or source is checkpointed every
+ * mapreduce.rabbit.checkpoint.interval ms, a new attempt of the task resumes
+ * from the latest checkpoint.
+ * The batch size, linger and queue watermarks follow the reloads of the
+ * {@link ConfigManager}, as does a worker or source which is a
+ * {@link ConfigListener}.
+ */
 public class RabbitMapper extends Mapper<LongWritable, Text, NullWritable, NullWritable>{
 
+	private static final Logger LOG = LoggerFactory.getLogger(RabbitMapper.class);
+
+	/** how long an idle loop waits before coming around again */
+	private static final long IDLE_WAIT = 1000;
+
+	/** how often a paused or blocked source checks whether the worker caught up */
+	private static final long THROTTLE_WAIT = 10;
+
+	/** below mapred.local.dir */
+	private static final String SPILL_DIR = "rabbit-spill";
+
+	/** how long shutdown waits for a source blocked in next() */
+	private static final long SHUTDOWN_WAIT = 10000;
+
+	private volatile boolean running = true;
+
+	private ProgressReporter reporter;
+
+	private final LatencyHistogram processLatency =
+			RabbitMetrics.get().histogram("worker.process");
+
+	private final LatencyHistogram flushLatency =
+			RabbitMetrics.get().histogram("worker.flush");
+
 	@Override
 	protected void setup(Context context)
 			throws IOException, InterruptedException {
 		super.setup(context);
 	}
 
+	/**
+	 * Serve the work plan of one input line until it is exhausted or the
+	 * mapper is shut down.
+	 */
 	@Override
 	protected void map(LongWritable key, Text value,
 			Context context)
 			throws IOException, InterruptedException {
-		//1. get value
-		//2. spawn one thread to emit message to JT
-		//3. core logic throw zk to shedule
-		//4. has flag to notify if exit or not
+		serve(new WorkDesc(value.toString()), new Configuration(
+				context.getConfiguration()), context, new AtomicBoolean(true));
+	}
+
+	/**
+	 * Serve a work plan with the worker and source configured in conf until
+	 * it is exhausted, or either the mapper is shut down or active is cleared.
+	 * Several plans may be served at once from different threads. The
+	 * checkpoints of the plan are only removed once its source is exhausted,
+	 * a plan stopped resumes from them when served again.
+	 */
+	void serve(WorkDesc plan, Configuration conf, Context context,
+			AtomicBoolean active) throws IOException, InterruptedException {
+		conf.set(RabbitConstants.WORK_PLAN, plan.getDesc());
+		Worker worker = newInstance(conf, RabbitConstants.WORKER_CLASS, Worker.class);
+		int capacity = conf.getInt(RabbitConstants.QUEUE_CAPACITY,
+				RabbitConstants.DEFAULT_QUEUE_CAPACITY);
+
+		LOG.info("Serving work plan " + plan);
+		Source source = null;
+		BlockingQueue<WorkDesc> queue = null;
+		TaskCheckpoint checkpoint = null;
+		WorkCoordinator coordinator = null;
+		try {
+			source = newInstance(conf, RabbitConstants.SOURCE_CLASS, Source.class);
+			queue = newQueue(conf, plan, context, capacity);
+			checkpoint = TaskCheckpoint.restore(conf, plan, context, worker, source);
+			coordinator = coordinate(conf, plan, context, source);
+		} catch (IOException e) {
+			abandon(worker, source, queue, checkpoint);
+			throw e;
+		} catch (RuntimeException e) {
+			abandon(worker, source, queue, checkpoint);
+			throw e;
+		}
+		// a spilling queue is not full at its capacity, only the log bounds it
+		BatchSettings settings = new BatchSettings(conf,
+				queue instanceof SpillingQueue ? Integer.MAX_VALUE : capacity);
+		SourceReader reader = new SourceReader(source, queue, reporter, checkpoint,
+				settings);
+		if (worker instanceof Throttled) {
+			reporter.track((Throttled) worker);
+		}
+		ConfigManager config = ConfigManager.get();
+		config.addListener(settings);
+		listen(config, worker, true);
+		listen(config, source, true);
+		reader.start();
+		List<WorkDesc> batch = new ArrayList<WorkDesc>(settings.getBatchSize());
+		long processed = 0;
+		boolean done = false;
+		ProgressReporter.Loop loop = reporter.startLoop();
+		try {
+			while (true) {
+				if (!running || !active.get()) {
+					reader.shutdown();
+				}
+				int limit = settings.getBatchSize();
+				if (null != checkpoint) {
+					checkpoint.processed(processed);
+					limit = Math.max(1, checkpoint.limit(processed, limit));
+				}
+				nextBatch(queue, batch, limit, settings.getLinger());
+				// a batch short of full means the queue was drained
+				loop.heartbeat(batch.size() < limit);
+				if (batch.isEmpty()) {
+					if (!reader.isFinished() || !queue.isEmpty()) {
+						continue;
+					}
+					// the unit the reader held when it was stopped comes last
+					WorkDesc last = reader.takeLeftover();
+					if (null == last) {
+						break;
+					}
+					batch.add(last);
+				}
+				int from = 0;
+				while (from < batch.size()) {
+					int to = batch.size();
+					if (null != checkpoint) {
+						// a source checkpoint taken while the batch filled up cuts it
+						checkpoint.processed(processed);
+						to = from + checkpoint.limit(processed, to - from);
+					}
+					process(worker, batch.subList(from, to));
+					processed += to - from;
+					reader.processed(processed);
+					reporter.processed(to - from);
+					from = to;
+				}
+				batch.clear();
+			}
+			reader.rethrow();
+			done = true;
+		} finally {
+			config.removeListener(settings);
+			listen(config, worker, false);
+			listen(config, source, false);
+			// every step runs, a resident JVM must not leak sessions or files
+			Exception failure = null;
+			try {
+				reader.shutdown();
+			} catch (Exception e) {
+				failure = e;
+			}
+			if (null != checkpoint) {
+				try {
+					// a plan stopped, not exhausted, is served again from its checkpoints
+					closeCheckpoint(checkpoint, done, done && reader.isExhausted());
+				} catch (Exception e) {
+					failure = firstFailure(failure, e);
+				}
+			}
+			if (null != coordinator) {
+				try {
+					coordinator.close();
+				} catch (Exception e) {
+					failure = firstFailure(failure, e);
+				}
+			}
+			if (worker instanceof Closeable) {
+				try {
+					((Closeable) worker).close();
+				} catch (Exception e) {
+					failure = firstFailure(failure, e);
+				}
+			}
+			if (worker instanceof Throttled) {
+				reporter.untrack((Throttled) worker);
+			}
+			closeQueue(queue);
+			reporter.endLoop(loop);
+			LOG.info("Work plan " + plan + " done, processed " + processed);
+			if (done) {
+				rethrow(failure);
+			} else if (null != failure) {
+				// the failure of the plan itself is on its way already
+				LOG.warn("Failed to clean up after work plan " + plan, failure);
+			}
+		}
+	}
+
+	/**
+	 * Release what a plan which failed to start holds, without hiding why it
+	 * failed.
+	 */
+	private static void abandon(Worker worker, Source source,
+			BlockingQueue<WorkDesc> queue, TaskCheckpoint checkpoint) {
+		if (null != checkpoint) {
+			try {
+				checkpoint.close(false);
+			} catch (Exception e) {
+				LOG.warn("Failed to finish the checkpoints", e);
+			}
+		}
+		closeQueue(queue);
+		if (null != source) {
+			try {
+				source.close();
+			} catch (Exception e) {
+				LOG.warn("Failed to close the source", e);
+			}
+		}
+		if (worker instanceof Closeable) {
+			try {
+				((Closeable) worker).close();
+			} catch (Exception e) {
+				LOG.warn("Failed to close the worker", e);
+			}
+		}
+	}
+
+	/**
+	 * @return failure if there was one, e otherwise
+	 */
+	private static Exception firstFailure(Exception failure, Exception e) {
+		if (null == failure) {
+			return e;
+		}
+		LOG.warn("Failed to clean up", e);
+		return failure;
+	}
+
+	private static void rethrow(Exception failure) throws IOException,
+			InterruptedException {
+		if (null == failure) {
+			return;
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if (failure instanceof InterruptedException) {
+			throw (InterruptedException) failure;
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		throw new IOException("Failed to clean up", failure);
+	}
+
+	/**
+	 * Hand the units to the worker and flush it.
+	 */
+	private void process(Worker worker, List<WorkDesc> units) throws IOException {
+		if (units.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		for (WorkDesc work : units) {
+			worker.process(work);
+			long end = System.nanoTime();
+			processLatency.record(end - start);
+			start = end;
+		}
+		if (worker instanceof Flushable) {
+			((Flushable) worker).flush();
+			flushLatency.record(System.nanoTime() - start);
+		}
 	}
 
 	@Override
 	public void run(Context context)
 			throws IOException, InterruptedException {
-		super.run(context);
+		setup(context);
+		reporter = new ProgressReporter(context);
+		reporter.start();
+		try {
+			while (running && context.nextKeyValue()) {
+				map(context.getCurrentKey(), context.getCurrentValue(), context);
+			}
+		} finally {
+			reporter.shutdown();
+			cleanup(context);
+		}
 	}
-	
+
 	@Override
 	protected void cleanup(Context context)
 			throws IOException, InterruptedException {
 		super.cleanup(context);
 	}
-	
+
+	/**
+	 * Ask the loop to stop reading its source and return once the queued
+	 * work is processed. May be called from any thread.
+	 */
+	public void shutdown() {
+		running = false;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	ProgressReporter getReporter() {
+		return reporter;
+	}
+
+	/**
+	 * Fill batch with up to batchSize units, waiting at most linger ms once
+	 * the first one arrived. Returns with an empty batch after an idle wait.
+	 */
+	private static void nextBatch(BlockingQueue<WorkDesc> queue,
+			List<WorkDesc> batch, int batchSize, long linger)
+			throws InterruptedException {
+		WorkDesc first = queue.poll(IDLE_WAIT, TimeUnit.MILLISECONDS);
+		if (null == first) {
+			return;
+		}
+		batch.add(first);
+		long deadline = System.currentTimeMillis() + linger;
+		while (batch.size() < batchSize) {
+			queue.drainTo(batch, batchSize - batch.size());
+			long wait = deadline - System.currentTimeMillis();
+			if (batch.size() >= batchSize || wait <= 0) {
+				break;
+			}
+			WorkDesc next = queue.poll(wait, TimeUnit.MILLISECONDS);
+			if (null == next) {
+				break;
+			}
+			batch.add(next);
+		}
+	}
+
+	/**
+	 * Wait for the last checkpoints of a plan, removing them if remove is
+	 * set, without hiding the failure of a plan not done.
+	 */
+	private static void closeCheckpoint(TaskCheckpoint checkpoint, boolean done,
+			boolean remove) throws IOException {
+		try {
+			checkpoint.close(remove);
+		} catch (IOException e) {
+			if (done) {
+				throw e;
+			}
+			LOG.warn("Failed to finish the checkpoints of a failed plan", e);
+		}
+	}
+
+	/**
+	 * Join the map tasks serving the same work plan in sharing its
+	 * mapreduce.rabbit.work.units, if a ZooKeeper quorum is configured. A
+	 * source implementing AssignmentListener is told which units to serve.
+	 */
+	private static WorkCoordinator coordinate(Configuration conf, WorkDesc plan,
+			Context context, Source source) throws IOException {
+		String quorum = conf.get(RabbitConstants.ZK_QUORUM);
+		int units = conf.getInt(RabbitConstants.WORK_UNITS,
+				RabbitConstants.DEFAULT_WORK_UNITS);
+		if (null == quorum || units <= 0) {
+			return null;
+		}
+		if (!(source instanceof AssignmentListener)) {
+			throw new IOException(source.getClass().getName() + " can not serve "
+					+ RabbitConstants.WORK_UNITS + ", it is no AssignmentListener");
+		}
+		String group = conf.get(RabbitConstants.ZK_ROOT, RabbitConstants.DEFAULT_ZK_ROOT)
+				+ "/" + context.getJobID() + "/" + MD5Hash.digest(plan.getDesc());
+		WorkCoordinator coordinator = new WorkCoordinator(quorum, conf.getInt(
+				RabbitConstants.ZK_SESSION_TIMEOUT,
+				RabbitConstants.DEFAULT_ZK_SESSION_TIMEOUT), group,
+				context.getTaskAttemptID().toString(), (AssignmentListener) source);
+		try {
+			coordinator.start();
+			coordinator.addUnits(WorkCoordinator.units(units));
+		} catch (IOException e) {
+			coordinator.close();
+			throw e;
+		}
+		return coordinator;
+	}
+
+	/**
+	 * @return the queue between source and worker, spilling to the local
+	 *         dirs of the task if mapreduce.rabbit.spill.max.bytes is set
+	 */
+	private static BlockingQueue<WorkDesc> newQueue(Configuration conf,
+			WorkDesc plan, Context context, int capacity) throws IOException {
+		long maxBytes = conf.getLong(RabbitConstants.SPILL_MAX_BYTES,
+				RabbitConstants.DEFAULT_SPILL_MAX_BYTES);
+		if (maxBytes <= 0) {
+			return new ArrayBlockingQueue<WorkDesc>(capacity);
+		}
+		int segmentBytes = conf.getInt(RabbitConstants.SPILL_SEGMENT_BYTES,
+				RabbitConstants.DEFAULT_SPILL_SEGMENT_BYTES);
+		Path dir = new LocalDirAllocator("mapred.local.dir").getLocalPathForWrite(
+				SPILL_DIR + "/" + context.getTaskAttemptID() + "/"
+						+ MD5Hash.digest(plan.getDesc()), maxBytes, conf);
+		File local = new File(dir.toUri().getPath());
+		LOG.info("Spilling work of " + plan + " beyond " + capacity + " units to "
+				+ local);
+		return new SpillingQueue(capacity, new SpillLog(local, segmentBytes,
+				(int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / segmentBytes))));
+	}
+
+	private static void closeQueue(BlockingQueue<WorkDesc> queue) {
+		if (queue instanceof SpillingQueue) {
+			try {
+				((SpillingQueue) queue).close();
+			} catch (IOException e) {
+				LOG.warn("Failed to remove the spilled work", e);
+			}
+		}
+	}
+
+	private static void listen(ConfigManager config, Object listener, boolean add) {
+		if (listener instanceof ConfigListener) {
+			if (add) {
+				config.addListener((ConfigListener) listener);
+			} else {
+				config.removeListener((ConfigListener) listener);
+			}
+		}
+	}
+
+	private static <T> T newInstance(Configuration conf, String name,
+			Class<T> xface) throws IOException {
+		Class<? extends T> clazz = conf.getClass(name, null, xface);
+		if (null == clazz) {
+			throw new IOException(name + " is not set");
+		}
+		return ReflectionUtils.newInstance(clazz, conf);
+	}
+
+	/**
+	 * Moves work from the source into the queue, blocking while it is full,
+	 * or for a spilling queue while its log is full.
+	 * Once the work of its plan read and not yet processed reaches the high
+	 * watermark, the source is not read until the worker got down to the low
+	 * watermark.
+	 * A due source checkpoint is taken right after a unit is queued.
+	 */
+	private static class SourceReader extends Thread {
+
+		private final Source source;
+
+		private final BlockingQueue<WorkDesc> queue;
+
+		private final ProgressReporter reporter;
+
+		private final TaskCheckpoint checkpoint;
+
+		private final BatchSettings settings;
+
+		/** written by this thread only */
+		private volatile long read;
+
+		/** written by the loop only */
+		private volatile long processed;
+
+		private volatile boolean stopped;
+
+		private volatile boolean finished;
+
+		/** unit read but not queued when reading stopped */
+		private volatile WorkDesc leftover;
+
+		/** the source returned null without being stopped */
+		private volatile boolean exhausted;
+
+		private volatile Exception error;
+
+		SourceReader(Source source, BlockingQueue<WorkDesc> queue,
+				ProgressReporter reporter, TaskCheckpoint checkpoint,
+				BatchSettings settings) {
+			super("rabbit-source-reader");
+			setDaemon(true);
+			this.source = source;
+			this.queue = queue;
+			this.reporter = reporter;
+			this.checkpoint = checkpoint;
+			this.settings = settings;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!stopped) {
+					WorkDesc work = source.next();
+					if (null == work) {
+						// a source closed by shutdown() may end early
+						exhausted = !stopped;
+						break;
+					}
+					if (!queue.offer(work)) {
+						long start = System.currentTimeMillis();
+						boolean queued = enqueue(work);
+						reporter.sourceBlocked(System.currentTimeMillis() - start);
+						if (!queued) {
+							break;
+						}
+					}
+					reporter.read();
+					read++;
+					if (null != checkpoint) {
+						checkpoint.read(read);
+					}
+					if (pending() >= settings.getHighWatermark()) {
+						throttle();
+					}
+				}
+			} catch (InterruptedException e) {
+				// shut down
+			} catch (Exception e) {
+				if (!stopped) {
+					error = e;
+				}
+			} finally {
+				finished = true;
+			}
+		}
+
+		/**
+		 * Wait for room in the queue, keeping the unit for the loop if stopped
+		 * meanwhile: it was taken from the source already.
+		 *
+		 * @return false if the unit was not queued
+		 */
+		private boolean enqueue(WorkDesc work) {
+			while (!stopped) {
+				try {
+					if (queue.offer(work, THROTTLE_WAIT, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				} catch (InterruptedException e) {
+					// only shutdown() interrupts, after setting stopped
+				}
+			}
+			leftover = work;
+			return false;
+		}
+
+		private void throttle() throws InterruptedException {
+			long start = System.currentTimeMillis();
+			while (!stopped && pending() > settings.getLowWatermark()) {
+				Thread.sleep(THROTTLE_WAIT);
+			}
+			reporter.sourceBlocked(System.currentTimeMillis() - start);
+		}
+
+		private long pending() {
+			return read - processed;
+		}
+
+		/**
+		 * Called by the loop once the first processed units are done.
+		 */
+		void processed(long processed) {
+			this.processed = processed;
+		}
+
+		boolean isFinished() {
+			return finished;
+		}
+
+		/**
+		 * @return the unit read but not queued before the reader was stopped,
+		 *         once, null if there is none
+		 */
+		WorkDesc takeLeftover() {
+			WorkDesc work = leftover;
+			leftover = null;
+			return work;
+		}
+
+		/**
+		 * @return true if the source ran out of work, not if reading was
+		 *         stopped
+		 */
+		boolean isExhausted() {
+			return exhausted;
+		}
+
+		/**
+		 * Stop reading and close the source, idempotent.
+		 */
+		synchronized void shutdown() throws IOException, InterruptedException {
+			if (stopped) {
+				return;
+			}
+			stopped = true;
+			interrupt();
+			try {
+				source.close();
+			} finally {
+				join(SHUTDOWN_WAIT);
+				if (isAlive()) {
+					LOG.warn("Source did not stop within " + SHUTDOWN_WAIT + " ms");
+				}
+			}
+		}
+
+		void rethrow() throws IOException {
+			if (error instanceof IOException) {
+				throw (IOException) error;
+			}
+			if (null != error) {
+				throw new IOException("Source failed", error);
+			}
+		}
+
+	}
+
 }
@@ -0,0 +1,217 @@
+package org.apache.hadoop.rabbit.mapreduce;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.rabbit.pool.Deployment;
+import org.apache.hadoop.rabbit.pool.DeploymentListener;
+import org.apache.hadoop.rabbit.pool.DeploymentRegistry;
+import org.apache.hadoop.rabbit.pool.TopologyClassLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resident map task of a worker pool, serving the topologies deployed to the
+ * pool without a job of their own.<br />
+ * Each input line names the pool of the mapper, whose {@link Deployment}s
+ * are followed through a {@link DeploymentRegistry} in
+ * mapreduce.rabbit.zk.quorum. Every member of a pool serves every
+ * deployment the way a RabbitMapper serves a work plan, each in a thread of
+ * its own with a {@link TopologyClassLoader} over local copies of its jars.
+ * A deployment deployed again is stopped, its queued work processed, and
+ * started from its new jars; an undeployed one is stopped. The JVM and
+ * whatever it compiled stay. A deployment whose source is exhausted or which
+ * failed stays stopped until it is deployed again. The plans of the
+ * deployments of a pool must differ, they key their checkpoints and work
+ * units.
+ */
+public class RabbitPoolMapper extends RabbitMapper implements DeploymentListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RabbitPoolMapper.class);
+
+	/** how long the pool waits for deployments before coming around again */
+	private static final long IDLE_WAIT = 1000;
+
+	/** below the working directory of the task attempt */
+	private static final String LOCAL_DIR = "rabbit-pool";
+
+	/** deployments as last read, only the latest matters */
+	private final BlockingQueue<Map<String, Deployment>> updates =
+			new LinkedBlockingQueue<Map<String, Deployment>>();
+
+	/** deployments started, by name, only touched by the map thread */
+	private final Map<String, Served> served = new HashMap<String, Served>();
+
+	/**
+	 * Serve the deployments of the pool until the mapper is shut down.
+	 */
+	@Override
+	protected void map(LongWritable key, Text value, Context context)
+			throws IOException, InterruptedException {
+		String pool = value.toString().trim();
+		DeploymentRegistry registry = DeploymentRegistry.open(
+				context.getConfiguration(), pool);
+		LOG.info("Joined worker pool " + pool);
+		try {
+			registry.watch(this);
+			while (isRunning()) {
+				Map<String, Deployment> deployments = updates.poll(IDLE_WAIT,
+						TimeUnit.MILLISECONDS);
+				Map<String, Deployment> newer;
+				while (null != (newer = updates.poll())) {
+					deployments = newer;
+				}
+				if (null != deployments) {
+					reconcile(deployments, context);
+				}
+				if (!serving()) {
+					// an idle pool is alive and caught up, else the loops of
+					// its deployments tell
+					getReporter().heartbeat(true);
+				}
+			}
+		} finally {
+			registry.close();
+			stop(new ArrayList<Served>(served.values()));
+			served.clear();
+			LOG.info("Left worker pool " + pool);
+		}
+	}
+
+	@Override
+	public void deployed(Map<String, Deployment> deployments) {
+		updates.add(deployments);
+	}
+
+	/**
+	 * Stop what was changed or removed, then start what is new.
+	 */
+	private void reconcile(Map<String, Deployment> deployments, Context context)
+			throws InterruptedException {
+		List<Served> stale = new ArrayList<Served>();
+		for (Iterator<Served> it = served.values().iterator(); it.hasNext();) {
+			Served s = it.next();
+			Deployment current = deployments.get(s.deployment.getName());
+			if (null == current || current.getRevision() != s.deployment.getRevision()) {
+				stale.add(s);
+				it.remove();
+			}
+		}
+		// the new revision must not run beside the old one
+		stop(stale);
+		for (Deployment deployment : deployments.values()) {
+			if (!served.containsKey(deployment.getName())) {
+				Served s = new Served(deployment, context);
+				served.put(deployment.getName(), s);
+				s.start();
+			}
+		}
+	}
+
+	/**
+	 * @return whether a deployment is running
+	 */
+	private boolean serving() {
+		for (Served s : served.values()) {
+			if (s.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void stop(List<Served> stopping) throws InterruptedException {
+		for (Served s : stopping) {
+			s.active.set(false);
+		}
+		for (Served s : stopping) {
+			s.join();
+		}
+	}
+
+	/**
+	 * Runs one revision of a deployment.
+	 */
+	private class Served extends Thread {
+
+		final Deployment deployment;
+
+		final AtomicBoolean active = new AtomicBoolean(true);
+
+		private final Context context;
+
+		private final File dir;
+
+		Served(Deployment deployment, Context context) {
+			super("rabbit-deployment-" + deployment.getName());
+			setDaemon(true);
+			this.deployment = deployment;
+			this.context = context;
+			this.dir = new File(LOCAL_DIR, deployment.getName() + "-"
+					+ deployment.getRevision()).getAbsoluteFile();
+		}
+
+		@Override
+		public void run() {
+			LOG.info("Starting deployment " + deployment + " revision "
+					+ deployment.getRevision());
+			try {
+				TopologyClassLoader loader = localize(context.getConfiguration());
+				// copies of the configuration take the loader of the thread
+				setContextClassLoader(loader);
+				Configuration conf = deployment.configure(context.getConfiguration());
+				conf.setClassLoader(loader);
+				serve(deployment.getPlan(), conf, context, active);
+				LOG.info("Deployment " + deployment.getName() + " stopped");
+			} catch (InterruptedException e) {
+				LOG.info("Deployment " + deployment.getName() + " interrupted");
+			} catch (Exception e) {
+				LOG.error("Deployment " + deployment.getName() + " failed, it stays"
+						+ " stopped until deployed again", e);
+			} finally {
+				try {
+					FileUtil.fullyDelete(dir);
+				} catch (IOException e) {
+					LOG.warn("Failed to remove " + dir, e);
+				}
+			}
+		}
+
+		/**
+		 * Copy the jars of the deployment next to the task.
+		 */
+		private TopologyClassLoader localize(Configuration conf) throws IOException {
+			if (!dir.mkdirs() && !dir.isDirectory()) {
+				throw new IOException("Can not create " + dir);
+			}
+			List<String> jars = deployment.getJars();
+			URL[] urls = new URL[jars.size()];
+			for (int i = 0; i < urls.length; i++) {
+				Path jar = new Path(jars.get(i));
+				File local = new File(dir, i + "-" + jar.getName());
+				FileSystem fs = jar.getFileSystem(conf);
+				fs.copyToLocalFile(jar, new Path(local.getAbsolutePath()));
+				urls[i] = local.toURI().toURL();
+			}
+			return new TopologyClassLoader(urls, RabbitPoolMapper.class.getClassLoader());
+		}
+
+	}
+
+}
@@ -0,0 +1,203 @@
+package org.apache.hadoop.rabbit.mapreduce;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.rabbit.checkpoint.Checkpointable;
+import org.apache.hadoop.rabbit.checkpoint.Checkpointer;
+import org.apache.hadoop.rabbit.checkpoint.StateStore;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.apache.hadoop.rabbit.util.RabbitUtils;
+import org.apache.hadoop.rabbit.worker.Source;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+import org.apache.hadoop.rabbit.worker.Worker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checkpoints of the worker and source serving a work plan, kept below
+ * rabbit.tmp.dir by job, task and plan so that every attempt of the task
+ * finds them.<br />
+ * The source is read ahead of the worker, so a checkpoint is taken in two
+ * steps: once due, the reader thread checkpoints the source after the next
+ * unit it queued and remembers how many it read, the loop then cuts its
+ * batches to reach exactly that many and checkpoints the worker, also when
+ * the source checkpoint came in after the batch was taken. Both only
+ * swap their changes out of a {@link StateStore}, writing them is left to the
+ * {@link Checkpointer} thread.
+ */
+class TaskCheckpoint {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TaskCheckpoint.class);
+
+	private static final String WORKER = "worker";
+
+	private static final String SOURCE = "source";
+
+	private final Checkpointer checkpointer;
+
+	private final Checkpointable worker;
+
+	private final Checkpointable source;
+
+	private final long interval;
+
+	/** changes of the worker, only touched by the loop */
+	private final StateStore workerState = new StateStore();
+
+	/** changes of the source, only touched by the reader thread */
+	private final StateStore sourceState = new StateStore();
+
+	private long nextCheckpoint;
+
+	private volatile boolean requested;
+
+	/** source checkpoint waiting for the worker to catch up */
+	private volatile Barrier barrier;
+
+	TaskCheckpoint(Checkpointer checkpointer, Checkpointable worker,
+			Checkpointable source, long interval) {
+		this.checkpointer = checkpointer;
+		this.worker = worker;
+		this.source = source;
+		this.interval = interval;
+		this.nextCheckpoint = System.currentTimeMillis() + interval;
+	}
+
+	/**
+	 * Restore the latest checkpoint of the task into the worker and source.
+	 *
+	 * @return null unless the worker or source is Checkpointable and
+	 *         mapreduce.rabbit.checkpoint.interval positive
+	 */
+	static TaskCheckpoint restore(Configuration conf, WorkDesc plan,
+			TaskInputOutputContext<?, ?, ?, ?> context, Worker worker, Source source)
+			throws IOException {
+		long interval = conf.getLong(RabbitConstants.CHECKPOINT_INTERVAL,
+				RabbitConstants.DEFAULT_CHECKPOINT_INTERVAL);
+		Checkpointable w = worker instanceof Checkpointable ? (Checkpointable) worker : null;
+		Checkpointable s = source instanceof Checkpointable ? (Checkpointable) source : null;
+		if (interval <= 0 || (null == w && null == s)) {
+			return null;
+		}
+		Path dir = new Path(RabbitUtils.getTmpDir(), "checkpoints/" + context.getJobID()
+				+ "/" + context.getTaskAttemptID().getTaskID() + "/"
+				+ MD5Hash.digest(plan.getDesc()));
+		Checkpointer checkpointer = new Checkpointer(dir.getFileSystem(conf), dir,
+				conf.getInt(RabbitConstants.CHECKPOINT_COMPACT_DELTAS,
+						RabbitConstants.DEFAULT_CHECKPOINT_COMPACT_DELTAS));
+		Map<String, Checkpointable> participants = new HashMap<String, Checkpointable>();
+		if (null != w) {
+			participants.put(WORKER, w);
+		}
+		if (null != s) {
+			participants.put(SOURCE, s);
+		}
+		try {
+			if (!checkpointer.restore(participants)) {
+				LOG.info("No checkpoint in " + dir);
+			}
+		} catch (IOException e) {
+			checkpointer.close();
+			throw e;
+		}
+		return new TaskCheckpoint(checkpointer, w, s, interval);
+	}
+
+	/**
+	 * Called by the reader thread after it queued the read-th unit.
+	 */
+	void read(long read) throws IOException {
+		if (requested) {
+			source.checkpoint(sourceState);
+			barrier = new Barrier(read, sourceState.swap());
+			requested = false;
+		}
+	}
+
+	/**
+	 * Called by the loop once the worker processed and flushed the first
+	 * processed units, takes the worker checkpoint when due.
+	 */
+	void processed(long processed) throws IOException {
+		Barrier b = barrier;
+		if (null != b) {
+			if (b.read <= processed) {
+				if (b.read < processed) {
+					// cannot happen while the loop cuts its batches, see limit()
+					LOG.warn("Worker checkpoint " + (processed - b.read)
+							+ " units past its source checkpoint");
+				}
+				barrier = null;
+				write(b.changes);
+			}
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (requested || now < nextCheckpoint || !checkpointer.isIdle()) {
+			// a slow write only delays the next checkpoint, changes pile up
+			return;
+		}
+		nextCheckpoint = now + interval;
+		if (null == source) {
+			write(null);
+		} else {
+			requested = true;
+		}
+	}
+
+	/**
+	 * @return how many of the next batchSize units may be processed without
+	 *         passing the unit of a source checkpoint, 0 if it is reached
+	 */
+	int limit(long processed, int batchSize) {
+		Barrier b = barrier;
+		if (null == b) {
+			return batchSize;
+		}
+		return (int) Math.max(0, Math.min(batchSize, b.read - processed));
+	}
+
+	/**
+	 * Wait for the checkpoints being written, and remove them once the plan
+	 * is done for good.
+	 */
+	void close(boolean done) throws IOException {
+		if (done) {
+			checkpointer.delete();
+		} else {
+			checkpointer.close();
+		}
+	}
+
+	private void write(Map<String, byte[]> sourceChanges) throws IOException {
+		Map<String, Map<String, byte[]>> changes = new HashMap<String, Map<String, byte[]>>();
+		if (null != worker) {
+			worker.checkpoint(workerState);
+			changes.put(WORKER, workerState.swap());
+		}
+		if (null != sourceChanges) {
+			changes.put(SOURCE, sourceChanges);
+		}
+		checkpointer.write(changes);
+	}
+
+	private static class Barrier {
+
+		final long read;
+
+		final Map<String, byte[]> changes;
+
+		Barrier(long read, Map<String, byte[]> changes) {
+			this.read = read;
+			this.changes = changes;
+		}
+
+	}
+
+}
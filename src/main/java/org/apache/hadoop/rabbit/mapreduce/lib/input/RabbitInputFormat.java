@@ -1,10 +1,11 @@
 package org.apache.hadoop.rabbit.mapreduce.lib.input;
 
-import org.apache.hadoop.mapred.lib.NLineInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
 
 /**
  * Process map-only input file format<br />
- * parameter mapred.line.input.format.linespermap=1
+ * parameter mapred.line.input.format.linespermap=1, each line is the work
+ * plan of one resident RabbitMapper
  */
 public class RabbitInputFormat extends NLineInputFormat{
 	// not need add more methods
@@ -0,0 +1,162 @@
+package org.apache.hadoop.rabbit.mapreduce.lib.input;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Line input format reading sftp:// files in place, without staging them
+ * into HDFS first.<br />
+ * Large files are cut into byte ranges of mapreduce.rabbit.input.sftp.split.size,
+ * files smaller than that are packed together up to
+ * mapreduce.rabbit.input.sftp.combine.size per split. Splits carry no host
+ * since the data is remote to every task tracker. Keys are byte offsets
+ * within each file.
+ */
+public class SFTPInputFormat extends FileInputFormat<LongWritable, Text> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SFTPInputFormat.class);
+
+	/** same slop as FileInputFormat, avoids a tiny last split */
+	private static final double SPLIT_SLOP = 1.1;
+
+	private static final String[] NO_HOSTS = new String[0];
+
+	@Override
+	public List<InputSplit> getSplits(JobContext job) throws IOException {
+		Configuration conf = job.getConfiguration();
+		long splitSize = Math.max(1, conf.getLong(RabbitConstants.SFTP_INPUT_SPLIT_SIZE,
+				RabbitConstants.DEFAULT_SFTP_INPUT_SPLIT_SIZE));
+		long combineSize = conf.getLong(RabbitConstants.SFTP_INPUT_COMBINE_SIZE, splitSize);
+
+		List<InputSplit> splits = new ArrayList<InputSplit>();
+		List<FileStatus> small = new ArrayList<FileStatus>();
+		long smallBytes = 0;
+		for (FileStatus file : listStatus(job)) {
+			Path path = file.getPath();
+			long length = file.getLen();
+			if (length < splitSize) {
+				small.add(file);
+				smallBytes += length;
+				if (smallBytes >= combineSize) {
+					splits.add(combine(small));
+					small.clear();
+					smallBytes = 0;
+				}
+			} else if (isSplitable(job, path)) {
+				long remaining = length;
+				while (((double) remaining) / splitSize > SPLIT_SLOP) {
+					splits.add(new FileSplit(path, length - remaining, splitSize, NO_HOSTS));
+					remaining -= splitSize;
+				}
+				if (remaining != 0) {
+					splits.add(new FileSplit(path, length - remaining, remaining, NO_HOSTS));
+				}
+			} else {
+				splits.add(new FileSplit(path, 0, length, NO_HOSTS));
+			}
+		}
+		if (!small.isEmpty()) {
+			splits.add(combine(small));
+		}
+		LOG.info("Total input splits to process : " + splits.size());
+		return splits;
+	}
+
+	@Override
+	public RecordReader<LongWritable, Text> createRecordReader(InputSplit split,
+			TaskAttemptContext context) throws IOException {
+		if (split instanceof CombineFileSplit) {
+			return new CombineFileRecordReader<LongWritable, Text>(
+					(CombineFileSplit) split, context, CombinedLineRecordReader.class);
+		}
+		return new LineRecordReader();
+	}
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path file) {
+		return null == new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+	}
+
+	private static CombineFileSplit combine(List<FileStatus> files) {
+		int n = files.size();
+		Path[] paths = new Path[n];
+		long[] starts = new long[n];
+		long[] lengths = new long[n];
+		for (int i = 0; i < n; i++) {
+			paths[i] = files.get(i).getPath();
+			lengths[i] = files.get(i).getLen();
+		}
+		return new CombineFileSplit(paths, starts, lengths, NO_HOSTS);
+	}
+
+	/**
+	 * Reads one file of a {@link CombineFileSplit}, created reflectively by
+	 * {@link CombineFileRecordReader}.
+	 */
+	public static class CombinedLineRecordReader extends RecordReader<LongWritable, Text> {
+
+		private final FileSplit fileSplit;
+
+		private final LineRecordReader reader = new LineRecordReader();
+
+		public CombinedLineRecordReader(CombineFileSplit split,
+				TaskAttemptContext context, Integer index) {
+			this.fileSplit = new FileSplit(split.getPath(index), split.getOffset(index),
+					split.getLength(index), NO_HOSTS);
+		}
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context)
+				throws IOException, InterruptedException {
+			// the combined split is passed in, read only our own file of it
+			reader.initialize(fileSplit, context);
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException, InterruptedException {
+			return reader.nextKeyValue();
+		}
+
+		@Override
+		public LongWritable getCurrentKey() throws IOException, InterruptedException {
+			return reader.getCurrentKey();
+		}
+
+		@Override
+		public Text getCurrentValue() throws IOException, InterruptedException {
+			return reader.getCurrentValue();
+		}
+
+		@Override
+		public float getProgress() throws IOException, InterruptedException {
+			return reader.getProgress();
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+
+	}
+
+}
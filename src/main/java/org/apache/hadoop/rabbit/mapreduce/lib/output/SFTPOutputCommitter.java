@@ -0,0 +1,166 @@
+package org.apache.hadoop.rabbit.mapreduce.lib.output;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Commits task output written under hidden temporary names in the final
+ * directory.<br />
+ * A task writes .&lt;name&gt;.&lt;attempt&gt;.tmp next to where &lt;name&gt;
+ * belongs, and every file is committed with a single server-side rename, so
+ * consumers polling the directory never see partial files. A file which is
+ * already committed is kept, which lets a retried task skip it.
+ */
+public class SFTPOutputCommitter extends OutputCommitter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SFTPOutputCommitter.class);
+
+	public static final String TEMP_SUFFIX = ".tmp";
+
+	private final Path outputPath;
+
+	private final FileSystem fs;
+
+	public SFTPOutputCommitter(Path outputPath, TaskAttemptContext context)
+			throws IOException {
+		this.outputPath = outputPath;
+		this.fs = outputPath.getFileSystem(context.getConfiguration());
+	}
+
+	/**
+	 * @return where the given attempt writes the file which will be committed
+	 *         as name
+	 */
+	public Path getTempPath(TaskAttemptContext context, String name) {
+		return new Path(outputPath, "." + name + "." + context.getTaskAttemptID()
+				+ TEMP_SUFFIX);
+	}
+
+	/**
+	 * @return true if name was committed already, by an earlier attempt
+	 */
+	public boolean isCommitted(String name) throws IOException {
+		return fs.exists(new Path(outputPath, name));
+	}
+
+	public Path getOutputPath() {
+		return outputPath;
+	}
+
+	@Override
+	public void setupJob(JobContext context) throws IOException {
+		if (!fs.exists(outputPath) && !fs.mkdirs(outputPath)) {
+			throw new IOException("Mkdirs failed to create " + outputPath);
+		}
+	}
+
+	@Override
+	public void commitJob(JobContext context) throws IOException {
+		// leftovers of failed or speculative attempts
+		removeTempFiles(context.getJobID(), null);
+	}
+
+	@Override
+	public void abortJob(JobContext context, JobStatus.State state)
+			throws IOException {
+		removeTempFiles(context.getJobID(), null);
+	}
+
+	@Override
+	public void setupTask(TaskAttemptContext context) throws IOException {
+		// temp files are created on demand next to their final names
+	}
+
+	@Override
+	public boolean needsTaskCommit(TaskAttemptContext context) throws IOException {
+		return !listTempFiles(context.getTaskAttemptID().getJobID(),
+				context.getTaskAttemptID()).isEmpty();
+	}
+
+	@Override
+	public void commitTask(TaskAttemptContext context) throws IOException {
+		TaskAttemptID attempt = context.getTaskAttemptID();
+		for (FileStatus temp : listTempFiles(attempt.getJobID(), attempt)) {
+			Path tempPath = temp.getPath();
+			Path finalPath = new Path(outputPath, getFinalName(tempPath.getName()));
+			if (fs.exists(finalPath)) {
+				LOG.info(finalPath + " was committed already, dropping " + tempPath);
+				fs.delete(tempPath, false);
+			} else if (!fs.rename(tempPath, finalPath)) {
+				throw new IOException("Failed to commit " + tempPath + " to " + finalPath);
+			}
+		}
+	}
+
+	@Override
+	public void abortTask(TaskAttemptContext context) throws IOException {
+		TaskAttemptID attempt = context.getTaskAttemptID();
+		removeTempFiles(attempt.getJobID(), attempt);
+	}
+
+	private void removeTempFiles(JobID job, TaskAttemptID attempt)
+			throws IOException {
+		for (FileStatus temp : listTempFiles(job, attempt)) {
+			fs.delete(temp.getPath(), false);
+		}
+	}
+
+	/**
+	 * @return temp files of the given attempt, or of every attempt of the job
+	 *         if attempt is null
+	 */
+	private List<FileStatus> listTempFiles(JobID job, TaskAttemptID attempt)
+			throws IOException {
+		List<FileStatus> temps = new ArrayList<FileStatus>();
+		if (!fs.exists(outputPath)) {
+			return temps;
+		}
+		for (FileStatus status : fs.listStatus(outputPath)) {
+			TaskAttemptID owner = getAttempt(status.getPath().getName());
+			// forName returns the old api ids, so compare by name
+			if (null != owner && owner.getJobID().toString().equals(job.toString())
+					&& (null == attempt || owner.toString().equals(attempt.toString()))) {
+				temps.add(status);
+			}
+		}
+		return temps;
+	}
+
+	/**
+	 * @return attempt which wrote the temp file, or null for any other file
+	 */
+	private static TaskAttemptID getAttempt(String tempName) {
+		if (!tempName.startsWith(".") || !tempName.endsWith(TEMP_SUFFIX)) {
+			return null;
+		}
+		String base = tempName.substring(0, tempName.length() - TEMP_SUFFIX.length());
+		int dot = base.lastIndexOf('.');
+		if (dot <= 0) {
+			return null;
+		}
+		try {
+			return TaskAttemptID.forName(base.substring(dot + 1));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static String getFinalName(String tempName) {
+		String base = tempName.substring(0, tempName.length() - TEMP_SUFFIX.length());
+		return base.substring(1, base.lastIndexOf('.'));
+	}
+
+}
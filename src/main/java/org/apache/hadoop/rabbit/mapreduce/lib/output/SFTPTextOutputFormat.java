@@ -0,0 +1,90 @@
+package org.apache.hadoop.rabbit.mapreduce.lib.output;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapred.InvalidJobConfException;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Text output written straight into the (sftp) output directory and made
+ * visible through {@link SFTPOutputCommitter}.<br />
+ * The output directory may exist already; files committed by an earlier
+ * attempt or run are not written again, so task output must be
+ * deterministic.
+ */
+public class SFTPTextOutputFormat<K, V> extends TextOutputFormat<K, V> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SFTPTextOutputFormat.class);
+
+	private SFTPOutputCommitter committer;
+
+	@Override
+	public RecordWriter<K, V> getRecordWriter(TaskAttemptContext job)
+			throws IOException, InterruptedException {
+		String name = getUniqueFile(job, getOutputName(job), getExtension(job));
+		if (getCommitter(job).isCommitted(name)) {
+			LOG.info(name + " is committed already, skipping its output");
+			return new RecordWriter<K, V>() {
+
+				@Override
+				public void write(K key, V value) {
+				}
+
+				@Override
+				public void close(TaskAttemptContext context) {
+				}
+
+			};
+		}
+		return super.getRecordWriter(job);
+	}
+
+	@Override
+	public Path getDefaultWorkFile(TaskAttemptContext context, String extension)
+			throws IOException {
+		return getCommitter(context).getTempPath(context,
+				getUniqueFile(context, getOutputName(context), extension));
+	}
+
+	@Override
+	public synchronized OutputCommitter getOutputCommitter(
+			TaskAttemptContext context) throws IOException {
+		return getCommitter(context);
+	}
+
+	@Override
+	public void checkOutputSpecs(JobContext job) throws IOException {
+		if (null == getOutputPath(job)) {
+			throw new InvalidJobConfException("Output directory not set.");
+		}
+	}
+
+	private synchronized SFTPOutputCommitter getCommitter(
+			TaskAttemptContext context) throws IOException {
+		if (null == committer) {
+			committer = new SFTPOutputCommitter(getOutputPath(context), context);
+		}
+		return committer;
+	}
+
+	private static String getExtension(TaskAttemptContext job) {
+		if (!getCompressOutput(job)) {
+			return "";
+		}
+		Class<? extends CompressionCodec> codecClass = getOutputCompressorClass(
+				job, GzipCodec.class);
+		return ReflectionUtils.newInstance(codecClass, job.getConfiguration())
+				.getDefaultExtension();
+	}
+
+}
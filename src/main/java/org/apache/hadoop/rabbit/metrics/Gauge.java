@@ -0,0 +1,10 @@
+package org.apache.hadoop.rabbit.metrics;
+
+/**
+ * A value sampled when the metrics are published, such as a queue depth.
+ */
+public interface Gauge {
+
+	public long getValue();
+
+}
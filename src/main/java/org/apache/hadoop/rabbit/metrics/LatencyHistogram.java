@@ -0,0 +1,219 @@
+package org.apache.hadoop.rabbit.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of latencies in nanoseconds, recorded by many threads without
+ * allocating or contending.<br />
+ * Buckets are log-linear like an HdrHistogram: every power of two is split
+ * into 16 sub-buckets, so any recorded value is known within 1/16 of itself.
+ * Every thread counts into a cell of buckets only it writes, so
+ * {@link #record(long)} is an array index and two ordered stores;
+ * {@link #snapshot()} merges all cells and may miss records racing with it.
+ * The cells of threads which died are folded into a base, so threads coming
+ * and going in a resident JVM do not pile up cells.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/** values below SUB_BUCKETS are exact, then 16 buckets per power of two */
+	static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	/** slot of a cell holding the sum of its values */
+	private static final int SUM = BUCKETS;
+
+	private final List<Cell> cells = new CopyOnWriteArrayList<Cell>();
+
+	/** counts and sum of the cells folded, guarded by this */
+	private final long[] base = new long[BUCKETS + 1];
+
+	private final ThreadLocal<AtomicLongArray> cell = new ThreadLocal<AtomicLongArray>() {
+
+		@Override
+		protected AtomicLongArray initialValue() {
+			Cell cell = new Cell();
+			synchronized (LatencyHistogram.this) {
+				fold();
+				cells.add(cell);
+			}
+			return cell.values;
+		}
+
+	};
+
+	/**
+	 * Record a latency, negative ones count as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		AtomicLongArray mine = cell.get();
+		int bucket = bucket(nanos);
+		// single writer, ordered stores are enough to publish the values
+		mine.lazySet(bucket, mine.get(bucket) + 1);
+		mine.lazySet(SUM, mine.get(SUM) + nanos);
+	}
+
+	/**
+	 * @return everything recorded so far
+	 */
+	public synchronized Snapshot snapshot() {
+		fold();
+		long[] counts = new long[BUCKETS];
+		System.arraycopy(base, 0, counts, 0, BUCKETS);
+		long sum = base[SUM];
+		for (Cell c : cells) {
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] += c.values.get(i);
+			}
+			sum += c.values.get(SUM);
+		}
+		return new Snapshot(counts, sum);
+	}
+
+	/**
+	 * Add the cells of dead threads to the base and drop them, a dead thread
+	 * wrote its last values before isAlive() turned false.
+	 */
+	private void fold() {
+		Iterator<Cell> it = cells.iterator();
+		while (it.hasNext()) {
+			Cell c = it.next();
+			Thread owner = c.owner.get();
+			if (null != owner && owner.isAlive()) {
+				continue;
+			}
+			for (int i = 0; i <= SUM; i++) {
+				base[i] += c.values.get(i);
+			}
+			cells.remove(c);
+		}
+	}
+
+	/**
+	 * @return cells of threads not known to be dead yet
+	 */
+	int cellCount() {
+		return cells.size();
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the highest value counted in bucket
+	 */
+	static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+		return lowest + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Buckets and sum written by one thread, which it does not keep alive.
+	 */
+	private static class Cell {
+
+		final WeakReference<Thread> owner = new WeakReference<Thread>(
+				Thread.currentThread());
+
+		final AtomicLongArray values = new AtomicLongArray(BUCKETS + 1);
+
+	}
+
+	/**
+	 * Merged counts of a histogram at one point in time.
+	 */
+	public static class Snapshot {
+
+		private final long[] counts;
+
+		private final long count;
+
+		private final long sum;
+
+		Snapshot(long[] counts, long sum) {
+			this.counts = counts;
+			this.sum = sum;
+			long count = 0;
+			for (long c : counts) {
+				count += c;
+			}
+			this.count = count;
+		}
+
+		/**
+		 * @return what was recorded after earlier was taken
+		 */
+		public Snapshot minus(Snapshot earlier) {
+			long[] delta = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				delta[i] = Math.max(0, counts[i] - earlier.counts[i]);
+			}
+			return new Snapshot(delta, Math.max(0, sum - earlier.sum));
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the sum of the values in nanoseconds
+		 */
+		public long getSum() {
+			return sum;
+		}
+
+		public double getMean() {
+			return 0 == count ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * @return the value at or below which the given percentage of the
+		 *         values are, 0 if there are none
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (0 == count) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return highestValue(i);
+				}
+			}
+			return getMax();
+		}
+
+		public long getMax() {
+			for (int i = BUCKETS - 1; i >= 0; i--) {
+				if (0 != counts[i]) {
+					return highestValue(i);
+				}
+			}
+			return 0;
+		}
+
+	}
+
+}
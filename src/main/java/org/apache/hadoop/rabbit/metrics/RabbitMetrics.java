@@ -0,0 +1,304 @@
+package org.apache.hadoop.rabbit.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+import org.apache.hadoop.rabbit.util.Accumulator;
+import org.apache.hadoop.rabbit.util.ConfigUtils;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latency histograms, meters and gauges of the Rabbit runtime in this JVM,
+ * published through JMX as hadoop:service=Rabbit,name=Metrics.<br />
+ * Every mapreduce.rabbit.metrics.interval ms a timer thread takes what the
+ * histograms recorded in the interval, the rate of the meters and the time
+ * the JVM spent collecting garbage. The JMX attributes show the latest
+ * interval, latencies in microseconds. An interval in which a histogram saw
+ * a latency of which GC took half or more is logged, so slow outliers can be
+ * told from slow code. Recording never touches the registry, look metrics up
+ * once and keep them.
+ */
+public class RabbitMetrics implements DynamicMBean {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RabbitMetrics.class);
+
+	private static final String OBJECT_NAME = "hadoop:service=Rabbit,name=Metrics";
+
+	/** latencies below are not worth blaming on GC */
+	private static final long SLOW_NANOS = 100 * 1000 * 1000L;
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	private static RabbitMetrics instance;
+
+	private final ConcurrentMap<String, LatencyHistogram> histograms =
+			new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private final ConcurrentMap<String, Accumulator> meters =
+			new ConcurrentHashMap<String, Accumulator>();
+
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+	private final List<GarbageCollectorMXBean> collectors =
+			ManagementFactory.getGarbageCollectorMXBeans();
+
+	/** state as of the last tick, only touched by the timer */
+	private final Map<LatencyHistogram, LatencyHistogram.Snapshot> lastSnapshots =
+			new HashMap<LatencyHistogram, LatencyHistogram.Snapshot>();
+
+	private final Map<Accumulator, Long> lastCounts = new HashMap<Accumulator, Long>();
+
+	private long lastTick = System.currentTimeMillis();
+
+	private long lastGcTime = gcTime();
+
+	private long lastGcCount = gcCount();
+
+	/** attributes of the latest interval */
+	private volatile Map<String, Object> attributes = Collections.emptyMap();
+
+	RabbitMetrics(long interval) {
+		if (interval > 0) {
+			new Timer("rabbit-metrics", true).schedule(new TimerTask() {
+
+				@Override
+				public void run() {
+					try {
+						tick();
+					} catch (RuntimeException e) {
+						LOG.warn("Failed to update the metrics", e);
+					}
+				}
+
+			}, interval, interval);
+		}
+	}
+
+	/**
+	 * @return the metrics of this JVM, registered with JMX on first use
+	 */
+	public static synchronized RabbitMetrics get() {
+		if (null == instance) {
+			instance = new RabbitMetrics(ConfigUtils.getSnapshot().getLong(
+					RabbitConstants.METRICS_INTERVAL,
+					RabbitConstants.DEFAULT_METRICS_INTERVAL));
+			register(instance);
+		}
+		return instance;
+	}
+
+	private static void register(RabbitMetrics metrics) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+					new ObjectName(OBJECT_NAME));
+		} catch (Exception e) {
+			// metrics are still recorded and reported, only JMX misses them
+			LOG.warn("Failed to register " + OBJECT_NAME, e);
+		}
+	}
+
+	/**
+	 * @return the histogram of the given name, created on first use
+	 */
+	public LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = histograms.get(name);
+		if (null == histogram) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(name, created);
+			if (null == histogram) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * @return the meter of the given name, created on first use
+	 */
+	public Accumulator meter(String name) {
+		Accumulator meter = meters.get(name);
+		if (null == meter) {
+			Accumulator created = new Accumulator();
+			meter = meters.putIfAbsent(name, created);
+			if (null == meter) {
+				meter = created;
+			}
+		}
+		return meter;
+	}
+
+	/**
+	 * Publish an Accumulator counted anyway as a meter, replacing the meter
+	 * of that name.
+	 */
+	public void register(String name, Accumulator meter) {
+		meters.put(name, meter);
+	}
+
+	public void register(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Stop publishing the gauge or meter of the given name.
+	 */
+	public void unregister(String name) {
+		gauges.remove(name);
+		meters.remove(name);
+	}
+
+	public Map<String, LatencyHistogram> getHistograms() {
+		return Collections.unmodifiableMap(histograms);
+	}
+
+	public Map<String, Accumulator> getMeters() {
+		return Collections.unmodifiableMap(meters);
+	}
+
+	/**
+	 * @return milliseconds this JVM spent collecting garbage
+	 */
+	public long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean collector : collectors) {
+			time += Math.max(0, collector.getCollectionTime());
+		}
+		return time;
+	}
+
+	private long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : collectors) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+
+	/**
+	 * Take the values of the interval since the last tick.
+	 */
+	synchronized void tick() {
+		long now = System.currentTimeMillis();
+		double seconds = Math.max(1, now - lastTick) / 1000.0;
+		long gcTime = gcTime();
+		long gcCount = gcCount();
+		long intervalGcTime = gcTime - lastGcTime;
+		Map<String, Object> values = new TreeMap<String, Object>();
+		values.put("gc.time", intervalGcTime);
+		values.put("gc.count", gcCount - lastGcCount);
+		values.put("gc.time.total", gcTime);
+
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			String name = entry.getKey();
+			LatencyHistogram.Snapshot total = entry.getValue().snapshot();
+			LatencyHistogram.Snapshot last = lastSnapshots.put(entry.getValue(), total);
+			LatencyHistogram.Snapshot interval = null == last ? total : total.minus(last);
+			values.put(name + ".count", total.getCount());
+			values.put(name + ".rate", interval.getCount() / seconds);
+			values.put(name + ".mean.us", interval.getMean() / 1000);
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				values.put(name + "." + PERCENTILE_NAMES[i] + ".us",
+						interval.getValueAtPercentile(PERCENTILES[i]) / 1000);
+			}
+			long max = interval.getMax();
+			values.put(name + ".max.us", max / 1000);
+			if (max >= SLOW_NANOS && 2 * intervalGcTime * 1000 * 1000 >= max) {
+				LOG.info(name + " took up to " + max / 1000000 + " ms in the last "
+						+ (now - lastTick) + " ms, GC paused " + intervalGcTime + " ms in "
+						+ (gcCount - lastGcCount) + " collections meanwhile");
+			}
+		}
+		List<Accumulator> live = new ArrayList<Accumulator>();
+		for (Map.Entry<String, Accumulator> entry : meters.entrySet()) {
+			long count = entry.getValue().sum();
+			Long last = lastCounts.put(entry.getValue(), count);
+			live.add(entry.getValue());
+			values.put(entry.getKey() + ".count", count);
+			values.put(entry.getKey() + ".rate",
+					(count - (null == last ? 0 : last)) / seconds);
+		}
+		lastCounts.keySet().retainAll(live);
+		lastSnapshots.keySet().retainAll(histograms.values());
+		for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().getValue());
+		}
+		attributes = values;
+		lastTick = now;
+		lastGcTime = gcTime;
+		lastGcCount = gcCount;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Object value = attributes.get(attribute);
+		if (null == value) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] names) {
+		Map<String, Object> values = attributes;
+		AttributeList list = new AttributeList();
+		for (String name : names) {
+			Object value = values.get(name);
+			if (null != value) {
+				list.add(new Attribute(name, value));
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName() + " is read only");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		throw new UnsupportedOperationException(actionName);
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		Map<String, Object> values = attributes;
+		MBeanAttributeInfo[] infos = new MBeanAttributeInfo[values.size()];
+		int i = 0;
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			infos[i++] = new MBeanAttributeInfo(entry.getKey(),
+					entry.getValue().getClass().getName(), entry.getKey(), true, false, false);
+		}
+		return new MBeanInfo(getClass().getName(), "Rabbit runtime metrics", infos,
+				null, new MBeanOperationInfo[0], null);
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.apache.hadoop.rabbit.pool;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+
+/**
+ * A topology deployed to a worker pool: its work plan, the jars holding its
+ * worker and source classes and the properties set on top of the pool's job
+ * configuration, typically mapreduce.rabbit.worker.class,
+ * mapreduce.rabbit.source.class and the stages of a Topology.<br />
+ * Serialized as a version byte, the name, the plan, then the vint counted
+ * jar paths and property pairs.
+ */
+public class Deployment implements Writable {
+
+	/** current version of the serialized form */
+	public static final byte VERSION = 1;
+
+	private String name;
+
+	private WorkDesc plan = new WorkDesc();
+
+	private final List<String> jars = new ArrayList<String>();
+
+	private final SortedMap<String, String> properties = new TreeMap<String, String>();
+
+	/** changes with every deploy, not serialized */
+	private long revision;
+
+	public Deployment() {
+	}
+
+	public Deployment(String name, WorkDesc plan) {
+		this.name = name;
+		this.plan = plan;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public WorkDesc getPlan() {
+		return plan;
+	}
+
+	/**
+	 * Add a jar, usually on HDFS, to the class path of the deployment.
+	 */
+	public void addJar(String path) {
+		jars.add(path);
+	}
+
+	public List<String> getJars() {
+		return Collections.unmodifiableList(jars);
+	}
+
+	/**
+	 * @return the zxid the deployment was last deployed at, 0 unless read
+	 *         from a {@link DeploymentRegistry}
+	 */
+	public long getRevision() {
+		return revision;
+	}
+
+	void setRevision(long revision) {
+		this.revision = revision;
+	}
+
+	public void set(String key, String value) {
+		properties.put(key, value);
+	}
+
+	public Map<String, String> getProperties() {
+		return Collections.unmodifiableMap(properties);
+	}
+
+	/**
+	 * @return a copy of conf with the properties of the deployment set
+	 */
+	public Configuration configure(Configuration conf) {
+		Configuration configured = new Configuration(conf);
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			configured.set(entry.getKey(), entry.getValue());
+		}
+		return configured;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(VERSION);
+		Text.writeString(out, name);
+		plan.write(out);
+		WritableUtils.writeVInt(out, jars.size());
+		for (String jar : jars) {
+			Text.writeString(out, jar);
+		}
+		WritableUtils.writeVInt(out, properties.size());
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			Text.writeString(out, entry.getKey());
+			Text.writeString(out, entry.getValue());
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		byte version = in.readByte();
+		if (VERSION != version) {
+			throw new IOException("Unknown Deployment version " + version);
+		}
+		name = Text.readString(in);
+		plan = new WorkDesc();
+		plan.readFields(in);
+		jars.clear();
+		for (int i = WritableUtils.readVInt(in); i > 0; i--) {
+			jars.add(Text.readString(in));
+		}
+		properties.clear();
+		for (int i = WritableUtils.readVInt(in); i > 0; i--) {
+			properties.put(Text.readString(in), Text.readString(in));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name + " " + plan;
+	}
+
+}
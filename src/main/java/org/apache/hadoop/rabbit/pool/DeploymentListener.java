@@ -0,0 +1,16 @@
+package org.apache.hadoop.rabbit.pool;
+
+import java.util.Map;
+
+/**
+ * Told the deployments of a pool, called from the registry's own thread.
+ */
+public interface DeploymentListener {
+
+	/**
+	 * @param deployments every deployment of the pool by name, not only the
+	 *        changed ones
+	 */
+	public void deployed(Map<String, Deployment> deployments);
+
+}
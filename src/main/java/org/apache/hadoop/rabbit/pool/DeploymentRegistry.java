@@ -0,0 +1,348 @@
+package org.apache.hadoop.rabbit.pool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The control channel of a worker pool, its {@link Deployment}s kept in
+ * ZooKeeper as the serialized children of
+ * mapreduce.rabbit.zk.root/pools/&lt;pool&gt;/deployments.<br />
+ * Deployers {@link #deploy(Deployment)} and {@link #undeploy(String)}, the
+ * members of the pool {@link #watch(DeploymentListener)}: whenever a
+ * deployment is added, changed or removed, and after a new session, the
+ * listener is given all of them, so it only has to reconcile what it runs.
+ */
+public class DeploymentRegistry implements Watcher, Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DeploymentRegistry.class);
+
+	private final String quorum;
+
+	private final int sessionTimeout;
+
+	private final String path;
+
+	private final ScheduledExecutorService executor;
+
+	private volatile ZooKeeper zk;
+
+	private volatile DeploymentListener listener;
+
+	/** a refresh is queued and has not started yet, guarded by this */
+	private boolean pending;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param quorum ZooKeeper connect string
+	 * @param path parent of the deployment nodes, created if missing
+	 */
+	public DeploymentRegistry(String quorum, int sessionTimeout, String path) {
+		this.quorum = quorum;
+		this.sessionTimeout = sessionTimeout;
+		this.path = path;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "rabbit-deployments");
+				t.setDaemon(true);
+				return t;
+			}
+
+		});
+	}
+
+	/**
+	 * Connect to the registry of the pool in the quorum of conf.
+	 */
+	public static DeploymentRegistry open(Configuration conf, String pool)
+			throws IOException {
+		String quorum = conf.get(RabbitConstants.ZK_QUORUM);
+		if (null == quorum) {
+			throw new IOException(RabbitConstants.ZK_QUORUM + " is not set");
+		}
+		DeploymentRegistry registry = new DeploymentRegistry(quorum, conf.getInt(
+				RabbitConstants.ZK_SESSION_TIMEOUT,
+				RabbitConstants.DEFAULT_ZK_SESSION_TIMEOUT), conf.get(
+				RabbitConstants.ZK_ROOT, RabbitConstants.DEFAULT_ZK_ROOT) + "/pools/"
+				+ pool + "/deployments");
+		registry.connect();
+		return registry;
+	}
+
+	/**
+	 * Add the deployment, or replace the one of the same name.
+	 */
+	public void deploy(Deployment deployment) throws IOException {
+		DataOutputBuffer out = new DataOutputBuffer();
+		deployment.write(out);
+		byte[] data = new byte[out.getLength()];
+		System.arraycopy(out.getData(), 0, data, 0, data.length);
+		String node = path + "/" + deployment.getName();
+		try {
+			try {
+				zk.create(node, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+			} catch (KeeperException.NodeExistsException e) {
+				zk.setData(node, data, -1);
+			}
+		} catch (KeeperException e) {
+			throw new IOException("Failed to deploy " + node, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted deploying " + node);
+		}
+		LOG.info("Deployed " + deployment + " to " + path);
+	}
+
+	/**
+	 * @return false if there was no deployment of that name
+	 */
+	public boolean undeploy(String name) throws IOException {
+		String node = path + "/" + name;
+		try {
+			zk.delete(node, -1);
+			LOG.info("Undeployed " + node);
+			return true;
+		} catch (KeeperException.NoNodeException e) {
+			return false;
+		} catch (KeeperException e) {
+			throw new IOException("Failed to undeploy " + node, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted undeploying " + node);
+		}
+	}
+
+	/**
+	 * @return the deployments by name
+	 */
+	public Map<String, Deployment> list() throws IOException {
+		try {
+			return read(false);
+		} catch (KeeperException e) {
+			throw new IOException("Failed to read " + path, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted reading " + path);
+		}
+	}
+
+	/**
+	 * Tell the listener the deployments now and whenever they change.
+	 */
+	public void watch(DeploymentListener listener) {
+		this.listener = listener;
+		scheduleRefresh();
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		executor.shutdownNow();
+		try {
+			zk.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void process(WatchedEvent event) {
+		if (closed) {
+			return;
+		}
+		if (Event.KeeperState.Expired == event.getState()) {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					reconnect();
+				}
+
+			});
+		} else if (Event.EventType.None != event.getType()) {
+			scheduleRefresh();
+		}
+	}
+
+	private synchronized void scheduleRefresh() {
+		if (pending || closed || null == listener) {
+			return;
+		}
+		pending = true;
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized (DeploymentRegistry.this) {
+					pending = false;
+				}
+				refresh();
+			}
+
+		});
+	}
+
+	/**
+	 * Read the deployments, watching them again, and hand them over.
+	 */
+	private void refresh() {
+		Map<String, Deployment> deployments;
+		try {
+			deployments = read(true);
+		} catch (KeeperException e) {
+			// a watch may be lost with the failed read, look again soon
+			LOG.warn("Failed to read " + path + ", retrying", e);
+			executor.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					scheduleRefresh();
+				}
+
+			}, 1, TimeUnit.SECONDS);
+			return;
+		} catch (InterruptedException e) {
+			return;
+		}
+		try {
+			listener.deployed(deployments);
+		} catch (RuntimeException e) {
+			LOG.error("Failed to take over the deployments of " + path, e);
+		}
+	}
+
+	private Map<String, Deployment> read(boolean watch) throws KeeperException,
+			InterruptedException {
+		Map<String, Deployment> deployments = new TreeMap<String, Deployment>();
+		Watcher watcher = watch ? this : null;
+		for (String name : zk.getChildren(path, watcher)) {
+			byte[] data;
+			Stat stat = new Stat();
+			try {
+				data = zk.getData(path + "/" + name, watcher, stat);
+			} catch (KeeperException.NoNodeException e) {
+				// undeployed meanwhile, the children watch fires
+				continue;
+			}
+			Deployment deployment = new Deployment();
+			DataInputBuffer in = new DataInputBuffer();
+			in.reset(data, data.length);
+			try {
+				deployment.readFields(in);
+			} catch (IOException e) {
+				LOG.error("Skipping the unreadable deployment " + name, e);
+				continue;
+			}
+			deployment.setRevision(stat.getMzxid());
+			deployments.put(name, deployment);
+		}
+		return deployments;
+	}
+
+	/**
+	 * A new session after the old one expired, watches are set again.
+	 */
+	private void reconnect() {
+		if (closed) {
+			return;
+		}
+		LOG.warn("Session following " + path + " expired, reconnecting");
+		try {
+			zk.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			connect();
+			scheduleRefresh();
+		} catch (IOException e) {
+			LOG.error("Failed to follow " + path + " again, retrying", e);
+			executor.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					reconnect();
+				}
+
+			}, 1, TimeUnit.SECONDS);
+		}
+	}
+
+	private void connect() throws IOException {
+		final CountDownLatch connected = new CountDownLatch(1);
+		zk = new ZooKeeper(quorum, sessionTimeout, new Watcher() {
+
+			@Override
+			public void process(WatchedEvent event) {
+				if (Event.KeeperState.SyncConnected == event.getState()) {
+					connected.countDown();
+				}
+				DeploymentRegistry.this.process(event);
+			}
+
+		});
+		boolean ready = false;
+		try {
+			if (!connected.await(sessionTimeout, TimeUnit.MILLISECONDS)) {
+				throw new IOException("Timed out connecting to " + quorum);
+			}
+			createPath();
+			ready = true;
+		} catch (KeeperException e) {
+			throw new IOException("Failed to create " + path, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted connecting to " + quorum);
+		} finally {
+			if (!ready) {
+				// reconnect() retries every second, each try must not leak a client
+				try {
+					zk.close();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private void createPath() throws KeeperException, InterruptedException {
+		StringBuilder node = new StringBuilder();
+		for (String part : path.substring(1).split("/")) {
+			node.append('/').append(part);
+			if (null != zk.exists(node.toString(), false)) {
+				continue;
+			}
+			try {
+				zk.create(node.toString(), null, ZooDefs.Ids.OPEN_ACL_UNSAFE,
+						CreateMode.PERSISTENT);
+			} catch (KeeperException.NodeExistsException e) {
+				// created meanwhile
+			}
+		}
+	}
+
+}
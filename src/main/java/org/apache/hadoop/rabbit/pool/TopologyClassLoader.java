@@ -0,0 +1,61 @@
+package org.apache.hadoop.rabbit.pool;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Class loader of one deployment, every deployment of a pool gets its own.
+ * <br />
+ * Classes of its jars are loaded from them first, so two deployments may
+ * carry different versions of the same library. The JDK, Hadoop, Rabbit and
+ * the libraries the runtime hands objects to always come from the task's
+ * class path, a worker must implement the very Worker interface the mapper
+ * knows.
+ */
+public class TopologyClassLoader extends URLClassLoader {
+
+	/** packages shared with the task */
+	private static final String[] PARENT_FIRST = { "java.", "javax.", "sun.",
+			"org.apache.hadoop.", "org.apache.zookeeper.", "org.apache.commons.logging.",
+			"org.apache.log4j.", "org.slf4j.", "akka.", "scala.", "com.typesafe.config." };
+
+	public TopologyClassLoader(URL[] urls, ClassLoader parent) {
+		super(urls, parent);
+	}
+
+	@Override
+	protected synchronized Class<?> loadClass(String name, boolean resolve)
+			throws ClassNotFoundException {
+		Class<?> clazz = findLoadedClass(name);
+		if (null == clazz && !isParentFirst(name)) {
+			try {
+				clazz = findClass(name);
+			} catch (ClassNotFoundException e) {
+				// not in the jars of the deployment
+			}
+		}
+		if (null == clazz) {
+			clazz = getParent().loadClass(name);
+		}
+		if (resolve) {
+			resolveClass(clazz);
+		}
+		return clazz;
+	}
+
+	@Override
+	public URL getResource(String name) {
+		URL url = findResource(name);
+		return null == url ? super.getResource(name) : url;
+	}
+
+	private static boolean isParentFirst(String name) {
+		for (String prefix : PARENT_FIRST) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,483 @@
+package org.apache.hadoop.rabbit.sink;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableFactory;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.rabbit.util.Accumulator;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.apache.hadoop.rabbit.worker.Throttled;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+import org.apache.hadoop.rabbit.worker.Worker;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sink stage writing work to the HBase table mapreduce.rabbit.hbase.table.<br />
+ * Puts are collected into batches of at most mapreduce.rabbit.hbase.batch.bytes,
+ * a batch is handed to a flusher once full or mapreduce.rabbit.hbase.batch.linger
+ * ms old. Each of the mapreduce.rabbit.hbase.flushers threads owns a table
+ * with autoflush off and serves the rows of some region servers, so a batch
+ * reaches few servers. A failed put() or flushCommits() is retried with
+ * exponential backoff, the latter on the puts the table kept buffered.
+ * Batches wait for their flusher in a bounded queue, a full one blocks
+ * process().<br />
+ * By default the row is the description and the payload goes to
+ * mapreduce.rabbit.hbase.column, override {@link #toPut(WorkDesc)} for
+ * anything else. Tables come from mapreduce.rabbit.hbase.table.factory, which
+ * may hand out a local stand-in; like HTable it must keep puts which failed
+ * to flush buffered.
+ */
+public class HBaseSink implements Worker, Flushable, Closeable, Configurable,
+		Throttled {
+
+	private static final Logger LOG = LoggerFactory.getLogger(HBaseSink.class);
+
+	/** marks the end of a flusher's queue */
+	private static final List<Put> END = Collections.emptyList();
+
+	private Configuration conf;
+
+	private HTableInterfaceFactory factory;
+
+	private byte[] family;
+
+	private byte[] qualifier;
+
+	private long batchBytes;
+
+	private long linger;
+
+	private int retries;
+
+	private long backoff;
+
+	/** looks up the region server of a row, null for a stand-in */
+	private HTable locator;
+
+	private Flusher[] flushers;
+
+	private ScheduledExecutorService lingerer;
+
+	/** batches being filled, one per flusher, guarded by this */
+	private List<List<Put>> batches;
+
+	private long[] batchSizes;
+
+	private long[] batchStarts;
+
+	/** guards outstanding, blocked, error and maxFlushTime */
+	private final Object lock = new Object();
+
+	/** batches handed to flushers and not yet written */
+	private int outstanding;
+
+	private long blocked;
+
+	private IOException error;
+
+	private final Accumulator flushes = new Accumulator();
+
+	private final Accumulator flushedPuts = new Accumulator();
+
+	private final Accumulator flushTime = new Accumulator();
+
+	/** guarded by lock */
+	private long maxFlushTime;
+
+	@Override
+	public void setConf(Configuration conf) {
+		this.conf = HBaseConfiguration.create(conf);
+	}
+
+	@Override
+	public Configuration getConf() {
+		return conf;
+	}
+
+	@Override
+	public void process(WorkDesc workDesc) throws IOException {
+		if (null == flushers) {
+			start();
+		}
+		checkError();
+		Put put = toPut(workDesc);
+		int flusher = flusherOf(put.getRow());
+		List<Put> full = null;
+		synchronized (this) {
+			if (batches.get(flusher).isEmpty()) {
+				batchStarts[flusher] = System.currentTimeMillis();
+			}
+			batches.get(flusher).add(put);
+			batchSizes[flusher] += put.heapSize();
+			if (batchSizes[flusher] >= batchBytes) {
+				full = takeBatch(flusher);
+			}
+		}
+		if (null != full) {
+			handOff(flusher, full);
+		}
+	}
+
+	/**
+	 * Write every batch, full or not, and wait until they are written.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (null == flushers) {
+			return;
+		}
+		for (int i = 0; i < flushers.length; i++) {
+			List<Put> batch;
+			synchronized (this) {
+				batch = takeBatch(i);
+			}
+			if (!batch.isEmpty()) {
+				handOff(i, batch);
+			}
+		}
+		synchronized (lock) {
+			while (outstanding > 0 && null == error) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted flushing to HBase");
+				}
+			}
+		}
+		checkError();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (null == flushers) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			lingerer.shutdownNow();
+			try {
+				// a flusher keeps taking batches after a failure, so there is room
+				for (Flusher flusher : flushers) {
+					flusher.queue.put(END);
+				}
+				for (Flusher flusher : flushers) {
+					flusher.join();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (Flusher flusher : flushers) {
+					flusher.interrupt();
+				}
+			}
+			if (null != locator) {
+				locator.close();
+			}
+			flushers = null;
+			LOG.info("Wrote " + getFlushedPuts() + " puts in " + getFlushes()
+					+ " flushes, " + getFlushTime() + " ms flushing, at most "
+					+ getMaxFlushTime() + " ms");
+		}
+	}
+
+	@Override
+	public Map<String, Long> getBlockedTime() {
+		synchronized (lock) {
+			return Collections.singletonMap(conf.get(RabbitConstants.HBASE_TABLE), blocked);
+		}
+	}
+
+	public long getFlushes() {
+		return flushes.sum();
+	}
+
+	public long getFlushedPuts() {
+		return flushedPuts.sum();
+	}
+
+	/**
+	 * @return milliseconds spent in flushCommits() by all flushers
+	 */
+	public long getFlushTime() {
+		return flushTime.sum();
+	}
+
+	public long getMaxFlushTime() {
+		synchronized (lock) {
+			return maxFlushTime;
+		}
+	}
+
+	/**
+	 * The put of a unit of work, its payload is copied as a unit may be
+	 * reused once processed.
+	 */
+	protected Put toPut(WorkDesc workDesc) throws IOException {
+		if (null == workDesc.getDesc()) {
+			throw new IOException("Unit without a description has no row");
+		}
+		Put put = new Put(Bytes.toBytes(workDesc.getDesc()));
+		byte[] value = workDesc.hasPayload() ? Arrays.copyOfRange(
+				workDesc.getPayloadBytes(), workDesc.getPayloadOffset(),
+				workDesc.getPayloadOffset() + workDesc.getPayloadLength()) : new byte[0];
+		put.add(family, qualifier, value);
+		return put;
+	}
+
+	private void start() throws IOException {
+		String table = conf.get(RabbitConstants.HBASE_TABLE);
+		if (null == table) {
+			throw new IOException(RabbitConstants.HBASE_TABLE + " is not set");
+		}
+		String column = conf.get(RabbitConstants.HBASE_COLUMN,
+				RabbitConstants.DEFAULT_HBASE_COLUMN);
+		int colon = column.indexOf(':');
+		if (colon <= 0) {
+			throw new IOException("Invalid " + RabbitConstants.HBASE_COLUMN + " " + column);
+		}
+		family = Bytes.toBytes(column.substring(0, colon));
+		qualifier = Bytes.toBytes(column.substring(colon + 1));
+		batchBytes = Math.max(1, conf.getLong(RabbitConstants.HBASE_BATCH_BYTES,
+				RabbitConstants.DEFAULT_HBASE_BATCH_BYTES));
+		linger = Math.max(1, conf.getLong(RabbitConstants.HBASE_BATCH_LINGER,
+				RabbitConstants.DEFAULT_HBASE_BATCH_LINGER));
+		retries = conf.getInt(RabbitConstants.HBASE_RETRIES,
+				RabbitConstants.DEFAULT_HBASE_RETRIES);
+		backoff = conf.getLong(RabbitConstants.HBASE_RETRY_BACKOFF,
+				RabbitConstants.DEFAULT_HBASE_RETRY_BACKOFF);
+		int count = Math.max(1, conf.getInt(RabbitConstants.HBASE_FLUSHERS,
+				RabbitConstants.DEFAULT_HBASE_FLUSHERS));
+		int queued = Math.max(1, conf.getInt(RabbitConstants.HBASE_QUEUE_BATCHES,
+				RabbitConstants.DEFAULT_HBASE_QUEUE_BATCHES));
+		factory = ReflectionUtils.newInstance(conf.getClass(
+				RabbitConstants.HBASE_TABLE_FACTORY, HTableFactory.class,
+				HTableInterfaceFactory.class), conf);
+
+		flushers = new Flusher[count];
+		batches = new ArrayList<List<Put>>(count);
+		batchSizes = new long[count];
+		batchStarts = new long[count];
+		try {
+			for (int i = 0; i < count; i++) {
+				batches.add(new ArrayList<Put>());
+				HTableInterface htable = factory.createHTableInterface(conf,
+						Bytes.toBytes(table));
+				htable.setAutoFlush(false);
+				// put() never flushes on its own, only flushCommits() sends
+				htable.setWriteBufferSize(Math.max(htable.getWriteBufferSize(),
+						2 * batchBytes));
+				flushers[i] = new Flusher(i, htable, queued);
+			}
+			if (count > 1 && HTableFactory.class == factory.getClass()) {
+				locator = new HTable(conf, table);
+			}
+		} catch (RuntimeException e) {
+			// HTableFactory wraps the IOException of a missing table
+			throw new IOException("Failed to open table " + table, e);
+		}
+		for (Flusher flusher : flushers) {
+			flusher.start();
+		}
+		lingerer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "hbase-sink-linger");
+				t.setDaemon(true);
+				return t;
+			}
+
+		});
+		lingerer.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				handOffStale();
+			}
+
+		}, linger, Math.max(1, linger / 2), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Rows of one region server go to the same flusher.
+	 */
+	private int flusherOf(byte[] row) throws IOException {
+		if (1 == flushers.length) {
+			return 0;
+		}
+		int hash;
+		if (null != locator) {
+			hash = locator.getRegionLocation(row, false).getHostnamePort().hashCode();
+		} else {
+			hash = Bytes.hashCode(row);
+		}
+		return (hash & Integer.MAX_VALUE) % flushers.length;
+	}
+
+	private void handOffStale() {
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < batches.size(); i++) {
+			List<Put> batch = null;
+			synchronized (this) {
+				if (!batches.get(i).isEmpty() && now - batchStarts[i] >= linger) {
+					batch = takeBatch(i);
+				}
+			}
+			if (null != batch) {
+				try {
+					handOff(i, batch);
+				} catch (IOException e) {
+					// the error is set already or the sink is closing
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replace the batch being filled, called holding this.
+	 */
+	private List<Put> takeBatch(int flusher) {
+		List<Put> batch = batches.set(flusher, new ArrayList<Put>());
+		batchSizes[flusher] = 0;
+		return batch;
+	}
+
+	private void handOff(int flusher, List<Put> batch) throws IOException {
+		synchronized (lock) {
+			outstanding++;
+		}
+		BlockingQueue<List<Put>> queue = flushers[flusher].queue;
+		if (!queue.offer(batch)) {
+			long start = System.currentTimeMillis();
+			try {
+				queue.put(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				written();
+				throw new IOException("Interrupted waiting for a flusher");
+			} finally {
+				synchronized (lock) {
+					blocked += System.currentTimeMillis() - start;
+				}
+			}
+		}
+	}
+
+	private void written() {
+		synchronized (lock) {
+			if (--outstanding <= 0) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void checkError() throws IOException {
+		synchronized (lock) {
+			if (null != error) {
+				throw new IOException("HBase sink failed", error);
+			}
+		}
+	}
+
+	/**
+	 * Writes the batches of its region servers through its own table.
+	 */
+	private class Flusher extends Thread {
+
+		private final HTableInterface table;
+
+		private final BlockingQueue<List<Put>> queue;
+
+		Flusher(int id, HTableInterface table, int capacity) {
+			super("hbase-sink-flusher-" + id);
+			setDaemon(true);
+			this.table = table;
+			this.queue = new ArrayBlockingQueue<List<Put>>(capacity);
+		}
+
+		@Override
+		public void run() {
+			try {
+				List<Put> batch;
+				while (END != (batch = queue.take())) {
+					try {
+						write(batch);
+					} catch (IOException e) {
+						synchronized (lock) {
+							if (null == error) {
+								LOG.error(getName() + " gave up on " + batch.size() + " puts", e);
+								error = e;
+							}
+						}
+					} finally {
+						written();
+					}
+				}
+			} catch (InterruptedException e) {
+				// closing
+			} finally {
+				try {
+					factory.releaseHTableInterface(table);
+				} catch (IOException e) {
+					LOG.warn("Failed to close table of " + getName(), e);
+				}
+			}
+		}
+
+		private void write(List<Put> batch) throws IOException, InterruptedException {
+			long start = System.currentTimeMillis();
+			boolean buffered = false;
+			for (int attempt = 0;; attempt++) {
+				try {
+					if (!buffered) {
+						table.put(batch);
+						buffered = true;
+					}
+					table.flushCommits();
+					break;
+				} catch (IOException e) {
+					if (attempt >= retries) {
+						throw e;
+					}
+					long sleep = backoff << Math.min(attempt, 16);
+					LOG.warn(getName() + " failed to " + (buffered ? "flush" : "put")
+							+ ", retrying in " + sleep + " ms", e);
+					Thread.sleep(sleep);
+				}
+			}
+			long time = System.currentTimeMillis() - start;
+			flushes.increment();
+			flushedPuts.add(batch.size());
+			flushTime.add(time);
+			synchronized (lock) {
+				maxFlushTime = Math.max(maxFlushTime, time);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,284 @@
+package org.apache.hadoop.rabbit.spill;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of {@link WorkDesc}s in memory-mapped segment files of a
+ * local directory, read back in the order written.<br />
+ * A record is its int length followed by the serialized unit. The writer
+ * appends to the last segment and starts the next one once a record does
+ * not fit, the read cursor follows through the segments and hands every one
+ * it finished back for reuse, so a log which keeps up runs in the same few
+ * files. Nothing is ever forced to disk: the log only outlives the heap, not
+ * the process, and the page cache writes back whatever it likes.<br />
+ * At most maxSegments segments are in use at once, a record which does not
+ * fit then is refused. A record larger than a segment gets a segment of its
+ * own, deleted once read. Meant for one writer and one reader thread.
+ */
+public class SpillLog implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SpillLog.class);
+
+	private final File dir;
+
+	private final int segmentBytes;
+
+	private final int maxSegments;
+
+	/** segments holding records, oldest first, guarded by this */
+	private final Deque<Segment> segments = new ArrayDeque<Segment>();
+
+	/** read segments ready for reuse, guarded by this */
+	private final Deque<Segment> free = new ArrayDeque<Segment>();
+
+	/** segments mapped, in use or free, guarded by this */
+	private int created;
+
+	/** number of the next segment file, never reused, guarded by this */
+	private int nextFile;
+
+	/** serialization buffer of the writer, guarded by this */
+	private final DataOutputBuffer out = new DataOutputBuffer();
+
+	private volatile long size;
+
+	private boolean closed;
+
+	/**
+	 * @param dir local directory of the segment files, created if missing
+	 */
+	public SpillLog(File dir, int segmentBytes, int maxSegments) throws IOException {
+		if (!dir.mkdirs() && !dir.isDirectory()) {
+			throw new IOException("Can not create " + dir);
+		}
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		this.maxSegments = Math.max(1, maxSegments);
+	}
+
+	/**
+	 * Append a unit after all units appended before.
+	 *
+	 * @return false if the log is full
+	 */
+	public synchronized boolean append(WorkDesc work) throws IOException {
+		checkOpen();
+		out.reset();
+		work.write(out);
+		int need = 4 + out.getLength();
+		Segment last = segments.peekLast();
+		if (null == last || last.capacity() - last.writePos < need) {
+			last = nextSegment(need);
+			if (null == last) {
+				return false;
+			}
+			segments.addLast(last);
+		}
+		MappedByteBuffer buffer = last.buffer;
+		buffer.position(last.writePos);
+		buffer.putInt(out.getLength());
+		buffer.put(out.getData(), 0, out.getLength());
+		last.writePos += need;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return the oldest unit not read yet, null if there is none
+	 */
+	public synchronized WorkDesc poll() throws IOException {
+		checkOpen();
+		Segment first = readable();
+		if (null == first) {
+			return null;
+		}
+		WorkDesc work = read(first);
+		size--;
+		return work;
+	}
+
+	/**
+	 * @return the oldest unit not read yet without reading it, null if there
+	 *         is none
+	 */
+	public synchronized WorkDesc peek() throws IOException {
+		checkOpen();
+		Segment first = readable();
+		if (null == first) {
+			return null;
+		}
+		int readPos = first.readPos;
+		WorkDesc work = read(first);
+		first.readPos = readPos;
+		return work;
+	}
+
+	/**
+	 * Read up to max units into c.
+	 *
+	 * @return how many were read
+	 */
+	public synchronized int drainTo(Collection<? super WorkDesc> c, int max)
+			throws IOException {
+		checkOpen();
+		int n = 0;
+		Segment first;
+		while (n < max && null != (first = readable())) {
+			c.add(read(first));
+			size--;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return units appended and not read yet
+	 */
+	public long size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return 0 == size;
+	}
+
+	/**
+	 * Drop every unit not read yet and remove the segment files.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (size > 0) {
+			LOG.warn("Dropping " + size + " spilled units in " + dir);
+		}
+		segments.clear();
+		free.clear();
+		size = 0;
+		// the mappings go with the buffers, unlinked files with the last one
+		FileUtil.fullyDelete(dir);
+	}
+
+	/**
+	 * @return the first segment holding an unread record, recycling the ones
+	 *         read up to their end
+	 */
+	private Segment readable() {
+		Segment first;
+		while (null != (first = segments.peekFirst())) {
+			if (first.readPos < first.writePos) {
+				return first;
+			}
+			if (first == segments.peekLast()) {
+				// the writer starts over in the same segment
+				first.readPos = 0;
+				first.writePos = 0;
+				return null;
+			}
+			segments.removeFirst();
+			recycle(first);
+		}
+		return null;
+	}
+
+	private WorkDesc read(Segment segment) throws IOException {
+		MappedByteBuffer buffer = segment.buffer;
+		buffer.position(segment.readPos);
+		int length = buffer.getInt();
+		// a fresh array per unit, the worker may keep its payload
+		byte[] data = new byte[length];
+		buffer.get(data);
+		segment.readPos += 4 + length;
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(data, length);
+		WorkDesc work = new WorkDesc();
+		work.readFields(in);
+		return work;
+	}
+
+	/**
+	 * @return an empty segment with room for need bytes, null if the log is
+	 *         full
+	 */
+	private Segment nextSegment(int need) throws IOException {
+		if (free.isEmpty()) {
+			// segments read out since the reader last looked
+			readable();
+		}
+		if (need <= segmentBytes && !free.isEmpty()) {
+			return free.removeFirst();
+		}
+		if (created >= maxSegments) {
+			return null;
+		}
+		File file = new File(dir, String.format("segment-%06d", nextFile++));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+					0, Math.max(need, segmentBytes));
+			created++;
+			return new Segment(file, buffer);
+		} finally {
+			// the mapping stays valid without the channel
+			raf.close();
+		}
+	}
+
+	private void recycle(Segment segment) {
+		segment.readPos = 0;
+		segment.writePos = 0;
+		if (segment.capacity() > segmentBytes) {
+			created--;
+			if (!segment.file.delete()) {
+				LOG.warn("Failed to delete " + segment.file);
+			}
+		} else {
+			free.addLast(segment);
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Spill log " + dir + " is closed");
+		}
+	}
+
+	private static class Segment {
+
+		final File file;
+
+		final MappedByteBuffer buffer;
+
+		int readPos;
+
+		int writePos;
+
+		Segment(File file, MappedByteBuffer buffer) {
+			this.file = file;
+			this.buffer = buffer;
+		}
+
+		int capacity() {
+			return buffer.capacity();
+		}
+
+	}
+
+}
@@ -0,0 +1,181 @@
+package org.apache.hadoop.rabbit.spill;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.rabbit.metrics.RabbitMetrics;
+import org.apache.hadoop.rabbit.util.Accumulator;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+
+/**
+ * Bounded queue of work which overflows into a {@link SpillLog} instead of
+ * blocking its producer.<br />
+ * Units go to memory while the log is empty and there is room, once one is
+ * spilled every later unit follows it into the log until the log is read
+ * out, so units are always taken in the order they were offered: memory
+ * first, then the log. Only a full log blocks {@link #put(WorkDesc)} and
+ * fails {@link #offer(WorkDesc)}. Spilled units are counted in the
+ * queue.spilled meter of the {@link RabbitMetrics}.<br />
+ * Meant for one producer and one consumer thread. The iterator only sees the
+ * units in memory. A log failing to map a segment surfaces as an
+ * IllegalStateException.
+ */
+public class SpillingQueue extends AbstractQueue<WorkDesc> implements
+		BlockingQueue<WorkDesc>, Closeable {
+
+	public static final String SPILLED = "queue.spilled";
+
+	/** how often a producer blocked on a full log checks for room */
+	private static final long FULL_WAIT = 10;
+
+	private final BlockingQueue<WorkDesc> memory;
+
+	private final SpillLog log;
+
+	private final Accumulator spilled = RabbitMetrics.get().meter(SPILLED);
+
+	/**
+	 * @param capacity units kept in memory
+	 */
+	public SpillingQueue(int capacity, SpillLog log) {
+		this.memory = new ArrayBlockingQueue<WorkDesc>(capacity);
+		this.log = log;
+	}
+
+	@Override
+	public boolean offer(WorkDesc work) {
+		// memory only while nothing offered earlier waits in the log
+		if (log.isEmpty() && memory.offer(work)) {
+			return true;
+		}
+		try {
+			if (log.append(work)) {
+				spilled.increment();
+				return true;
+			}
+			return false;
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to spill " + work, e);
+		}
+	}
+
+	@Override
+	public void put(WorkDesc work) throws InterruptedException {
+		while (!offer(work)) {
+			Thread.sleep(FULL_WAIT);
+		}
+	}
+
+	@Override
+	public boolean offer(WorkDesc work, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!offer(work)) {
+			if (System.nanoTime() >= deadline) {
+				return false;
+			}
+			Thread.sleep(FULL_WAIT);
+		}
+		return true;
+	}
+
+	@Override
+	public WorkDesc poll() {
+		WorkDesc work = memory.poll();
+		if (null != work) {
+			return work;
+		}
+		try {
+			return log.poll();
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to replay spilled work", e);
+		}
+	}
+
+	@Override
+	public WorkDesc poll(long timeout, TimeUnit unit) throws InterruptedException {
+		WorkDesc work = poll();
+		if (null != work) {
+			return work;
+		}
+		// both were empty, so whatever comes next is offered to memory
+		return memory.poll(timeout, unit);
+	}
+
+	@Override
+	public WorkDesc take() throws InterruptedException {
+		WorkDesc work;
+		while (null == (work = poll(FULL_WAIT, TimeUnit.MILLISECONDS))) {
+			// keep waiting
+		}
+		return work;
+	}
+
+	@Override
+	public WorkDesc peek() {
+		WorkDesc work = memory.peek();
+		if (null != work) {
+			return work;
+		}
+		try {
+			return log.peek();
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to replay spilled work", e);
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super WorkDesc> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super WorkDesc> c, int maxElements) {
+		int n = memory.drainTo(c, maxElements);
+		if (n < maxElements) {
+			try {
+				n += log.drainTo(c, maxElements - n);
+			} catch (IOException e) {
+				throw new IllegalStateException("Failed to replay spilled work", e);
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public int size() {
+		return (int) Math.min(Integer.MAX_VALUE, memory.size() + log.size());
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return memory.remainingCapacity();
+	}
+
+	/**
+	 * @return units spilled and not taken yet
+	 */
+	public long spilled() {
+		return log.size();
+	}
+
+	@Override
+	public Iterator<WorkDesc> iterator() {
+		return memory.iterator();
+	}
+
+	/**
+	 * Drop what is spilled and remove the log.
+	 */
+	@Override
+	public void close() throws IOException {
+		log.close();
+	}
+
+}
@@ -0,0 +1,98 @@
+package org.apache.hadoop.rabbit.topology;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.rabbit.metrics.LatencyHistogram;
+import org.apache.hadoop.rabbit.metrics.RabbitMetrics;
+import org.apache.hadoop.rabbit.worker.Emitter;
+import org.apache.hadoop.rabbit.worker.EmittingWorker;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+import org.apache.hadoop.rabbit.worker.Worker;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import akka.actor.UntypedActor;
+
+/**
+ * One actor of a stage, owning its own worker instance.<br />
+ * A failing worker fails the whole topology instead of letting the actor be
+ * restarted, so no work is lost silently. The time its worker takes for a
+ * unit is recorded in the stage.&lt;name&gt;.process histogram.
+ */
+class StageActor extends UntypedActor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StageActor.class);
+
+	private final Topology topology;
+
+	private final int stage;
+
+	private final Worker worker;
+
+	private final LatencyHistogram latency;
+
+	StageActor(final Topology topology, final int stage,
+			Class<? extends Worker> workerClass, Configuration conf) {
+		this.topology = topology;
+		this.stage = stage;
+		this.worker = ReflectionUtils.newInstance(workerClass, conf);
+		this.latency = RabbitMetrics.get().histogram(
+				"stage." + topology.name(stage) + ".process");
+		if (worker instanceof EmittingWorker) {
+			((EmittingWorker) worker).setEmitter(new Emitter() {
+
+				@Override
+				public void emit(WorkDesc work) throws IOException {
+					// output of the sink has nowhere to go
+					if (stage + 1 < topology.size()) {
+						topology.send(stage + 1, work, getSelf());
+					}
+				}
+
+			});
+		}
+	}
+
+	@Override
+	public void onReceive(Object message) throws Exception {
+		if (message instanceof WorkDesc) {
+			long start = System.nanoTime();
+			try {
+				worker.process((WorkDesc) message);
+				latency.record(System.nanoTime() - start);
+			} catch (Throwable t) {
+				topology.fail(t);
+			} finally {
+				topology.done(stage);
+			}
+		} else if (Topology.Signal.FLUSH == message) {
+			try {
+				if (worker instanceof Flushable) {
+					((Flushable) worker).flush();
+				}
+			} catch (Throwable t) {
+				topology.fail(t);
+			} finally {
+				topology.done(stage);
+			}
+		} else {
+			unhandled(message);
+		}
+	}
+
+	@Override
+	public void postStop() {
+		if (worker instanceof Closeable) {
+			try {
+				((Closeable) worker).close();
+			} catch (IOException e) {
+				LOG.warn("Failed to close " + worker, e);
+			}
+		}
+	}
+
+}
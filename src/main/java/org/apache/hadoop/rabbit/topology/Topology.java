@@ -0,0 +1,439 @@
+package org.apache.hadoop.rabbit.topology;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.rabbit.configuration.ConfigListener;
+import org.apache.hadoop.rabbit.configuration.ConfigSnapshot;
+import org.apache.hadoop.rabbit.metrics.Gauge;
+import org.apache.hadoop.rabbit.metrics.RabbitMetrics;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.apache.hadoop.rabbit.worker.Throttled;
+import org.apache.hadoop.rabbit.worker.Worker;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import akka.actor.Actor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.actor.UntypedActorFactory;
+import akka.routing.Broadcast;
+import akka.routing.RoundRobinRouter;
+
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Chain of {@link Worker} stages run as akka actor pools inside one map
+ * task, set it as mapreduce.rabbit.worker.class of a RabbitMapper.<br />
+ * Work handed to {@link #process(WorkDesc)} goes to the first stage, an
+ * EmittingWorker passes its output on to the next one and the last stage is
+ * the sink. Every stage has its own dispatcher with
+ * mapreduce.rabbit.topology.stage.&lt;name&gt;.parallelism threads and as
+ * many actors, each with its own worker instance, behind a round robin router
+ * and bounded mailboxes. {@link #flush()} returns once all work given so far
+ * went through every stage.<br />
+ * Once the work pending in a stage reaches its high watermark, senders to it
+ * block until it drained to its low watermark, so a slow sink throttles every
+ * stage before it and finally the source. Keep the high watermark at most the
+ * mailbox capacity, work not fitting into a full mailbox within
+ * mailbox-push-timeout-time fails the topology. The work pending in each
+ * stage is published as the stage.&lt;name&gt;.pending gauge. Changed
+ * watermarks of a reloaded configuration apply to the running stages, a
+ * changed parallelism only to the next topology started.
+ */
+public class Topology implements Worker, Flushable, Closeable, Configurable,
+		Throttled, ConfigListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(Topology.class);
+
+	/** asks every actor of a stage to flush its worker */
+	enum Signal {
+		FLUSH
+	}
+
+	private Configuration conf;
+
+	private ActorSystem system;
+
+	private String[] names;
+
+	/** routers of the stages in processing order */
+	private ActorRef[] stages;
+
+	private int[] parallelism;
+
+	private int[] highWatermark;
+
+	private int[] lowWatermark;
+
+	/** guards all counts below and error */
+	private final Object lock = new Object();
+
+	/** messages sent to any stage and not yet handled by it */
+	private long inFlight;
+
+	/** messages sent to each stage and not yet handled by it */
+	private long[] pending;
+
+	/** stages which reached their high watermark and did not drain yet */
+	private boolean[] saturated;
+
+	/** milliseconds senders waited for each stage */
+	private long[] blocked;
+
+	private Throwable error;
+
+	/**
+	 * Append a stage to the topology configured in conf.
+	 */
+	public static void addStage(Configuration conf, String name,
+			Class<? extends Worker> worker, int parallelism) {
+		String stages = conf.get(RabbitConstants.TOPOLOGY_STAGES);
+		conf.set(RabbitConstants.TOPOLOGY_STAGES, null == stages ? name : stages
+				+ "," + name);
+		conf.setClass(stageKey(name, RabbitConstants.STAGE_CLASS), worker, Worker.class);
+		conf.setInt(stageKey(name, RabbitConstants.STAGE_PARALLELISM), parallelism);
+	}
+
+	@Override
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+	}
+
+	@Override
+	public Configuration getConf() {
+		return conf;
+	}
+
+	/**
+	 * Hand work to the first stage, blocking while its mailboxes are full.
+	 */
+	@Override
+	public void process(WorkDesc workDesc) throws IOException {
+		if (null == system) {
+			start();
+		}
+		send(0, workDesc, null);
+	}
+
+	/**
+	 * Wait until all work went through the topology, then flush the workers
+	 * stage by stage.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (null == system) {
+			return;
+		}
+		awaitDrained();
+		for (int i = 0; i < stages.length; i++) {
+			synchronized (lock) {
+				// signals are never throttled
+				pending[i] += parallelism[i];
+				inFlight += parallelism[i];
+			}
+			stages[i].tell(new Broadcast(Signal.FLUSH), null);
+			awaitDrained();
+		}
+	}
+
+	@Override
+	public Map<String, Long> getBlockedTime() {
+		Map<String, Long> times = new LinkedHashMap<String, Long>();
+		synchronized (lock) {
+			for (int i = 0; null != blocked && i < blocked.length; i++) {
+				times.put(names[i], blocked[i]);
+			}
+		}
+		return times;
+	}
+
+	@Override
+	public void reconfigure(ConfigSnapshot snapshot, Set<String> changed) {
+		synchronized (lock) {
+			if (null == pending) {
+				// not started, it reads the configuration then
+				return;
+			}
+			for (int i = 0; i < names.length; i++) {
+				String high = stageKey(names[i], RabbitConstants.STAGE_HIGH_WATERMARK);
+				String low = stageKey(names[i], RabbitConstants.STAGE_LOW_WATERMARK);
+				if (changed.contains(high) || changed.contains(low)) {
+					highWatermark[i] = Math.max(1, snapshot.getInt(high, highWatermark[i]));
+					lowWatermark[i] = Math.min(highWatermark[i] - 1, snapshot.getInt(low,
+							conf.getInt(low, highWatermark[i] / 2)));
+					if (saturated[i] && pending[i] <= lowWatermark[i]) {
+						saturated[i] = false;
+						lock.notifyAll();
+					}
+					LOG.info("Stage " + names[i] + " watermarks now " + highWatermark[i]
+							+ "/" + lowWatermark[i]);
+				}
+				if (changed.contains(stageKey(names[i], RabbitConstants.STAGE_PARALLELISM))) {
+					LOG.info("Stage " + names[i] + " keeps its parallelism of "
+							+ parallelism[i] + " until the topology is restarted");
+				}
+			}
+		}
+	}
+
+	int size() {
+		return stages.length;
+	}
+
+	String name(int stage) {
+		return names[stage];
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (null == system) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			// stopping the actors closes their workers
+			system.shutdown();
+			system.awaitTermination();
+			system = null;
+			for (String name : names) {
+				RabbitMetrics.get().unregister(pendingGauge(name));
+			}
+		}
+	}
+
+	/**
+	 * Send work to a stage, counting it as in flight until handled. Blocks
+	 * while the stage is saturated.
+	 */
+	void send(int stage, WorkDesc work, ActorRef sender) throws IOException {
+		synchronized (lock) {
+			if (pending[stage] >= highWatermark[stage]) {
+				saturated[stage] = true;
+			}
+			if (saturated[stage]) {
+				long start = System.currentTimeMillis();
+				try {
+					while (saturated[stage] && null == error) {
+						lock.wait();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted waiting for stage " + names[stage]);
+				} finally {
+					blocked[stage] += System.currentTimeMillis() - start;
+				}
+			}
+			checkError();
+			pending[stage]++;
+			inFlight++;
+		}
+		stages[stage].tell(work, sender);
+	}
+
+	/**
+	 * A message sent to the stage was handled.
+	 */
+	void done(int stage) {
+		synchronized (lock) {
+			--pending[stage];
+			if (saturated[stage] && pending[stage] <= lowWatermark[stage]) {
+				saturated[stage] = false;
+				lock.notifyAll();
+			}
+			if (--inFlight <= 0) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	void fail(Throwable t) {
+		synchronized (lock) {
+			if (null == error) {
+				LOG.error("Topology failed", t);
+				error = t;
+			}
+			lock.notifyAll();
+		}
+	}
+
+	private void awaitDrained() throws IOException {
+		synchronized (lock) {
+			while (inFlight > 0 && null == error) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted waiting for the topology");
+				}
+			}
+		}
+		checkError();
+	}
+
+	private void checkError() throws IOException {
+		synchronized (lock) {
+			if (error instanceof IOException) {
+				throw (IOException) error;
+			}
+			if (null != error) {
+				throw new IOException("Topology failed", error);
+			}
+		}
+	}
+
+	private void start() throws IOException {
+		names = conf.getStrings(RabbitConstants.TOPOLOGY_STAGES);
+		if (null == names || 0 == names.length) {
+			throw new IOException(RabbitConstants.TOPOLOGY_STAGES + " is not set");
+		}
+		long pushTimeout = conf.getLong(RabbitConstants.TOPOLOGY_PUSH_TIMEOUT,
+				RabbitConstants.DEFAULT_TOPOLOGY_PUSH_TIMEOUT);
+		StringBuilder akka = new StringBuilder("akka.daemonic = on\n");
+		parallelism = new int[names.length];
+		highWatermark = new int[names.length];
+		lowWatermark = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			parallelism[i] = Math.max(1, conf.getInt(
+					stageKey(names[i], RabbitConstants.STAGE_PARALLELISM),
+					RabbitConstants.DEFAULT_STAGE_PARALLELISM));
+			highWatermark[i] = Math.max(1, conf.getInt(stageKey(names[i],
+					RabbitConstants.STAGE_HIGH_WATERMARK), conf.getInt(stageKey(names[i],
+					RabbitConstants.STAGE_MAILBOX_CAPACITY),
+					RabbitConstants.DEFAULT_STAGE_MAILBOX_CAPACITY)));
+			lowWatermark[i] = Math.min(highWatermark[i] - 1, conf.getInt(stageKey(
+					names[i], RabbitConstants.STAGE_LOW_WATERMARK), highWatermark[i] / 2));
+			appendDispatcher(akka, names[i], parallelism[i], pushTimeout);
+		}
+		synchronized (lock) {
+			pending = new long[names.length];
+			saturated = new boolean[names.length];
+			blocked = new long[names.length];
+		}
+		for (int i = 0; i < names.length; i++) {
+			final int stage = i;
+			RabbitMetrics.get().register(pendingGauge(names[i]), new Gauge() {
+
+				@Override
+				public long getValue() {
+					synchronized (lock) {
+						return pending[stage];
+					}
+				}
+
+			});
+		}
+		system = ActorSystem.create("rabbit", ConfigFactory.parseString(
+				akka.toString()).withFallback(ConfigFactory.load()));
+		system.eventStream().subscribe(system.actorOf(new Props(
+				new UntypedActorFactory() {
+
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					public Actor create() {
+						return new DeadLetterListener();
+					}
+
+				}), "dead-letters"), DeadLetter.class);
+
+		// built from the sink backwards, every stage needs its successor
+		stages = new ActorRef[names.length];
+		for (int i = names.length - 1; i >= 0; i--) {
+			final Class<? extends Worker> workerClass = conf.getClass(
+					stageKey(names[i], RabbitConstants.STAGE_CLASS), null, Worker.class);
+			if (null == workerClass) {
+				throw new IOException(stageKey(names[i], RabbitConstants.STAGE_CLASS)
+						+ " is not set");
+			}
+			final int stage = i;
+			String dispatcher = conf.get(stageKey(names[i],
+					RabbitConstants.STAGE_DISPATCHER), dispatcherId(names[i]));
+			stages[i] = system.actorOf(new Props(new UntypedActorFactory() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public Actor create() {
+					return new StageActor(Topology.this, stage, workerClass, conf);
+				}
+
+			}).withDispatcher(dispatcher).withRouter(
+					new RoundRobinRouter(parallelism[i])), names[i]);
+		}
+		LOG.info("Started topology " + conf.get(RabbitConstants.TOPOLOGY_STAGES));
+	}
+
+	/**
+	 * Dispatcher of one stage, its bounded mailboxes block a sender for at
+	 * most the push timeout.
+	 */
+	private void appendDispatcher(StringBuilder akka, String name,
+			int threads, long pushTimeout) {
+		String executor = conf.get(stageKey(name, RabbitConstants.STAGE_EXECUTOR),
+				RabbitConstants.DEFAULT_STAGE_EXECUTOR);
+		int capacity = conf.getInt(stageKey(name,
+				RabbitConstants.STAGE_MAILBOX_CAPACITY),
+				RabbitConstants.DEFAULT_STAGE_MAILBOX_CAPACITY);
+		akka.append(dispatcherId(name)).append(" {\n")
+				.append("  type = Dispatcher\n")
+				.append("  executor = \"").append(executor).append("\"\n")
+				.append("  fork-join-executor {\n")
+				.append("    parallelism-min = ").append(threads).append("\n")
+				.append("    parallelism-max = ").append(threads).append("\n")
+				.append("  }\n")
+				.append("  thread-pool-executor {\n")
+				.append("    core-pool-size-min = ").append(threads).append("\n")
+				.append("    core-pool-size-max = ").append(threads).append("\n")
+				.append("  }\n")
+				.append("  mailbox-capacity = ").append(capacity).append("\n")
+				.append("  mailbox-push-timeout-time = ").append(pushTimeout).append("ms\n")
+				.append("}\n");
+	}
+
+	private static String dispatcherId(String stage) {
+		return "rabbit-stage-" + stage;
+	}
+
+	private static String pendingGauge(String stage) {
+		return "stage." + stage + ".pending";
+	}
+
+	private static String stageKey(String stage, String suffix) {
+		return RabbitConstants.TOPOLOGY_STAGE_PREFIX + stage + suffix;
+	}
+
+	/**
+	 * Work which did not fit into a full mailbox in time ends here, it fails
+	 * the topology instead of being lost silently. Nobody waits for a failed
+	 * topology to drain, so the dropped message is not counted as done.
+	 */
+	private class DeadLetterListener extends UntypedActor {
+
+		@Override
+		public void onReceive(Object message) throws Exception {
+			if (message instanceof DeadLetter) {
+				Object dropped = ((DeadLetter) message).message();
+				if (dropped instanceof WorkDesc || Signal.FLUSH == dropped) {
+					fail(new IOException("Message dropped by "
+							+ ((DeadLetter) message).recipient().path()));
+				}
+			} else {
+				unhandled(message);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,86 @@
+package org.apache.hadoop.rabbit.util;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sum of a long updated by many threads without contention.<br />
+ * Every thread adds to a cell only it writes, so {@link #add(long)} never
+ * locks nor retries; {@link #sum()} visits all cells and may miss updates
+ * racing with it. The cells of threads which died are folded into a base.
+ */
+public class Accumulator {
+
+	private final List<Cell> cells = new CopyOnWriteArrayList<Cell>();
+
+	/** sum of the cells folded, guarded by this */
+	private long base;
+
+	private final ThreadLocal<AtomicLong> cell = new ThreadLocal<AtomicLong>() {
+
+		@Override
+		protected AtomicLong initialValue() {
+			Cell cell = new Cell();
+			synchronized (Accumulator.this) {
+				fold();
+				cells.add(cell);
+			}
+			return cell.value;
+		}
+
+	};
+
+	public void add(long delta) {
+		AtomicLong mine = cell.get();
+		// single writer, an ordered store is enough to publish the value
+		mine.lazySet(mine.get() + delta);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public synchronized long sum() {
+		fold();
+		long sum = base;
+		for (Cell c : cells) {
+			sum += c.value.get();
+		}
+		return sum;
+	}
+
+	/**
+	 * @return cells of threads not known to be dead yet
+	 */
+	int cellCount() {
+		return cells.size();
+	}
+
+	/**
+	 * Add the cells of dead threads to the base and drop them.
+	 */
+	private void fold() {
+		for (Cell c : cells) {
+			Thread owner = c.owner.get();
+			if (null == owner || !owner.isAlive()) {
+				base += c.value.get();
+				cells.remove(c);
+			}
+		}
+	}
+
+	/**
+	 * Value written by one thread, which it does not keep alive.
+	 */
+	private static class Cell {
+
+		final WeakReference<Thread> owner = new WeakReference<Thread>(
+				Thread.currentThread());
+
+		final AtomicLong value = new AtomicLong();
+
+	}
+
+}
@@ -1,15 +1,28 @@
 package org.apache.hadoop.rabbit.util;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.rabbit.configuration.RabbitConfiguration;
+import org.apache.hadoop.rabbit.configuration.ConfigManager;
+import org.apache.hadoop.rabbit.configuration.ConfigSnapshot;
 
 /**
  * ${RabbitConfiguration} instance factory
  */
 public final class ConfigUtils {
 
+	/**
+	 * Copy of the latest loaded configuration, the files are not parsed again
+	 * @return Configuration instance
+	 */
 	public static Configuration getConf(){
-		return RabbitConfiguration.create();
+		return new Configuration(ConfigManager.get().getConfiguration());
+	}
+
+	/**
+	 * Latest snapshot of the rabbit settings, cheap enough to take on every use
+	 * @return ConfigSnapshot instance
+	 */
+	public static ConfigSnapshot getSnapshot(){
+		return ConfigManager.get().getSnapshot();
 	}
 	
 }
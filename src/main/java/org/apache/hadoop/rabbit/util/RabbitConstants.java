@@ -10,4 +10,234 @@ public class RabbitConstants {
 
 	public static final String RABBIT_TMP_DIR = "rabbit.tmp.dir";
 
+	/** Bytes of a remote file read by one map task of SFTPInputFormat */
+	public static final String SFTP_INPUT_SPLIT_SIZE = "mapreduce.rabbit.input.sftp.split.size";
+
+	public static final long DEFAULT_SFTP_INPUT_SPLIT_SIZE = 64L * 1024 * 1024;
+
+	/** Max bytes of small remote files packed into one split, defaults to the split size */
+	public static final String SFTP_INPUT_COMBINE_SIZE = "mapreduce.rabbit.input.sftp.combine.size";
+
+	/** Worker implementation run by RabbitMapper */
+	public static final String WORKER_CLASS = "mapreduce.rabbit.worker.class";
+
+	/** Source implementation feeding the worker of RabbitMapper */
+	public static final String SOURCE_CLASS = "mapreduce.rabbit.source.class";
+
+	/** Work plan of the running mapper, the input line, set by RabbitMapper */
+	public static final String WORK_PLAN = "mapreduce.rabbit.work.plan";
+
+	/** Units of work buffered between the source and the worker */
+	public static final String QUEUE_CAPACITY = "mapreduce.rabbit.queue.capacity";
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+	/** Work read and not yet processed at which the source is paused, defaults to the queue capacity */
+	public static final String QUEUE_HIGH_WATERMARK = "mapreduce.rabbit.queue.high.watermark";
+
+	/** Work read and not yet processed at which a paused source resumes, defaults to half the high watermark */
+	public static final String QUEUE_LOW_WATERMARK = "mapreduce.rabbit.queue.low.watermark";
+
+	/** Bytes of work spilled to memory-mapped files in mapred.local.dir once the queue is full, 0 blocks the source instead */
+	public static final String SPILL_MAX_BYTES = "mapreduce.rabbit.spill.max.bytes";
+
+	public static final long DEFAULT_SPILL_MAX_BYTES = 0;
+
+	/** Bytes of a spill segment file, read segments are reused */
+	public static final String SPILL_SEGMENT_BYTES = "mapreduce.rabbit.spill.segment.bytes";
+
+	public static final int DEFAULT_SPILL_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+	/** Max units of work handed to the worker before it is flushed */
+	public static final String BATCH_SIZE = "mapreduce.rabbit.batch.size";
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	/** Milliseconds a batch waits to fill up once its first unit arrived */
+	public static final String BATCH_LINGER = "mapreduce.rabbit.batch.linger";
+
+	public static final long DEFAULT_BATCH_LINGER = 50;
+
+	/** Comma separated stage names of a topology, in processing order */
+	public static final String TOPOLOGY_STAGES = "mapreduce.rabbit.topology.stages";
+
+	/** Prefix of the per stage settings, followed by the stage name */
+	public static final String TOPOLOGY_STAGE_PREFIX = "mapreduce.rabbit.topology.stage.";
+
+	/** Worker class of a stage, after prefix and name */
+	public static final String STAGE_CLASS = ".class";
+
+	/** Actors of a stage and threads of its dispatcher, after prefix and name */
+	public static final String STAGE_PARALLELISM = ".parallelism";
+
+	public static final int DEFAULT_STAGE_PARALLELISM = 1;
+
+	/** Messages waiting in the mailbox of each actor of a stage, after prefix and name */
+	public static final String STAGE_MAILBOX_CAPACITY = ".mailbox.capacity";
+
+	public static final int DEFAULT_STAGE_MAILBOX_CAPACITY = 1000;
+
+	/** Work pending in a stage at which its senders block, after prefix and name, defaults to the mailbox capacity */
+	public static final String STAGE_HIGH_WATERMARK = ".high.watermark";
+
+	/** Work pending in a stage at which blocked senders resume, after prefix and name, defaults to half the high watermark */
+	public static final String STAGE_LOW_WATERMARK = ".low.watermark";
+
+	/** fork-join-executor or thread-pool-executor, after prefix and name */
+	public static final String STAGE_EXECUTOR = ".executor";
+
+	public static final String DEFAULT_STAGE_EXECUTOR = "fork-join-executor";
+
+	/** Id of a dispatcher from the akka config used instead of the generated one, after prefix and name, never share one between stages */
+	public static final String STAGE_DISPATCHER = ".dispatcher";
+
+	/** Milliseconds a stage waits for room in a full mailbox before the work is dropped */
+	public static final String TOPOLOGY_PUSH_TIMEOUT = "mapreduce.rabbit.topology.push.timeout";
+
+	public static final long DEFAULT_TOPOLOGY_PUSH_TIMEOUT = 60000;
+
+	/** Table written by HBaseSink */
+	public static final String HBASE_TABLE = "mapreduce.rabbit.hbase.table";
+
+	/** family:qualifier HBaseSink writes the payload of a unit to */
+	public static final String HBASE_COLUMN = "mapreduce.rabbit.hbase.column";
+
+	public static final String DEFAULT_HBASE_COLUMN = "d:v";
+
+	/** HTableInterfaceFactory of the tables HBaseSink writes through */
+	public static final String HBASE_TABLE_FACTORY = "mapreduce.rabbit.hbase.table.factory";
+
+	/** Heap size of the puts at which a batch is flushed */
+	public static final String HBASE_BATCH_BYTES = "mapreduce.rabbit.hbase.batch.bytes";
+
+	public static final long DEFAULT_HBASE_BATCH_BYTES = 2L * 1024 * 1024;
+
+	/** Milliseconds after which a batch is flushed even if not full */
+	public static final String HBASE_BATCH_LINGER = "mapreduce.rabbit.hbase.batch.linger";
+
+	public static final long DEFAULT_HBASE_BATCH_LINGER = 1000;
+
+	/** Threads of an HBaseSink writing batches, each with its own table */
+	public static final String HBASE_FLUSHERS = "mapreduce.rabbit.hbase.flushers";
+
+	public static final int DEFAULT_HBASE_FLUSHERS = 4;
+
+	/** Batches waiting for each flusher before process() blocks */
+	public static final String HBASE_QUEUE_BATCHES = "mapreduce.rabbit.hbase.queue.batches";
+
+	public static final int DEFAULT_HBASE_QUEUE_BATCHES = 4;
+
+	/** Retries of a failed flush before the sink fails */
+	public static final String HBASE_RETRIES = "mapreduce.rabbit.hbase.retries";
+
+	public static final int DEFAULT_HBASE_RETRIES = 5;
+
+	/** Milliseconds before the first retry of a flush, doubled for every further one */
+	public static final String HBASE_RETRY_BACKOFF = "mapreduce.rabbit.hbase.retry.backoff";
+
+	public static final long DEFAULT_HBASE_RETRY_BACKOFF = 100;
+
+	/** tumbling, sliding or session windows of WindowAggregator.create() */
+	public static final String WINDOW_TYPE = "mapreduce.rabbit.window.type";
+
+	/** Milliseconds of a tumbling or sliding window */
+	public static final String WINDOW_SIZE = "mapreduce.rabbit.window.size";
+
+	public static final long DEFAULT_WINDOW_SIZE = 60000;
+
+	/** Milliseconds between the starts of two sliding windows, a divisor of the size */
+	public static final String WINDOW_SLIDE = "mapreduce.rabbit.window.slide";
+
+	/** Milliseconds without an event ending a session, defaults to the window size */
+	public static final String WINDOW_GAP = "mapreduce.rabbit.window.gap";
+
+	/** Aggregate by the time of events instead of the time they are processed */
+	public static final String WINDOW_EVENT_TIME = "mapreduce.rabbit.window.event.time";
+
+	/** Milliseconds the watermark trails the latest event time */
+	public static final String WINDOW_MAX_OUT_OF_ORDER = "mapreduce.rabbit.window.max.out.of.order";
+
+	public static final long DEFAULT_WINDOW_MAX_OUT_OF_ORDER = 1000;
+
+	/** Milliseconds between two progress reports of a resident mapper */
+	public static final String REPORT_INTERVAL = "mapreduce.rabbit.report.interval";
+
+	public static final long DEFAULT_REPORT_INTERVAL = 10000;
+
+	/** Comma separated RabbitCounter names published on every report */
+	public static final String REPORT_COUNTERS = "mapreduce.rabbit.report.counters";
+
+	public static final String DEFAULT_REPORT_COUNTERS = "PROCESSED,QUEUE_DEPTH,LAG,SOURCE_BLOCKED,WORKER_BLOCKED,GC_TIME";
+
+	/** Milliseconds without a loop round after which progress is no longer reported, 0 for never */
+	public static final String REPORT_STALL_TIMEOUT = "mapreduce.rabbit.report.stall.timeout";
+
+	public static final long DEFAULT_REPORT_STALL_TIMEOUT = 300000;
+
+	/** Publish the count and total time of every latency histogram as counters */
+	public static final String REPORT_METRICS = "mapreduce.rabbit.report.metrics";
+
+	public static final boolean DEFAULT_REPORT_METRICS = true;
+
+	/** Milliseconds between two updates of the metrics published through JMX */
+	public static final String METRICS_INTERVAL = "mapreduce.rabbit.metrics.interval";
+
+	public static final long DEFAULT_METRICS_INTERVAL = 10000;
+
+	/** ZooKeeper quorum coordinating work units between map tasks, off if unset */
+	public static final String ZK_QUORUM = "mapreduce.rabbit.zk.quorum";
+
+	/** Milliseconds without a heartbeat after which a map task loses its units */
+	public static final String ZK_SESSION_TIMEOUT = "mapreduce.rabbit.zk.session.timeout";
+
+	public static final int DEFAULT_ZK_SESSION_TIMEOUT = 30000;
+
+	/** Root of the coordination nodes of all jobs */
+	public static final String ZK_ROOT = "mapreduce.rabbit.zk.root";
+
+	public static final String DEFAULT_ZK_ROOT = "/rabbit";
+
+	/** Work units of a work plan spread over the map tasks serving it, 0 for none */
+	public static final String WORK_UNITS = "mapreduce.rabbit.work.units";
+
+	public static final int DEFAULT_WORK_UNITS = 0;
+
+	/** Milliseconds between two checkpoints of a Checkpointable worker or source, 0 for none */
+	public static final String CHECKPOINT_INTERVAL = "mapreduce.rabbit.checkpoint.interval";
+
+	public static final long DEFAULT_CHECKPOINT_INTERVAL = 60000;
+
+	/** Incremental checkpoints merged into a new base checkpoint */
+	public static final String CHECKPOINT_COMPACT_DELTAS = "mapreduce.rabbit.checkpoint.compact.deltas";
+
+	public static final int DEFAULT_CHECKPOINT_COMPACT_DELTAS = 10;
+
+	/** Milliseconds between two checks whether a local rabbit-site.xml changed, 0 for never */
+	public static final String CONFIG_RELOAD_INTERVAL = "mapreduce.rabbit.config.reload.interval";
+
+	public static final long DEFAULT_CONFIG_RELOAD_INTERVAL = 10000;
+
+	/** ZooKeeper node in mapreduce.rabbit.zk.quorum whose properties are laid over the configuration and followed */
+	public static final String CONFIG_ZK_NODE = "mapreduce.rabbit.config.zk.node";
+
+	/** Events per second generated by a LoadSource */
+	public static final String LOAD_RATE = "mapreduce.rabbit.load.rate";
+
+	public static final long DEFAULT_LOAD_RATE = 10000;
+
+	/** Milliseconds a LoadSource generates events for */
+	public static final String LOAD_DURATION = "mapreduce.rabbit.load.duration";
+
+	public static final long DEFAULT_LOAD_DURATION = 60000;
+
+	/** Payload bytes of a LoadSource event, at least 8 */
+	public static final String LOAD_PAYLOAD = "mapreduce.rabbit.load.payload";
+
+	public static final int DEFAULT_LOAD_PAYLOAD = 100;
+
+	/** Distinct keys of the LoadSource events */
+	public static final String LOAD_KEYS = "mapreduce.rabbit.load.keys";
+
+	public static final int DEFAULT_LOAD_KEYS = 1000;
+
 }
@@ -1,18 +1,15 @@
 package org.apache.hadoop.rabbit.util;
 
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 
 public class RabbitUtils {
 	
-	private static final Configuration config = ConfigUtils.getConf();
-	
 	public static Path getHomeDir(){
-		return new Path(config.get(RabbitConstants.RABBIT_HOME_DIR));
+		return new Path(ConfigUtils.getSnapshot().get(RabbitConstants.RABBIT_HOME_DIR));
 	}
 	
 	public static Path getTmpDir(){
-		return new Path(getHomeDir(),config.get(RabbitConstants.RABBIT_TMP_DIR));
+		return new Path(getHomeDir(),ConfigUtils.getSnapshot().get(RabbitConstants.RABBIT_TMP_DIR));
 	}
 
 }
@@ -0,0 +1,36 @@
+package org.apache.hadoop.rabbit.window;
+
+/**
+ * Slot arithmetic shared by the primitive maps.
+ */
+final class Hashing {
+
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private Hashing() {
+	}
+
+	/**
+	 * @return a power of two holding expected entries at most half full
+	 */
+	static int capacity(int expected) {
+		int capacity = 16;
+		while (capacity < 2L * expected && capacity < MAX_CAPACITY) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Home slot of a key, mixed so that sequential ids spread out.
+	 */
+	static int slot(long key, int mask) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+
+}
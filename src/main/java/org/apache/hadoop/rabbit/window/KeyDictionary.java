@@ -0,0 +1,38 @@
+package org.apache.hadoop.rabbit.window;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dense long ids of string keys, so string keyed aggregates can use the
+ * primitive maps.<br />
+ * Only the first occurrence of a key allocates. Ids are never released, keep
+ * one dictionary per bounded key space. Not thread safe.
+ */
+public class KeyDictionary {
+
+	private final Map<String, Long> ids = new HashMap<String, Long>();
+
+	private final List<String> keys = new ArrayList<String>();
+
+	public long id(String key) {
+		Long id = ids.get(key);
+		if (null == id) {
+			id = Long.valueOf(keys.size());
+			ids.put(key, id);
+			keys.add(key);
+		}
+		return id;
+	}
+
+	public String key(long id) {
+		return keys.get((int) id);
+	}
+
+	public int size() {
+		return keys.size();
+	}
+
+}
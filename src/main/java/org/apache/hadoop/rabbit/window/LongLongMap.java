@@ -0,0 +1,167 @@
+package org.apache.hadoop.rabbit.window;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long to long, without boxing.<br />
+ * Linear probing over power of two arrays kept at most half full;
+ * {@link #clear()} keeps the arrays, so a reused map stops allocating once
+ * it has grown to its working size. Iterate with {@link #nextSlot(int)}:
+ * <pre>
+ * for (int s = map.nextSlot(0); s &gt;= 0; s = map.nextSlot(s + 1)) {
+ *     map.keyAt(s); map.valueAt(s);
+ * }
+ * </pre>
+ */
+public class LongLongMap {
+
+	private long[] keys;
+
+	private long[] values;
+
+	private boolean[] used;
+
+	private int mask;
+
+	private int size;
+
+	public LongLongMap() {
+		this(16);
+	}
+
+	public LongLongMap(int expected) {
+		allocate(Hashing.capacity(expected));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean containsKey(long key) {
+		return used[find(key)];
+	}
+
+	/**
+	 * @return the value of key, or missing if there is none
+	 */
+	public long get(long key, long missing) {
+		int slot = find(key);
+		return used[slot] ? values[slot] : missing;
+	}
+
+	public void put(long key, long value) {
+		// insert first, it may swap the arrays
+		int slot = insert(key);
+		values[slot] = value;
+	}
+
+	/**
+	 * Add delta to the value of key, a missing value counts as 0.
+	 *
+	 * @return the new value
+	 */
+	public long add(long key, long delta) {
+		int slot = insert(key);
+		return values[slot] += delta;
+	}
+
+	/**
+	 * @return whether key was present
+	 */
+	public boolean remove(long key) {
+		int slot = find(key);
+		if (!used[slot]) {
+			return false;
+		}
+		// shift later entries of the probe chain back into the gap
+		int gap = slot;
+		for (int next = (gap + 1) & mask; used[next]; next = (next + 1) & mask) {
+			int home = Hashing.slot(keys[next], mask);
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+		}
+		used[gap] = false;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Remove all entries, keeping the capacity.
+	 */
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(used, false);
+			size = 0;
+		}
+	}
+
+	/**
+	 * @return the first used slot at or after from, -1 if there is none
+	 */
+	public int nextSlot(int from) {
+		for (int slot = from; slot < used.length; slot++) {
+			if (used[slot]) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	public long valueAt(int slot) {
+		return values[slot];
+	}
+
+	private int find(long key) {
+		int slot = Hashing.slot(key, mask);
+		while (used[slot] && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int insert(long key) {
+		int slot = find(key);
+		if (used[slot]) {
+			return slot;
+		}
+		if (2 * (size + 1) > used.length) {
+			grow();
+			slot = find(key);
+		}
+		used[slot] = true;
+		keys[slot] = key;
+		values[slot] = 0;
+		size++;
+		return slot;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(2 * used.length);
+		for (int i = 0; i < oldUsed.length; i++) {
+			if (oldUsed[i]) {
+				int slot = find(oldKeys[i]);
+				used[slot] = true;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+}
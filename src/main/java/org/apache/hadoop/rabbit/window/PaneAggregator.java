@@ -0,0 +1,191 @@
+package org.apache.hadoop.rabbit.window;
+
+import java.io.IOException;
+
+/**
+ * Tumbling or sliding windows of size ms, a new one starting every slide ms.<br />
+ * Events are pre-aggregated into panes of slide ms, each event updates one
+ * pane only; a closing window merges its size / slide panes. Panes sit in a
+ * ring and are cleared for reuse once no open window covers them any more.
+ */
+public class PaneAggregator extends WindowAggregator {
+
+	private final long size;
+
+	private final long slide;
+
+	/** panes of a window */
+	private final int panes;
+
+	private Pane[] ring;
+
+	private int mask;
+
+	/** whether any pane holds data */
+	private boolean started;
+
+	/** oldest pane an open window covers */
+	private long firstPane;
+
+	/** newest pane holding data */
+	private long lastPane;
+
+	/** end of the next window to close */
+	private long nextEnd;
+
+	/** merged panes of the closing window */
+	private final LongLongMap counts = new LongLongMap();
+
+	private final LongDoubleMap sums = new LongDoubleMap();
+
+	public PaneAggregator(long size, long slide, WindowOutput output) {
+		super(output);
+		if (slide <= 0 || size < slide || 0 != size % slide) {
+			throw new IllegalArgumentException("Window size " + size
+					+ " is no multiple of slide " + slide);
+		}
+		this.size = size;
+		this.slide = slide;
+		this.panes = (int) (size / slide);
+		this.ring = new Pane[Hashing.capacity(panes)];
+		this.mask = ring.length - 1;
+	}
+
+	@Override
+	protected boolean accumulate(long key, long time, long count, double sum) {
+		long pane = floorDiv(time, slide);
+		if (!started) {
+			// every window ending after the watermark is still open
+			long watermark = getWatermark();
+			firstPane = (Long.MIN_VALUE == watermark ? pane : floorDiv(watermark, slide))
+					+ 1 - panes;
+			lastPane = pane;
+			nextEnd = (firstPane + panes) * slide;
+		}
+		if (pane < firstPane) {
+			return false;
+		}
+		started = true;
+		Pane p = pane(pane);
+		p.counts.add(key, count);
+		p.sums.add(key, sum);
+		lastPane = Math.max(lastPane, pane);
+		return true;
+	}
+
+	@Override
+	protected void closeUntil(long watermark) throws IOException {
+		while (started && nextEnd <= watermark) {
+			closeNext();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		while (started) {
+			closeNext();
+		}
+	}
+
+	/**
+	 * Emit the window ending at nextEnd and release its first pane.
+	 */
+	private void closeNext() throws IOException {
+		long endPane = nextEnd / slide;
+		long startPane = endPane - panes;
+		if (1 == panes) {
+			Pane p = ring[(int) startPane & mask];
+			if (null != p && startPane == p.index) {
+				emit(startPane, p.counts, p.sums);
+			}
+		} else {
+			for (long i = Math.max(startPane, firstPane); i < endPane && i <= lastPane; i++) {
+				Pane p = ring[(int) i & mask];
+				if (null != p && i == p.index) {
+					merge(p);
+				}
+			}
+			emit(startPane, counts, sums);
+			counts.clear();
+			sums.clear();
+		}
+		// no later window covers the first pane
+		for (long i = firstPane; i <= startPane; i++) {
+			Pane p = ring[(int) i & mask];
+			if (null != p && i == p.index) {
+				p.release();
+			}
+		}
+		firstPane = startPane + 1;
+		nextEnd += slide;
+		if (firstPane > lastPane) {
+			// the panes are empty, the next event starts over
+			started = false;
+		}
+	}
+
+	private void merge(Pane p) {
+		for (int s = p.counts.nextSlot(0); s >= 0; s = p.counts.nextSlot(s + 1)) {
+			long key = p.counts.keyAt(s);
+			counts.add(key, p.counts.valueAt(s));
+			sums.add(key, p.sums.get(key, 0));
+		}
+	}
+
+	private void emit(long startPane, LongLongMap counts, LongDoubleMap sums)
+			throws IOException {
+		long start = startPane * slide;
+		for (int s = counts.nextSlot(0); s >= 0; s = counts.nextSlot(s + 1)) {
+			long key = counts.keyAt(s);
+			output.emit(start, start + size, key, counts.valueAt(s), sums.get(key, 0));
+		}
+	}
+
+	/**
+	 * The pane of the given index, growing the ring if it does not fit.
+	 */
+	private Pane pane(long index) {
+		if (index - firstPane >= ring.length) {
+			grow(index - firstPane + 1);
+		}
+		int slot = (int) index & mask;
+		Pane p = ring[slot];
+		if (null == p) {
+			p = new Pane();
+			ring[slot] = p;
+		}
+		if (p.index != index) {
+			// unused since its release
+			p.index = index;
+		}
+		return p;
+	}
+
+	private void grow(long needed) {
+		Pane[] old = ring;
+		ring = new Pane[Hashing.capacity((int) Math.min(needed, Integer.MAX_VALUE / 2))];
+		mask = ring.length - 1;
+		for (Pane p : old) {
+			if (null != p && p.index >= firstPane) {
+				ring[(int) p.index & mask] = p;
+			}
+		}
+	}
+
+	private static class Pane {
+
+		long index = Long.MIN_VALUE;
+
+		final LongLongMap counts = new LongLongMap();
+
+		final LongDoubleMap sums = new LongDoubleMap();
+
+		void release() {
+			index = Long.MIN_VALUE;
+			counts.clear();
+			sums.clear();
+		}
+
+	}
+
+}
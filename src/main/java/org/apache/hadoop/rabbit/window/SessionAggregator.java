@@ -0,0 +1,185 @@
+package org.apache.hadoop.rabbit.window;
+
+import java.io.IOException;
+
+/**
+ * Session windows, a key's session ends once it saw no event for gap ms.<br />
+ * A session ends at its last event plus the gap. Each key has one open
+ * session; an event more than the gap after it emits the open one and starts
+ * the next, an event more than the gap before it counts as late.<br />
+ * Open sessions wait in a min-heap by the end they had when queued. A session
+ * which got longer meanwhile is queued again by its new end once the
+ * watermark reaches the old one, so closing costs O(log sessions) per
+ * session, not a scan of all keys.
+ */
+public class SessionAggregator extends WindowAggregator {
+
+	private final long gap;
+
+	private final LongLongMap starts = new LongLongMap();
+
+	private final LongLongMap lasts = new LongLongMap();
+
+	private final LongLongMap counts = new LongLongMap();
+
+	private final LongDoubleMap sums = new LongDoubleMap();
+
+	/** id of the open session of a key, tells the queued ends of closed ones */
+	private final LongLongMap ids = new LongLongMap();
+
+	private long nextId;
+
+	/** min-heap of session ends, no session ends before its queued end */
+	private long[] ends = new long[16];
+
+	/** key of the session at the same heap index */
+	private long[] keys = new long[16];
+
+	/** id of the session at the same heap index */
+	private long[] queuedIds = new long[16];
+
+	private int queued;
+
+	public SessionAggregator(long gap, WindowOutput output) {
+		super(output);
+		if (gap <= 0) {
+			throw new IllegalArgumentException("Session gap " + gap + " is not positive");
+		}
+		this.gap = gap;
+	}
+
+	@Override
+	protected boolean accumulate(long key, long time, long count, double sum)
+			throws IOException {
+		if (time + gap <= getWatermark()) {
+			return false;
+		}
+		if (lasts.containsKey(key)) {
+			long start = starts.get(key, time);
+			long last = lasts.get(key, time);
+			if (time < start - gap) {
+				return false;
+			}
+			if (time > last + gap) {
+				close(key);
+			} else {
+				starts.put(key, Math.min(start, time));
+				lasts.put(key, Math.max(last, time));
+				counts.add(key, count);
+				sums.add(key, sum);
+				return true;
+			}
+		}
+		starts.put(key, time);
+		lasts.put(key, time);
+		counts.put(key, count);
+		sums.put(key, sum);
+		long id = nextId++;
+		ids.put(key, id);
+		push(time + gap, key, id);
+		return true;
+	}
+
+	@Override
+	protected void closeUntil(long watermark) throws IOException {
+		while (queued > 0 && ends[0] <= watermark) {
+			long key = keys[0];
+			long id = queuedIds[0];
+			pop();
+			if (id != ids.get(key, -1)) {
+				// closed by a later event already
+				continue;
+			}
+			long end = lasts.get(key, 0) + gap;
+			if (end <= watermark) {
+				close(key);
+			} else {
+				push(end, key, id);
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		for (int s = lasts.nextSlot(0); s >= 0; s = lasts.nextSlot(s + 1)) {
+			long key = lasts.keyAt(s);
+			output.emit(starts.get(key, 0), lasts.valueAt(s) + gap, key,
+					counts.get(key, 0), sums.get(key, 0));
+		}
+		starts.clear();
+		lasts.clear();
+		counts.clear();
+		sums.clear();
+		ids.clear();
+		queued = 0;
+	}
+
+	private void close(long key) throws IOException {
+		output.emit(starts.get(key, 0), lasts.get(key, 0) + gap, key,
+				counts.get(key, 0), sums.get(key, 0));
+		starts.remove(key);
+		lasts.remove(key);
+		counts.remove(key);
+		sums.remove(key);
+		ids.remove(key);
+	}
+
+	private void push(long end, long key, long id) {
+		if (queued == ends.length) {
+			ends = grow(ends);
+			keys = grow(keys);
+			queuedIds = grow(queuedIds);
+		}
+		int i = queued++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (ends[parent] <= end) {
+				break;
+			}
+			move(parent, i);
+			i = parent;
+		}
+		set(i, end, key, id);
+	}
+
+	/**
+	 * Remove the head of the heap.
+	 */
+	private void pop() {
+		int last = --queued;
+		long end = ends[last];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= last) {
+				break;
+			}
+			if (child + 1 < last && ends[child + 1] < ends[child]) {
+				child++;
+			}
+			if (end <= ends[child]) {
+				break;
+			}
+			move(child, i);
+			i = child;
+		}
+		set(i, end, keys[last], queuedIds[last]);
+	}
+
+	private void move(int from, int to) {
+		set(to, ends[from], keys[from], queuedIds[from]);
+	}
+
+	private void set(int i, long end, long key, long id) {
+		ends[i] = end;
+		keys[i] = key;
+		queuedIds[i] = id;
+	}
+
+	private static long[] grow(long[] array) {
+		long[] grown = new long[2 * array.length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+}
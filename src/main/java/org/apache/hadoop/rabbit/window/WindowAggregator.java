@@ -0,0 +1,155 @@
+package org.apache.hadoop.rabbit.window;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+
+/**
+ * Aggregates long and double deltas by key over time windows and emits each
+ * window once it closed.<br />
+ * With processing time an event happens when it is added and windows close
+ * as the clock passes their end, also on {@link #tick()}. With event time the
+ * watermark trails the latest event time by the allowed out of order delay,
+ * or is set by {@link #advance(long)}; events behind it which can not be
+ * counted any more are dropped as late. State lives in primitive maps which
+ * are reused once their window is emitted. Not thread safe, a worker keeps
+ * one aggregator per thread.
+ */
+public abstract class WindowAggregator {
+
+	public static final String TUMBLING = "tumbling";
+
+	public static final String SLIDING = "sliding";
+
+	public static final String SESSION = "session";
+
+	protected final WindowOutput output;
+
+	private boolean eventTime;
+
+	private long maxOutOfOrder;
+
+	private long watermark = Long.MIN_VALUE;
+
+	private long late;
+
+	protected WindowAggregator(WindowOutput output) {
+		this.output = output;
+	}
+
+	/**
+	 * Aggregator described by the mapreduce.rabbit.window.* settings.
+	 */
+	public static WindowAggregator create(Configuration conf, WindowOutput output) {
+		String type = conf.get(RabbitConstants.WINDOW_TYPE, TUMBLING);
+		long size = conf.getLong(RabbitConstants.WINDOW_SIZE,
+				RabbitConstants.DEFAULT_WINDOW_SIZE);
+		WindowAggregator aggregator;
+		if (TUMBLING.equals(type)) {
+			aggregator = new PaneAggregator(size, size, output);
+		} else if (SLIDING.equals(type)) {
+			aggregator = new PaneAggregator(size, conf.getLong(
+					RabbitConstants.WINDOW_SLIDE, size), output);
+		} else if (SESSION.equals(type)) {
+			aggregator = new SessionAggregator(conf.getLong(RabbitConstants.WINDOW_GAP,
+					size), output);
+		} else {
+			throw new IllegalArgumentException("Unknown " + RabbitConstants.WINDOW_TYPE
+					+ " " + type);
+		}
+		if (conf.getBoolean(RabbitConstants.WINDOW_EVENT_TIME, false)) {
+			aggregator.useEventTime(conf.getLong(RabbitConstants.WINDOW_MAX_OUT_OF_ORDER,
+					RabbitConstants.DEFAULT_WINDOW_MAX_OUT_OF_ORDER));
+		}
+		return aggregator;
+	}
+
+	/**
+	 * Take the time of events from {@link #add(long, long, long, double)} and
+	 * let the watermark trail the latest one by maxOutOfOrder ms.
+	 */
+	public WindowAggregator useEventTime(long maxOutOfOrder) {
+		this.eventTime = true;
+		this.maxOutOfOrder = maxOutOfOrder;
+		return this;
+	}
+
+	/**
+	 * Add an event happening now.
+	 */
+	public void add(long key, long count, double sum) throws IOException {
+		add(key, System.currentTimeMillis(), count, sum);
+	}
+
+	/**
+	 * Add an event, its time is ignored unless event time is used.
+	 */
+	public void add(long key, long time, long count, double sum) throws IOException {
+		if (!eventTime) {
+			time = System.currentTimeMillis();
+		}
+		// close what the event completes first, its own windows stay open
+		long candidate = eventTime ? time - maxOutOfOrder : time;
+		if (candidate > watermark) {
+			advance(candidate);
+		}
+		if (!accumulate(key, time, count, sum)) {
+			late++;
+		}
+	}
+
+	/**
+	 * Close every window ending at or before the watermark.
+	 */
+	public void advance(long watermark) throws IOException {
+		if (watermark <= this.watermark) {
+			return;
+		}
+		this.watermark = watermark;
+		closeUntil(watermark);
+	}
+
+	/**
+	 * Close the windows the clock passed, call it periodically when events
+	 * may stop arriving. Does nothing with event time.
+	 */
+	public void tick() throws IOException {
+		if (!eventTime) {
+			advance(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Emit every open window, complete or not, at the end of the stream.
+	 */
+	public abstract void flush() throws IOException;
+
+	public long getWatermark() {
+		return watermark;
+	}
+
+	/**
+	 * @return events dropped because they were behind the watermark
+	 */
+	public long getLate() {
+		return late;
+	}
+
+	/**
+	 * @return false if the event is late
+	 */
+	protected abstract boolean accumulate(long key, long time, long count,
+			double sum) throws IOException;
+
+	protected abstract void closeUntil(long watermark) throws IOException;
+
+	/**
+	 * Floor division, correct for times before the epoch too.
+	 */
+	static long floorDiv(long x, long y) {
+		long q = x / y;
+		return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+	}
+
+}
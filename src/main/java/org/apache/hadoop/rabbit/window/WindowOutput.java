@@ -0,0 +1,20 @@
+package org.apache.hadoop.rabbit.window;
+
+import java.io.IOException;
+
+/**
+ * Receives the aggregates of closed windows, key by key.<br />
+ * Every key of a window is emitted before the first key of the next one.
+ */
+public interface WindowOutput {
+
+	/**
+	 * @param start first millisecond of the window
+	 * @param end first millisecond after the window
+	 * @param count sum of the long deltas of the key, usually a count
+	 * @param sum sum of the double deltas of the key
+	 */
+	public void emit(long start, long end, long key, long count, double sum)
+			throws IOException;
+
+}
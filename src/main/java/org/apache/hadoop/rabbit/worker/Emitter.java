@@ -0,0 +1,12 @@
+package org.apache.hadoop.rabbit.worker;
+
+import java.io.IOException;
+
+/**
+ * Passes work on to the next stage of a topology.
+ */
+public interface Emitter {
+
+	public void emit(WorkDesc work) throws IOException;
+
+}
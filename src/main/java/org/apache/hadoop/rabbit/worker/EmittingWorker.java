@@ -0,0 +1,12 @@
+package org.apache.hadoop.rabbit.worker;
+
+/**
+ * A {@link Worker} which produces work for the next stage of a topology,
+ * the transform of a source, transform, sink chain.<br />
+ * The emitter is set once, before the first call to process.
+ */
+public interface EmittingWorker extends Worker {
+
+	public void setEmitter(Emitter emitter);
+
+}
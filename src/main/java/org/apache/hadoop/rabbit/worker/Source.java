@@ -0,0 +1,21 @@
+package org.apache.hadoop.rabbit.worker;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Feeds units of work to a resident mapper.<br />
+ * Created through ReflectionUtils, so an implementation may be Configurable.
+ * {@link #close()} may be called from another thread to end a blocked
+ * {@link #next()}.
+ */
+public interface Source extends Closeable {
+
+	/**
+	 * Wait for the next unit of work.
+	 * 
+	 * @return the work, or null once the source is exhausted
+	 */
+	public WorkDesc next() throws IOException, InterruptedException;
+
+}
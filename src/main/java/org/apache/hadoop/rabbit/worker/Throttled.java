@@ -0,0 +1,17 @@
+package org.apache.hadoop.rabbit.worker;
+
+import java.util.Map;
+
+/**
+ * A {@link Worker} which holds up its callers while the stages behind it are
+ * saturated.<br />
+ * The resident mapper publishes the blocked time as counters.
+ */
+public interface Throttled {
+
+	/**
+	 * @return milliseconds senders were blocked so far, by stage name
+	 */
+	public Map<String, Long> getBlockedTime();
+
+}
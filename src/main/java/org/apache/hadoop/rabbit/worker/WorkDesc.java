@@ -1,8 +1,184 @@
 package org.apache.hadoop.rabbit.worker;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
 /**
- * Work description, each App has there work plan
+ * Work description, each App has there work plan<br />
+ * The plan of a mapper is one line of the job input, units of work handed
+ * to a {@link Worker} come from its {@link Source}. Besides its description
+ * a unit may carry a binary payload.<br />
+ * Serialized as a version byte followed by the vint length prefixed UTF-8
+ * description and payload, a length of -1 standing for none. An instance may
+ * be reused with {@link #readFields(DataInput)}, reading from a
+ * DataInputBuffer the payload is a slice of the buffer's data and only valid
+ * until the buffer is reset. Units handed to a mapper or topology must not
+ * be reused by their sender.
  */
-public class WorkDesc {
-	
+public class WorkDesc implements Writable {
+
+	/** current version of the serialized form */
+	public static final byte VERSION = 1;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final Text desc = new Text();
+
+	private boolean hasDesc;
+
+	/** getDesc() of the current description, created on demand */
+	private String descString;
+
+	private byte[] payload = EMPTY;
+
+	private int offset;
+
+	private int length = -1;
+
+	/** copy target of readFields, reused between records */
+	private byte[] buffer = EMPTY;
+
+	public WorkDesc() {
+	}
+
+	public WorkDesc(String desc) {
+		set(desc);
+	}
+
+	public WorkDesc(String desc, byte[] payload) {
+		set(desc);
+		setPayload(payload, 0, payload.length);
+	}
+
+	public void set(String desc) {
+		this.hasDesc = null != desc;
+		this.desc.set(hasDesc ? desc : "");
+		this.descString = desc;
+	}
+
+	public String getDesc() {
+		if (null == descString && hasDesc) {
+			descString = desc.toString();
+		}
+		return descString;
+	}
+
+	/**
+	 * Refer to length bytes of data from offset on, the bytes are not copied.
+	 */
+	public void setPayload(byte[] data, int offset, int length) {
+		this.payload = data;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public void clearPayload() {
+		setPayload(EMPTY, 0, -1);
+	}
+
+	public boolean hasPayload() {
+		return length >= 0;
+	}
+
+	/**
+	 * @return the array holding the payload from {@link #getPayloadOffset()}
+	 *         on, possibly shared with other instances
+	 */
+	public byte[] getPayloadBytes() {
+		return payload;
+	}
+
+	public int getPayloadOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return bytes of the payload, -1 without one
+	 */
+	public int getPayloadLength() {
+		return length;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(VERSION);
+		if (hasDesc) {
+			WritableUtils.writeVInt(out, desc.getLength());
+			out.write(desc.getBytes(), 0, desc.getLength());
+		} else {
+			WritableUtils.writeVInt(out, -1);
+		}
+		WritableUtils.writeVInt(out, length);
+		if (length > 0) {
+			out.write(payload, offset, length);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		byte version = in.readByte();
+		if (version < 1 || version > VERSION) {
+			throw new IOException("Unsupported WorkDesc version " + version);
+		}
+		int descLength = checkLength(WritableUtils.readVInt(in), "description");
+		hasDesc = descLength >= 0;
+		descString = null;
+		desc.clear();
+		if (descLength > 0) {
+			int start = read(in, descLength);
+			desc.set(in instanceof DataInputBuffer ? ((DataInputBuffer) in).getData()
+					: buffer, start, descLength);
+		}
+		int payloadLength = checkLength(WritableUtils.readVInt(in), "payload");
+		if (payloadLength <= 0) {
+			setPayload(EMPTY, 0, payloadLength);
+		} else {
+			int start = read(in, payloadLength);
+			setPayload(in instanceof DataInputBuffer ? ((DataInputBuffer) in).getData()
+					: buffer, start, payloadLength);
+		}
+	}
+
+	private static int checkLength(int length, String field) throws IOException {
+		if (length < -1) {
+			throw new IOException("Corrupt WorkDesc, " + field + " length " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Read length bytes, in place from a DataInputBuffer or else into the
+	 * reused buffer.
+	 *
+	 * @return offset of the bytes in their array
+	 */
+	private int read(DataInput in, int length) throws IOException {
+		if (in instanceof DataInputBuffer) {
+			DataInputBuffer data = (DataInputBuffer) in;
+			int start = data.getPosition();
+			if (data.getLength() - start < length) {
+				throw new EOFException("WorkDesc truncated, " + length + " bytes expected");
+			}
+			data.skipBytes(length);
+			return start;
+		}
+		if (buffer.length < length) {
+			buffer = new byte[Math.max(length, buffer.length * 2)];
+		}
+		in.readFully(buffer, 0, length);
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return getDesc();
+	}
+
 }
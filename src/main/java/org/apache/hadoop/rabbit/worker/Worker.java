@@ -1,7 +1,15 @@
 package org.apache.hadoop.rabbit.worker;
 
+import java.io.IOException;
+
+/**
+ * Processes the units of work of a resident mapper.<br />
+ * Created through ReflectionUtils, so an implementation may be Configurable;
+ * it is flushed after every batch if it is Flushable and closed at the end
+ * if it is Closeable.
+ */
 public interface Worker {
 
-	public void process(WorkDesc workDesc);
+	public void process(WorkDesc workDesc) throws IOException;
 	
 }
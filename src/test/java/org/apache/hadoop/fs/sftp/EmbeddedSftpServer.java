@@ -0,0 +1,88 @@
+package org.apache.hadoop.fs.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.Collections;
+
+import org.apache.sshd.SshServer;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.file.nativefs.NativeFileSystemFactory;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.PasswordAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.server.sftp.SftpSubsystem;
+
+/**
+ * In-process SSH server with the sftp subsystem, serving the local file
+ * system, standing in for a real sftp host in tests and benchmarks.
+ */
+public class EmbeddedSftpServer {
+
+	public static final String USER = "rabbit";
+
+	public static final String PASSWORD = "rabbit";
+
+	private final SshServer sshd;
+
+	private final int port;
+
+	public EmbeddedSftpServer() throws IOException {
+		this.port = freePort();
+		this.sshd = SshServer.setUpDefaultServer();
+		sshd.setPort(port);
+		File hostKey = File.createTempFile("rabbit-sftp", ".hostkey");
+		hostKey.delete();
+		hostKey.deleteOnExit();
+		sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(
+				hostKey.getPath(), "RSA", 2048));
+		sshd.setPasswordAuthenticator(new PasswordAuthenticator() {
+
+			@Override
+			public boolean authenticate(String username, String password,
+					ServerSession session) {
+				return USER.equals(username) && PASSWORD.equals(password);
+			}
+
+		});
+		sshd.setSubsystemFactories(Collections
+				.<NamedFactory<Command>> singletonList(new SftpSubsystem.Factory()));
+		sshd.setFileSystemFactory(new NativeFileSystemFactory());
+	}
+
+	public void start() throws IOException {
+		sshd.start();
+	}
+
+	public void stop() throws InterruptedException {
+		sshd.stop(true);
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return sftp uri of this server, or of a proxy in front of it on the
+	 *         given port
+	 */
+	public URI getUri(int port) {
+		return URI.create("sftp://" + USER + ":" + PASSWORD + "@localhost:" + port + "/");
+	}
+
+	public URI getUri() {
+		return getUri(port);
+	}
+
+	static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+}
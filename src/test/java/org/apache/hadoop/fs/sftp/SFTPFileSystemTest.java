@@ -0,0 +1,259 @@
+package org.apache.hadoop.fs.sftp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SFTPFileSystemTest {
+
+	/** above the read-through threshold of seeks, several read-ahead chunks */
+	private static final int SIZE = 700 * 1024 + 123;
+
+	private static final int CHUNK = 64 * 1024;
+
+	private static EmbeddedSftpServer server;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private byte[] data;
+
+	private File local;
+
+	private Path file;
+
+	private FileSystem fs;
+
+	@BeforeClass
+	public static void startServer() throws IOException {
+		server = new EmbeddedSftpServer();
+		server.start();
+	}
+
+	@AfterClass
+	public static void stopServer() throws InterruptedException {
+		server.stop();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		data = new byte[SIZE];
+		new Random(42).nextBytes(data);
+		local = tmp.newFile("data");
+		write(local, data);
+		file = new Path(local.getAbsolutePath());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (null != fs) {
+			fs.close();
+		}
+	}
+
+	/**
+	 * Short forward seeks read through, long and backward ones reopen, the
+	 * bytes must be the same either way.
+	 */
+	@Test(timeout = 60000)
+	public void testSeekAndPositionedRead() throws IOException {
+		fs = newFileSystem(new Configuration());
+		checkSeeks();
+	}
+
+	@Test(timeout = 60000)
+	public void testReadAhead() throws IOException {
+		Configuration conf = new Configuration();
+		conf.setInt(SFTPConstants.READ_PARALLELISM, 3);
+		conf.setInt(SFTPConstants.READ_CHUNK_SIZE, CHUNK);
+		fs = newFileSystem(conf);
+		FSDataInputStream in = fs.open(file);
+		try {
+			// odd sized reads cross the chunks at every offset
+			byte[] read = new byte[SIZE];
+			int off = 0;
+			while (off < SIZE) {
+				int n = in.read(read, off, Math.min(7919, SIZE - off));
+				assertTrue(n > 0);
+				off += n;
+			}
+			assertEquals(-1, in.read());
+			assertArrayEquals(data, read);
+		} finally {
+			in.close();
+		}
+		checkSeeks();
+	}
+
+	/**
+	 * Cached statuses and misses go with a rename, delete or create through
+	 * the file system, however long the TTL.
+	 */
+	@Test(timeout = 60000)
+	public void testCacheInvalidation() throws IOException {
+		Configuration conf = new Configuration();
+		conf.setBoolean(SFTPConstants.METADATA_CACHE_ENABLED, true);
+		conf.setLong(SFTPConstants.METADATA_CACHE_TTL, 60 * 60 * 1000);
+		fs = newFileSystem(conf);
+		Path renamed = new Path(file.getParent(), "renamed");
+		assertEquals(SIZE, fs.getFileStatus(file).getLen());
+		assertFalse(fs.exists(renamed));
+
+		assertTrue(fs.rename(file, renamed));
+		assertFalse(fs.exists(file));
+		assertEquals(SIZE, fs.getFileStatus(renamed).getLen());
+		assertEquals(1, fs.listStatus(renamed.getParent()).length);
+
+		FSDataOutputStream out = fs.create(file, false);
+		out.write(data, 0, 10);
+		out.close();
+		assertEquals(10, fs.getFileStatus(file).getLen());
+		assertEquals(2, fs.listStatus(file.getParent()).length);
+
+		assertTrue(fs.delete(renamed, false));
+		try {
+			fs.getFileStatus(renamed);
+			fail(renamed + " was deleted");
+		} catch (FileNotFoundException e) {
+			// expected
+		}
+		assertEquals(1, fs.listStatus(file.getParent()).length);
+	}
+
+	@Test(timeout = 60000)
+	public void testRecursiveDelete() throws IOException {
+		checkRecursiveDelete("dfs");
+		checkRecursiveDelete("bfs");
+	}
+
+	@Test(timeout = 60000)
+	public void testPipelinedWrite() throws IOException {
+		Configuration conf = new Configuration();
+		conf.setInt(SFTPConstants.WRITE_CHUNK_SIZE, 4096);
+		conf.setInt(SFTPConstants.WRITE_OUTSTANDING_CHUNKS, 2);
+		fs = newFileSystem(conf);
+		Path copy = new Path(file.getParent(), "sub/copy");
+		FSDataOutputStream out = fs.create(copy);
+		for (int off = 0; off < SIZE; off += 1000) {
+			out.write(data, off, Math.min(1000, SIZE - off));
+		}
+		out.close();
+		assertEquals(SIZE, fs.getFileStatus(copy).getLen());
+		FSDataInputStream in = fs.open(copy);
+		try {
+			byte[] read = new byte[SIZE];
+			in.readFully(0, read);
+			assertArrayEquals(data, read);
+		} finally {
+			in.close();
+		}
+	}
+
+	private void checkSeeks() throws IOException {
+		FSDataInputStream in = fs.open(file);
+		try {
+			long[] offsets = { 0, 100, 5000, 300 * 1024, 10, SIZE - 17, CHUNK - 1,
+					3 * CHUNK + 5 };
+			for (long offset : offsets) {
+				in.seek(offset);
+				assertEquals(offset, in.getPos());
+				byte[] read = new byte[(int) Math.min(3000, SIZE - offset)];
+				in.readFully(read);
+				assertArrayEquals("at " + offset, slice(offset, read.length), read);
+				assertEquals(offset + read.length, in.getPos());
+			}
+			in.seek(SIZE);
+			assertEquals(-1, in.read());
+
+			in.seek(1000);
+			byte[] read = new byte[2 * CHUNK];
+			in.readFully(200 * 1024, read);
+			assertArrayEquals(slice(200 * 1024, read.length), read);
+			// a positioned read leaves the position alone
+			assertEquals(1000, in.getPos());
+			assertEquals(data[1000] & 0xff, in.read());
+		} finally {
+			in.close();
+		}
+	}
+
+	private void checkRecursiveDelete(String strategy) throws IOException {
+		Configuration conf = new Configuration();
+		conf.set(SFTPConstants.WALK_STRATEGY, strategy);
+		conf.setInt(SFTPConstants.WALK_PARALLELISM, 3);
+		fs = newFileSystem(conf);
+		File tree = tmp.newFolder("tree-" + strategy);
+		TreeSet<String> expected = new TreeSet<String>();
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				File dir = new File(tree, "d" + i + "/e" + j);
+				assertTrue(dir.mkdirs());
+				for (int k = 0; k < 2; k++) {
+					File f = new File(dir, "f" + k);
+					write(f, new byte[] { (byte) k });
+					expected.add(f.getAbsolutePath());
+				}
+			}
+		}
+		Path root = new Path(tree.getAbsolutePath());
+		TreeSet<String> listed = new TreeSet<String>();
+		SFTPFileIterator files = ((SFTPFileSystem) fs).listFiles(root, true);
+		try {
+			while (files.hasNext()) {
+				listed.add(files.next().getPath().toUri().getPath());
+			}
+		} finally {
+			files.close();
+		}
+		assertEquals(expected, listed);
+
+		assertTrue(fs.delete(root, true));
+		assertFalse(tree.exists());
+		fs.close();
+		fs = null;
+	}
+
+	private FileSystem newFileSystem(Configuration conf) throws IOException {
+		conf.set("fs.sftp.impl", SFTPFileSystem.class.getName());
+		conf.setBoolean("fs.sftp.impl.disable.cache", true);
+		return FileSystem.get(server.getUri(), conf);
+	}
+
+	private byte[] slice(long offset, int length) {
+		return Arrays.copyOfRange(data, (int) offset, (int) offset + length);
+	}
+
+	private static void write(File f, byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(f);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,159 @@
+package org.apache.hadoop.rabbit.checkpoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckpointerTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private FileSystem fs;
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		fs = FileSystem.getLocal(new Configuration());
+		dir = new Path(tmp.getRoot().getPath(), "checkpoints");
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Checkpointer checkpointer = new Checkpointer(fs, dir, 100);
+		Recorder fresh = new Recorder();
+		assertFalse(checkpointer.restore(participants(fresh)));
+		checkpointer.write(changes("a", "1", "b", "2"));
+		checkpointer.write(changes("a", "3", "b", null));
+		checkpointer.write(changes("c", "4"));
+		checkpointer.close();
+
+		Recorder restored = new Recorder();
+		assertTrue(new Checkpointer(fs, dir, 100).restore(participants(restored)));
+		assertEquals("3", restored.get("a"));
+		assertNull(restored.get("b"));
+		assertEquals("4", restored.get("c"));
+		assertEquals(2, restored.values.size());
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		Checkpointer checkpointer = new Checkpointer(fs, dir, 2);
+		for (int i = 0; i < 5; i++) {
+			checkpointer.write(changes("k" + i, Integer.toString(i), "last",
+					Integer.toString(i)));
+		}
+		checkpointer.close();
+		assertEquals(new TreeSet<String>(Arrays.asList(
+				"base-0000000000000000003", "delta-0000000000000000004")), files());
+
+		Recorder restored = new Recorder();
+		new Checkpointer(fs, dir, 2).restore(participants(restored));
+		assertEquals(6, restored.values.size());
+		assertEquals("0", restored.get("k0"));
+		assertEquals("4", restored.get("k4"));
+		assertEquals("4", restored.get("last"));
+	}
+
+	/**
+	 * The deltas past a lost one are dropped, the next writes take their
+	 * place.
+	 */
+	@Test
+	public void testMissingDelta() throws IOException {
+		Checkpointer checkpointer = new Checkpointer(fs, dir, 100);
+		for (int i = 0; i < 4; i++) {
+			checkpointer.write(changes("k" + i, Integer.toString(i)));
+		}
+		checkpointer.close();
+		assertTrue(fs.delete(new Path(dir, "delta-0000000000000000001"), false));
+
+		checkpointer = new Checkpointer(fs, dir, 100);
+		Recorder restored = new Recorder();
+		assertTrue(checkpointer.restore(participants(restored)));
+		assertEquals(Collections.singletonMap("k0", "0"), restored.strings());
+		assertEquals(Collections.singleton("delta-0000000000000000000"), files());
+
+		checkpointer.write(changes("k1", "again"));
+		checkpointer.write(changes("k2", "again"));
+		checkpointer.close();
+		restored = new Recorder();
+		new Checkpointer(fs, dir, 100).restore(participants(restored));
+		assertEquals(3, restored.values.size());
+		assertEquals("again", restored.get("k2"));
+	}
+
+	private TreeSet<String> files() throws IOException {
+		TreeSet<String> names = new TreeSet<String>();
+		for (FileStatus status : fs.listStatus(dir)) {
+			if (!status.getPath().getName().startsWith(".")) {
+				names.add(status.getPath().getName());
+			}
+		}
+		return names;
+	}
+
+	private static Map<String, Checkpointable> participants(Recorder recorder) {
+		return Collections.<String, Checkpointable> singletonMap("p", recorder);
+	}
+
+	/**
+	 * @return changes of participant p from key, value pairs, a null value
+	 *         removes its key
+	 */
+	private static Map<String, Map<String, byte[]>> changes(String... pairs) {
+		Map<String, byte[]> entries = new HashMap<String, byte[]>();
+		for (int i = 0; i < pairs.length; i += 2) {
+			entries.put(pairs[i], null == pairs[i + 1] ? null : pairs[i + 1].getBytes());
+		}
+		return Collections.singletonMap("p", entries);
+	}
+
+	private static class Recorder implements Checkpointable {
+
+		final Map<String, byte[]> values = new HashMap<String, byte[]>();
+
+		@Override
+		public void checkpoint(StateStore store) {
+		}
+
+		@Override
+		public void restore(String key, byte[] value) {
+			values.put(key, value);
+		}
+
+		String get(String key) {
+			byte[] value = values.get(key);
+			return null == value ? null : new String(value);
+		}
+
+		Map<String, String> strings() {
+			Map<String, String> strings = new TreeMap<String, String>();
+			for (String key : values.keySet()) {
+				strings.put(key, get(key));
+			}
+			return strings;
+		}
+
+	}
+
+}
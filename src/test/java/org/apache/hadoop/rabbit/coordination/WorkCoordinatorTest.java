@@ -0,0 +1,235 @@
+package org.apache.hadoop.rabbit.coordination;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorkCoordinatorTest {
+
+	private static final String GROUP = "/rabbit/test/group";
+
+	private static final int UNITS = 6;
+
+	private static final int SESSION_TIMEOUT = 4000;
+
+	private static final long WAIT = 20000;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private ZooKeeperServer server;
+
+	private NIOServerCnxnFactory factory;
+
+	private String quorum;
+
+	private final List<WorkCoordinator> coordinators = new ArrayList<WorkCoordinator>();
+
+	@Before
+	public void setUp() throws Exception {
+		File dir = tmp.newFolder("zk");
+		server = new ZooKeeperServer(dir, dir, 2000);
+		factory = new NIOServerCnxnFactory();
+		factory.configure(new InetSocketAddress("127.0.0.1", 0), 60);
+		factory.startup(server);
+		quorum = "127.0.0.1:" + factory.getLocalPort();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (WorkCoordinator coordinator : coordinators) {
+			coordinator.close();
+		}
+		factory.shutdown();
+	}
+
+	/**
+	 * Members joining only take units from the others, members staying keep
+	 * what they hold.
+	 */
+	@Test(timeout = 60000)
+	public void testJoinIsSticky() throws Exception {
+		Recorder a = new Recorder();
+		WorkCoordinator ca = join("a", a);
+		awaitBalanced(ca);
+		assertEquals(UNITS, ca.getAssignment().size());
+
+		Recorder b = new Recorder();
+		WorkCoordinator cb = join("b", b);
+		awaitBalanced(ca, cb);
+		Set<String> aOfTwo = ca.getAssignment();
+		assertEquals(3, aOfTwo.size());
+
+		Recorder c = new Recorder();
+		WorkCoordinator cc = join("c", c);
+		awaitBalanced(ca, cb, cc);
+		assertTrue(aOfTwo.containsAll(ca.getAssignment()));
+		assertTrue(c.revoked.isEmpty());
+		// a never got anything back it had given up
+		assertEquals(UNITS, a.assignedCount);
+		assertEquals(a.current(), ca.getAssignment());
+	}
+
+	@Test(timeout = 60000)
+	public void testLeave() throws Exception {
+		WorkCoordinator ca = join("a", new Recorder());
+		WorkCoordinator cb = join("b", new Recorder());
+		Recorder c = new Recorder();
+		WorkCoordinator cc = join("c", c);
+		awaitBalanced(ca, cb, cc);
+		Set<String> aBefore = ca.getAssignment();
+		Set<String> bBefore = cb.getAssignment();
+		Set<String> cBefore = cc.getAssignment();
+
+		cc.close();
+		coordinators.remove(cc);
+		assertTrue(c.current().isEmpty());
+		awaitBalanced(ca, cb);
+		assertTrue(ca.getAssignment().containsAll(aBefore));
+		assertTrue(cb.getAssignment().containsAll(bBefore));
+		Set<String> taken = new TreeSet<String>(ca.getAssignment());
+		taken.addAll(cb.getAssignment());
+		assertTrue(taken.containsAll(cBefore));
+	}
+
+	/**
+	 * A member whose session expired loses its units, joins again and gets
+	 * its share back.
+	 */
+	@Test(timeout = 60000)
+	public void testSessionExpiry() throws Exception {
+		Recorder a = new Recorder();
+		WorkCoordinator ca = join("a", a);
+		Recorder b = new Recorder();
+		WorkCoordinator cb = join("b", b);
+		awaitBalanced(ca, cb);
+		Set<String> bBefore = cb.getAssignment();
+
+		server.closeSession(sessionOf("b"));
+		long deadline = System.currentTimeMillis() + WAIT;
+		while (!b.revoked.containsAll(bBefore)) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("b never gave up " + bBefore + " after its session expired");
+			}
+			Thread.sleep(50);
+		}
+		awaitBalanced(ca, cb);
+		assertEquals(b.current(), cb.getAssignment());
+		assertEquals(a.current(), ca.getAssignment());
+	}
+
+	private WorkCoordinator join(String member, AssignmentListener listener)
+			throws IOException {
+		WorkCoordinator coordinator = new WorkCoordinator(quorum, SESSION_TIMEOUT,
+				GROUP, member, listener);
+		coordinators.add(coordinator);
+		coordinator.start();
+		coordinator.addUnits(WorkCoordinator.units(UNITS));
+		return coordinator;
+	}
+
+	/**
+	 * Wait until the members own every unit once, in shares differing by one
+	 * at most.
+	 */
+	private static void awaitBalanced(WorkCoordinator... members)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT;
+		String state = null;
+		while (System.currentTimeMillis() < deadline) {
+			Set<String> all = new HashSet<String>();
+			int total = 0;
+			int min = Integer.MAX_VALUE;
+			int max = 0;
+			StringBuilder assignments = new StringBuilder();
+			for (WorkCoordinator member : members) {
+				Set<String> owned = member.getAssignment();
+				all.addAll(owned);
+				total += owned.size();
+				min = Math.min(min, owned.size());
+				max = Math.max(max, owned.size());
+				assignments.append(member.getMemberId()).append(owned);
+			}
+			state = assignments.toString();
+			if (UNITS == all.size() && UNITS == total && max - min <= 1) {
+				return;
+			}
+			Thread.sleep(50);
+		}
+		fail("Not balanced: " + state);
+	}
+
+	private long sessionOf(String member) throws Exception {
+		ZooKeeper zk = new ZooKeeper(quorum, SESSION_TIMEOUT, new Watcher() {
+
+			@Override
+			public void process(WatchedEvent event) {
+			}
+
+		});
+		try {
+			long deadline = System.currentTimeMillis() + WAIT;
+			while (ZooKeeper.States.CONNECTED != zk.getState()) {
+				assertFalse("Not connected", System.currentTimeMillis() > deadline);
+				Thread.sleep(50);
+			}
+			Stat stat = zk.exists(GROUP + "/members/" + member, false);
+			return stat.getEphemeralOwner();
+		} finally {
+			zk.close();
+		}
+	}
+
+	private static class Recorder implements AssignmentListener {
+
+		final Set<String> units = Collections.synchronizedSet(new TreeSet<String>());
+
+		final Set<String> revoked = Collections.synchronizedSet(new TreeSet<String>());
+
+		volatile int assignedCount;
+
+		@Override
+		public void assigned(Collection<String> assigned) {
+			units.addAll(assigned);
+			assignedCount += assigned.size();
+		}
+
+		@Override
+		public void revoked(Collection<String> lost) {
+			units.removeAll(lost);
+			revoked.addAll(lost);
+		}
+
+		Set<String> current() {
+			synchronized (units) {
+				return new TreeSet<String>(units);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,133 @@
+package org.apache.hadoop.rabbit.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProgressReporterTest {
+
+	private static final long STALL_TIMEOUT = 200;
+
+	private final AtomicInteger progress = new AtomicInteger();
+
+	private final Map<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+	private ProgressReporter reporter;
+
+	@Before
+	public void setUp() throws Exception {
+		Configuration conf = new Configuration();
+		conf.setLong(RabbitConstants.REPORT_INTERVAL, 10);
+		conf.setLong(RabbitConstants.REPORT_STALL_TIMEOUT, STALL_TIMEOUT);
+		conf.setBoolean(RabbitConstants.REPORT_METRICS, false);
+		Mapper<LongWritable, Text, NullWritable, NullWritable> mapper =
+				new Mapper<LongWritable, Text, NullWritable, NullWritable>();
+		reporter = new ProgressReporter(mapper.new Context(conf, new TaskAttemptID(),
+				null, null, null, new StatusReporter() {
+
+					@Override
+					public Counter getCounter(Enum<?> name) {
+						return getCounter(name.getDeclaringClass().getName(), name.name());
+					}
+
+					@Override
+					public Counter getCounter(String group, String name) {
+						String key = group + ":" + name;
+						Counter counter = counters.get(key);
+						if (null == counter) {
+							counter = new Counter() {
+							};
+							counters.put(key, counter);
+						}
+						return counter;
+					}
+
+					@Override
+					public void progress() {
+						progress.incrementAndGet();
+					}
+
+					@Override
+					public void setStatus(String status) {
+					}
+
+				}, null));
+		reporter.start();
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		reporter.shutdown();
+	}
+
+	/**
+	 * One hung plan stops the progress of the task, however busy the others.
+	 */
+	@Test(timeout = 10000)
+	public void testHungLoopStalls() throws InterruptedException {
+		ProgressReporter.Loop busy = reporter.startLoop();
+		reporter.startLoop();
+		long end = System.currentTimeMillis() + 2 * STALL_TIMEOUT;
+		while (System.currentTimeMillis() < end) {
+			busy.heartbeat(true);
+			// the mapper beats as well, it must not count while plans are served
+			reporter.heartbeat(true);
+			Thread.sleep(5);
+		}
+		int before = progress.get();
+		for (int i = 0; i < 10; i++) {
+			busy.heartbeat(true);
+			reporter.heartbeat(true);
+			Thread.sleep(10);
+		}
+		assertEquals(before, progress.get());
+		assertTrue(counters.get(RabbitCounter.class.getName() + ":LAG").getValue()
+				>= STALL_TIMEOUT);
+	}
+
+	@Test(timeout = 10000)
+	public void testEndedLoopNoLongerCounts() throws InterruptedException {
+		ProgressReporter.Loop busy = reporter.startLoop();
+		ProgressReporter.Loop hung = reporter.startLoop();
+		Thread.sleep(STALL_TIMEOUT / 2);
+		reporter.endLoop(hung);
+		long end = System.currentTimeMillis() + 2 * STALL_TIMEOUT;
+		while (System.currentTimeMillis() < end) {
+			busy.heartbeat(true);
+			Thread.sleep(5);
+		}
+		int before = progress.get();
+		Thread.sleep(50);
+		busy.heartbeat(true);
+		assertTrue(progress.get() > before);
+	}
+
+	@Test(timeout = 10000)
+	public void testIdleMapperHeartbeat() throws InterruptedException {
+		long end = System.currentTimeMillis() + 2 * STALL_TIMEOUT;
+		while (System.currentTimeMillis() < end) {
+			reporter.heartbeat(true);
+			Thread.sleep(5);
+		}
+		int before = progress.get();
+		Thread.sleep(50);
+		assertTrue(progress.get() > before);
+	}
+
+}
@@ -0,0 +1,139 @@
+package org.apache.hadoop.rabbit.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.rabbit.checkpoint.Checkpointable;
+import org.apache.hadoop.rabbit.checkpoint.Checkpointer;
+import org.apache.hadoop.rabbit.checkpoint.StateStore;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TaskCheckpointTest {
+
+	private static final long INTERVAL = 5;
+
+	private final List<Map<String, Map<String, byte[]>>> written =
+			new ArrayList<Map<String, Map<String, byte[]>>>();
+
+	private Counting worker;
+
+	private Counting source;
+
+	private TaskCheckpoint checkpoint;
+
+	@Before
+	public void setUp() throws IOException {
+		worker = new Counting();
+		source = new Counting();
+		Checkpointer checkpointer = new Checkpointer(FileSystem.getLocal(
+				new Configuration()), new Path("unused"), 1) {
+
+			@Override
+			public void write(Map<String, Map<String, byte[]>> changes) {
+				written.add(changes);
+			}
+
+		};
+		checkpoint = new TaskCheckpoint(checkpointer, worker, source, INTERVAL);
+	}
+
+	/**
+	 * The source checkpoint comes in after the loop took a full batch, the
+	 * batch is cut at its unit.
+	 */
+	@Test
+	public void testBarrierAfterBatchTaken() throws Exception {
+		request(0);
+		assertEquals(10, checkpoint.limit(0, 10));
+		// the reader answers only now, the loop holds units up to 10
+		source.count = 3;
+		checkpoint.read(3);
+
+		checkpoint.processed(0);
+		assertEquals(3, checkpoint.limit(0, 10));
+		worker.count = 3;
+		checkpoint.processed(3);
+		assertEquals(1, written.size());
+		assertEquals(3, value(written.get(0), "worker"));
+		assertEquals(3, value(written.get(0), "source"));
+		assertEquals(7, checkpoint.limit(3, 7));
+	}
+
+	/**
+	 * A worker which got past the source checkpoint must not block the
+	 * checkpoints and batches for the rest of the task.
+	 */
+	@Test
+	public void testProcessedPastBarrier() throws Exception {
+		request(0);
+		source.count = 3;
+		checkpoint.read(3);
+		worker.count = 10;
+		checkpoint.processed(10);
+		assertEquals(1, written.size());
+		assertEquals(100, checkpoint.limit(10, 100));
+
+		request(10);
+		source.count = 20;
+		checkpoint.read(20);
+		assertEquals(10, checkpoint.limit(10, 100));
+		worker.count = 20;
+		checkpoint.processed(20);
+		assertEquals(2, written.size());
+		assertEquals(20, value(written.get(1), "worker"));
+	}
+
+	@Test
+	public void testBarrierReachedLimitsToNothing() throws Exception {
+		request(5);
+		source.count = 5;
+		checkpoint.read(5);
+		assertEquals(0, checkpoint.limit(5, 10));
+		worker.count = 5;
+		checkpoint.processed(5);
+		assertEquals(1, written.size());
+		assertEquals(10, checkpoint.limit(5, 10));
+	}
+
+	/**
+	 * Let the interval pass and have the loop ask the reader for a source
+	 * checkpoint.
+	 */
+	private void request(long processed) throws Exception {
+		Thread.sleep(2 * INTERVAL);
+		int before = written.size();
+		checkpoint.processed(processed);
+		assertEquals(before, written.size());
+		// the reader has not answered yet
+		assertEquals(100, checkpoint.limit(processed, 100));
+	}
+
+	private static long value(Map<String, Map<String, byte[]>> changes, String section) {
+		return Long.parseLong(new String(changes.get(section).get("count")));
+	}
+
+	private static class Counting implements Checkpointable {
+
+		long count;
+
+		@Override
+		public void checkpoint(StateStore store) {
+			store.put("count", Long.toString(count).getBytes());
+		}
+
+		@Override
+		public void restore(String key, byte[] value) {
+			count = Long.parseLong(new String(value));
+		}
+
+	}
+
+}
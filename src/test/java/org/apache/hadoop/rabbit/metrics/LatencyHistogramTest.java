@@ -0,0 +1,50 @@
+package org.apache.hadoop.rabbit.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBuckets() {
+		for (long value : new long[] { 0, 1, 15, 16, 17, 1000, 123456789L,
+				Long.MAX_VALUE }) {
+			long highest = LatencyHistogram.highestValue(LatencyHistogram.bucket(value));
+			assertTrue(value + " above " + highest, value <= highest);
+			assertTrue(value + " far below " + highest, highest - value <= value / 16);
+		}
+	}
+
+	/**
+	 * Threads which recorded and died leave their counts, not their cells.
+	 */
+	@Test(timeout = 10000)
+	public void testDeadThreadsFolded() throws InterruptedException {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 50; i++) {
+			Thread t = new Thread() {
+
+				@Override
+				public void run() {
+					histogram.record(100);
+					histogram.record(200);
+				}
+
+			};
+			t.start();
+			t.join();
+		}
+		histogram.record(300);
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(101, snapshot.getCount());
+		assertEquals(50 * 300 + 300, snapshot.getSum());
+		assertEquals(1, histogram.cellCount());
+		// a live thread keeps counting into its cell
+		histogram.record(300);
+		assertEquals(102, histogram.snapshot().getCount());
+		assertEquals(1, histogram.cellCount());
+	}
+
+}
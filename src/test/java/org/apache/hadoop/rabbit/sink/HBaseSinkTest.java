@@ -0,0 +1,205 @@
+package org.apache.hadoop.rabbit.sink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.rabbit.util.RabbitConstants;
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HBaseSinkTest {
+
+	/** rows per flushCommits() of the stand-in, shared with the factory */
+	static final List<List<String>> flushed = new ArrayList<List<String>>();
+
+	static int failPuts;
+
+	static int failFlushes;
+
+	static int released;
+
+	private Configuration conf;
+
+	@Before
+	public void setUp() {
+		synchronized (flushed) {
+			flushed.clear();
+			failPuts = 0;
+			failFlushes = 0;
+			released = 0;
+		}
+		conf = new Configuration(false);
+		conf.set(RabbitConstants.HBASE_TABLE, "t");
+		conf.setClass(RabbitConstants.HBASE_TABLE_FACTORY, StandInFactory.class,
+				HTableInterfaceFactory.class);
+		conf.setInt(RabbitConstants.HBASE_FLUSHERS, 1);
+		conf.setLong(RabbitConstants.HBASE_BATCH_LINGER, 60000);
+		conf.setLong(RabbitConstants.HBASE_RETRY_BACKOFF, 1);
+	}
+
+	@Test(timeout = 10000)
+	public void testBatchBySize() throws IOException {
+		long putSize = new Put(Bytes.toBytes("r00")).add(Bytes.toBytes("d"),
+				Bytes.toBytes("v"), Bytes.toBytes(0)).heapSize();
+		conf.setLong(RabbitConstants.HBASE_BATCH_BYTES, 10 * putSize);
+		HBaseSink sink = newSink();
+		for (int i = 0; i < 25; i++) {
+			sink.process(unit(i));
+		}
+		sink.flush();
+		List<List<String>> batches = flushed();
+		assertEquals(3, batches.size());
+		assertEquals(10, batches.get(0).size());
+		assertEquals(10, batches.get(1).size());
+		assertEquals(5, batches.get(2).size());
+		assertEquals("r00", batches.get(0).get(0));
+		assertEquals(25, sink.getFlushedPuts());
+		sink.close();
+		assertEquals(1, released);
+	}
+
+	@Test(timeout = 10000)
+	public void testBatchByTime() throws Exception {
+		conf.setLong(RabbitConstants.HBASE_BATCH_LINGER, 20);
+		HBaseSink sink = newSink();
+		for (int i = 0; i < 3; i++) {
+			sink.process(unit(i));
+		}
+		while (flushed().isEmpty()) {
+			Thread.sleep(10);
+		}
+		assertEquals(3, flushed().get(0).size());
+		sink.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testRetry() throws IOException {
+		synchronized (flushed) {
+			failPuts = 1;
+			failFlushes = 2;
+		}
+		HBaseSink sink = newSink();
+		for (int i = 0; i < 5; i++) {
+			sink.process(unit(i));
+		}
+		sink.flush();
+		List<List<String>> batches = flushed();
+		assertEquals(1, batches.size());
+		assertEquals(5, batches.get(0).size());
+		sink.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testGiveUpAndClose() throws IOException {
+		synchronized (flushed) {
+			failFlushes = Integer.MAX_VALUE;
+		}
+		conf.setInt(RabbitConstants.HBASE_RETRIES, 0);
+		conf.setInt(RabbitConstants.HBASE_QUEUE_BATCHES, 1);
+		conf.setLong(RabbitConstants.HBASE_BATCH_BYTES, 1);
+		HBaseSink sink = newSink();
+		try {
+			for (int i = 0; i < 100; i++) {
+				sink.process(unit(i));
+			}
+			sink.flush();
+			fail("Flushes never succeed");
+		} catch (IOException e) {
+			// expected
+		}
+		try {
+			sink.close();
+			fail("The sink failed");
+		} catch (IOException e) {
+			// expected, but it returns
+		}
+		assertTrue(flushed().isEmpty());
+		assertEquals(1, released);
+	}
+
+	private HBaseSink newSink() {
+		HBaseSink sink = new HBaseSink();
+		sink.setConf(conf);
+		return sink;
+	}
+
+	private static WorkDesc unit(int i) {
+		return new WorkDesc(String.format("r%02d", i), Bytes.toBytes(i));
+	}
+
+	private static List<List<String>> flushed() {
+		synchronized (flushed) {
+			return new ArrayList<List<String>>(flushed);
+		}
+	}
+
+	/**
+	 * Hands out tables which buffer puts until flushCommits(), failing as
+	 * many put() and flushCommits() calls as asked to.
+	 */
+	public static class StandInFactory implements HTableInterfaceFactory {
+
+		@Override
+		public HTableInterface createHTableInterface(Configuration config,
+				byte[] tableName) {
+			final List<String> buffer = new ArrayList<String>();
+			return (HTableInterface) Proxy.newProxyInstance(
+					HTableInterface.class.getClassLoader(),
+					new Class<?>[] { HTableInterface.class }, new InvocationHandler() {
+
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args)
+								throws IOException {
+							String name = method.getName();
+							if ("put".equals(name)) {
+								synchronized (flushed) {
+									if (failPuts > 0) {
+										failPuts--;
+										throw new IOException("put failed");
+									}
+								}
+								for (Object put : (List<?>) args[0]) {
+									buffer.add(Bytes.toString(((Put) put).getRow()));
+								}
+							} else if ("flushCommits".equals(name)) {
+								synchronized (flushed) {
+									if (failFlushes > 0) {
+										failFlushes--;
+										throw new IOException("flush failed");
+									}
+									flushed.add(new ArrayList<String>(buffer));
+								}
+								buffer.clear();
+							} else if ("getWriteBufferSize".equals(name)) {
+								return 0L;
+							}
+							return null;
+						}
+
+					});
+		}
+
+		@Override
+		public void releaseHTableInterface(HTableInterface table) {
+			synchronized (flushed) {
+				released++;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,123 @@
+package org.apache.hadoop.rabbit.spill;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.rabbit.worker.WorkDesc;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillLogTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File dir;
+
+	private SpillLog log;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = new File(tmp.getRoot(), "spill");
+		log = new SpillLog(dir, 1024, 8);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		log.close();
+	}
+
+	@Test
+	public void testOrderAcrossSegments() throws IOException {
+		for (int i = 0; i < 50; i++) {
+			assertTrue(log.append(unit("u" + i, 100)));
+		}
+		assertEquals(50, log.size());
+		List<WorkDesc> read = new ArrayList<WorkDesc>();
+		assertEquals(50, log.drainTo(read, 1000));
+		for (int i = 0; i < 50; i++) {
+			assertEquals("u" + i, read.get(i).getDesc());
+			assertEquals(100, read.get(i).getPayloadLength());
+		}
+		assertTrue(log.isEmpty());
+		assertNull(log.poll());
+	}
+
+	@Test
+	public void testFullLogRefuses() throws IOException {
+		int appended = 0;
+		while (log.append(unit("u" + appended, 200))) {
+			appended++;
+		}
+		assertEquals(8, dir.list().length);
+		assertEquals("u0", log.poll().getDesc());
+		// the first segment is not read out yet
+		assertFalse(log.append(unit("late", 200)));
+		List<WorkDesc> read = new ArrayList<WorkDesc>();
+		log.drainTo(read, 4);
+		assertTrue(log.append(unit("late", 200)));
+		assertEquals(8, dir.list().length);
+	}
+
+	@Test
+	public void testPeek() throws IOException {
+		log.append(unit("a", 10));
+		log.append(unit("b", 10));
+		assertEquals("a", log.peek().getDesc());
+		assertEquals("a", log.poll().getDesc());
+		assertEquals("b", log.peek().getDesc());
+		assertEquals(1, log.size());
+	}
+
+	/**
+	 * A new segment must not take over the file of an oversized one which
+	 * was deleted while other segments still hold records.
+	 */
+	@Test
+	public void testOversizedThenRecycled() throws IOException {
+		assertTrue(log.append(unit("big", 4000)));
+		for (int i = 0; i < 10; i++) {
+			assertTrue(log.append(unit("c" + i, 150)));
+		}
+		assertEquals("big", log.poll().getDesc());
+		assertEquals("c0", log.poll().getDesc());
+		for (int i = 0; i < 6; i++) {
+			assertTrue(log.append(unit("d" + i, 150)));
+		}
+		List<String> read = new ArrayList<String>();
+		WorkDesc work;
+		while (null != (work = log.poll())) {
+			read.add(work.getDesc());
+		}
+		List<String> expected = new ArrayList<String>();
+		for (int i = 1; i < 10; i++) {
+			expected.add("c" + i);
+		}
+		for (int i = 0; i < 6; i++) {
+			expected.add("d" + i);
+		}
+		assertEquals(expected, read);
+	}
+
+	@Test
+	public void testCloseRemovesFiles() throws IOException {
+		log.append(unit("a", 10));
+		log.close();
+		assertFalse(dir.exists());
+	}
+
+	private static WorkDesc unit(String desc, int payload) {
+		return new WorkDesc(desc, new byte[payload]);
+	}
+
+}
@@ -0,0 +1,35 @@
+package org.apache.hadoop.rabbit.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AccumulatorTest {
+
+	/**
+	 * Threads which added and died leave their sums, not their cells.
+	 */
+	@Test(timeout = 10000)
+	public void testDeadThreadsFolded() throws InterruptedException {
+		final Accumulator accumulator = new Accumulator();
+		for (int i = 0; i < 50; i++) {
+			Thread t = new Thread() {
+
+				@Override
+				public void run() {
+					accumulator.add(2);
+					accumulator.increment();
+				}
+
+			};
+			t.start();
+			t.join();
+		}
+		accumulator.add(10);
+		assertEquals(50 * 3 + 10, accumulator.sum());
+		assertEquals(1, accumulator.cellCount());
+		accumulator.increment();
+		assertEquals(50 * 3 + 11, accumulator.sum());
+	}
+
+}
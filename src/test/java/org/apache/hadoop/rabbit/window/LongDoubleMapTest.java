@@ -0,0 +1,37 @@
+package org.apache.hadoop.rabbit.window;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongDoubleMapTest {
+
+	@Test
+	public void testAgainstHashMap() {
+		Random random = new Random(7);
+		LongDoubleMap map = new LongDoubleMap(4);
+		Map<Long, Double> expected = new HashMap<Long, Double>();
+		for (int i = 0; i < 100000; i++) {
+			long key = random.nextInt(1000) - 500;
+			if (random.nextInt(3) > 0) {
+				Double old = expected.get(key);
+				expected.put(key, (null == old ? 0 : old) + 0.5);
+				assertEquals(expected.get(key), map.add(key, 0.5), 0);
+			} else {
+				assertEquals(null != expected.remove(key), map.remove(key));
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Long, Double> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey(), -1), 0);
+		}
+		map.clear();
+		assertEquals(0, map.size());
+		assertEquals(-1, map.get(0, -1), 0);
+	}
+
+}
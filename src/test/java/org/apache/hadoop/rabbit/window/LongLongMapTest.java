@@ -0,0 +1,70 @@
+package org.apache.hadoop.rabbit.window;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongLongMapTest {
+
+	@Test
+	public void testPutAddRemove() {
+		LongLongMap map = new LongLongMap();
+		map.put(1, 10);
+		assertEquals(11, map.add(1, 1));
+		assertEquals(5, map.add(2, 5));
+		assertEquals(-1, map.get(3, -1));
+		assertTrue(map.containsKey(2));
+		assertTrue(map.remove(2));
+		assertFalse(map.remove(2));
+		assertFalse(map.containsKey(2));
+		assertEquals(1, map.size());
+		map.clear();
+		assertEquals(0, map.size());
+		assertEquals(-1, map.nextSlot(0));
+	}
+
+	/**
+	 * Removing from the middle of probe chains must keep every other key
+	 * reachable, with and without growing.
+	 */
+	@Test
+	public void testAgainstHashMap() {
+		Random random = new Random(42);
+		LongLongMap map = new LongLongMap(4);
+		Map<Long, Long> expected = new HashMap<Long, Long>();
+		for (int i = 0; i < 200000; i++) {
+			// few distinct keys, so chains form and get broken up often
+			long key = random.nextInt(2000) * 1024L;
+			switch (random.nextInt(3)) {
+			case 0:
+				map.put(key, i);
+				expected.put(key, (long) i);
+				break;
+			case 1:
+				Long old = expected.get(key);
+				expected.put(key, (null == old ? 0 : old) + i);
+				assertEquals((long) expected.get(key), map.add(key, i));
+				break;
+			default:
+				assertEquals(null != expected.remove(key), map.remove(key));
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+			assertEquals((long) entry.getValue(), map.get(entry.getKey(), -1));
+		}
+		int seen = 0;
+		for (int s = map.nextSlot(0); s >= 0; s = map.nextSlot(s + 1)) {
+			assertEquals(expected.get(map.keyAt(s)).longValue(), map.valueAt(s));
+			seen++;
+		}
+		assertEquals(expected.size(), seen);
+	}
+
+}
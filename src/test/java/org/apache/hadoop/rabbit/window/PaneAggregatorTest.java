@@ -0,0 +1,75 @@
+package org.apache.hadoop.rabbit.window;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PaneAggregatorTest {
+
+	private final Recorder output = new Recorder();
+
+	@Test
+	public void testTumbling() throws Exception {
+		WindowAggregator aggregator = new PaneAggregator(10, 10, output)
+				.useEventTime(0);
+		aggregator.add(1, 1, 1, 1.0);
+		aggregator.add(2, 5, 1, 2.0);
+		aggregator.add(1, 9, 2, 3.0);
+		assertEquals(Collections.emptyList(), output.take());
+		aggregator.add(1, 12, 1, 1.0);
+		assertEquals(sorted("0-10 1=3/4.0", "0-10 2=1/2.0"), sorted(output.take()));
+		aggregator.flush();
+		assertEquals(Arrays.asList("10-20 1=1/1.0"), output.take());
+	}
+
+	@Test
+	public void testSliding() throws Exception {
+		WindowAggregator aggregator = new PaneAggregator(20, 10, output)
+				.useEventTime(0);
+		aggregator.add(1, 5, 1, 1.0);
+		aggregator.add(1, 15, 1, 1.0);
+		aggregator.advance(20);
+		assertEquals(Arrays.asList("-10-10 1=1/1.0", "0-20 1=2/2.0"), output.take());
+		aggregator.advance(30);
+		assertEquals(Arrays.asList("10-30 1=1/1.0"), output.take());
+		aggregator.flush();
+		assertEquals(Collections.emptyList(), output.take());
+	}
+
+	/**
+	 * Events behind the open windows are late, events far ahead grow the
+	 * ring and land in their own windows.
+	 */
+	@Test
+	public void testLateAndFarAhead() throws Exception {
+		WindowAggregator aggregator = new PaneAggregator(20, 10, output)
+				.useEventTime(5);
+		aggregator.add(1, 100, 1, 1.0);
+		// the watermark is 95, the window 80-100 is still open
+		aggregator.add(1, 85, 1, 1.0);
+		aggregator.add(1, 75, 1, 1.0);
+		assertEquals(1, aggregator.getLate());
+		// 30 panes ahead, more than the ring holds
+		aggregator.add(2, 400, 1, 1.0);
+		assertEquals(Arrays.asList("80-100 1=1/1.0", "90-110 1=1/1.0",
+				"100-120 1=1/1.0"), output.take());
+		aggregator.flush();
+		assertEquals(Arrays.asList("390-410 2=1/1.0", "400-420 2=1/1.0"),
+				output.take());
+	}
+
+	private static List<String> sorted(String... windows) {
+		return sorted(Arrays.asList(windows));
+	}
+
+	private static List<String> sorted(List<String> windows) {
+		String[] array = windows.toArray(new String[windows.size()]);
+		Arrays.sort(array);
+		return Arrays.asList(array);
+	}
+
+}
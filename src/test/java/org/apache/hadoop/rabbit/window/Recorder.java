@@ -0,0 +1,24 @@
+package org.apache.hadoop.rabbit.window;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the emitted windows as "start-end key=count/sum".
+ */
+class Recorder implements WindowOutput {
+
+	final List<String> windows = new ArrayList<String>();
+
+	@Override
+	public void emit(long start, long end, long key, long count, double sum) {
+		windows.add(start + "-" + end + " " + key + "=" + count + "/" + sum);
+	}
+
+	List<String> take() {
+		List<String> taken = new ArrayList<String>(windows);
+		windows.clear();
+		return taken;
+	}
+
+}
@@ -0,0 +1,67 @@
+package org.apache.hadoop.rabbit.window;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class SessionAggregatorTest {
+
+	private final Recorder output = new Recorder();
+
+	private final WindowAggregator aggregator = new SessionAggregator(10, output)
+			.useEventTime(0);
+
+	@Test
+	public void testMergeAndClose() throws Exception {
+		aggregator.add(1, 100, 1, 1.0);
+		aggregator.add(1, 108, 1, 1.0);
+		// out of order, but within the gap of the session start
+		aggregator.add(1, 104, 1, 1.0);
+		aggregator.advance(117);
+		assertEquals(Collections.emptyList(), output.take());
+		aggregator.advance(118);
+		assertEquals(Arrays.asList("100-118 1=3/3.0"), output.take());
+	}
+
+	@Test
+	public void testEventAfterGapStartsNext() throws Exception {
+		aggregator.useEventTime(100);
+		aggregator.add(1, 100, 1, 1.0);
+		aggregator.add(1, 111, 1, 2.0);
+		assertEquals(Arrays.asList("100-110 1=1/1.0"), output.take());
+		// far behind the open session
+		aggregator.add(1, 50, 1, 1.0);
+		assertEquals(1, aggregator.getLate());
+		aggregator.advance(121);
+		assertEquals(Arrays.asList("111-121 1=1/2.0"), output.take());
+		aggregator.flush();
+		assertEquals(Collections.emptyList(), output.take());
+	}
+
+	/**
+	 * Staggered sessions close in the order of their ends, a session which
+	 * got longer after it was queued is kept open until its new end.
+	 */
+	@Test
+	public void testStaggered() throws Exception {
+		for (int key = 0; key < 100; key++) {
+			aggregator.add(key, key, 1, 1.0);
+		}
+		// key 99 keeps its session going
+		aggregator.add(99, 105, 1, 1.0);
+		// keys 0 to 95 closed on the way
+		assertEquals(96, output.take().size());
+		aggregator.advance(109);
+		assertEquals(Arrays.asList("96-106 96=1/1.0", "97-107 97=1/1.0",
+				"98-108 98=1/1.0"), output.take());
+		aggregator.advance(114);
+		assertEquals(Collections.emptyList(), output.take());
+		aggregator.add(99, 114, 1, 1.0);
+		aggregator.advance(124);
+		assertEquals(Arrays.asList("99-124 99=3/3.0"), output.take());
+	}
+
+}
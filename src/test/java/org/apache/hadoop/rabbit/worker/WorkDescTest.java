@@ -0,0 +1,127 @@
+package org.apache.hadoop.rabbit.worker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+import org.junit.Test;
+
+public class WorkDescTest {
+
+	@Test
+	public void testNullAndEmptyDesc() throws IOException {
+		WorkDesc none = roundTrip(new WorkDesc((String) null));
+		assertNull(none.getDesc());
+		assertFalse(none.hasPayload());
+
+		WorkDesc empty = roundTrip(new WorkDesc(""));
+		assertEquals("", empty.getDesc());
+
+		WorkDesc text = roundTrip(new WorkDesc("plan \u00e9"));
+		assertEquals("plan \u00e9", text.getDesc());
+	}
+
+	@Test
+	public void testEmptyPayload() throws IOException {
+		WorkDesc work = roundTrip(new WorkDesc("a", new byte[0]));
+		assertTrue(work.hasPayload());
+		assertEquals(0, work.getPayloadLength());
+	}
+
+	/**
+	 * From a DataInputBuffer the payload is a slice of its data, from any
+	 * other DataInput a copy.
+	 */
+	@Test
+	public void testPayloadSliceAndCopy() throws IOException {
+		byte[] payload = { 1, 2, 3, 4 };
+		DataOutputBuffer out = new DataOutputBuffer();
+		new WorkDesc("a", payload).write(out);
+		new WorkDesc("b", new byte[] { 5 }).write(out);
+
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(out.getData(), out.getLength());
+		WorkDesc work = new WorkDesc();
+		work.readFields(in);
+		assertSame(out.getData(), work.getPayloadBytes());
+		assertArrayEquals(payload, payload(work));
+		// the instance is reused for the next record
+		work.readFields(in);
+		assertEquals("b", work.getDesc());
+		assertArrayEquals(new byte[] { 5 }, payload(work));
+
+		DataInputStream stream = new DataInputStream(new ByteArrayInputStream(
+				out.getData(), 0, out.getLength()));
+		work = new WorkDesc();
+		work.readFields(stream);
+		assertNotSame(out.getData(), work.getPayloadBytes());
+		assertEquals("a", work.getDesc());
+		assertArrayEquals(payload, payload(work));
+		work.readFields(stream);
+		assertEquals("b", work.getDesc());
+		assertArrayEquals(new byte[] { 5 }, payload(work));
+	}
+
+	@Test
+	public void testUnknownVersion() throws IOException {
+		DataOutputBuffer out = new DataOutputBuffer();
+		new WorkDesc("a").write(out);
+		out.getData()[0] = WorkDesc.VERSION + 1;
+		assertCorrupt(out);
+	}
+
+	@Test
+	public void testNegativeLengths() throws IOException {
+		DataOutputBuffer out = new DataOutputBuffer();
+		out.writeByte(WorkDesc.VERSION);
+		WritableUtils.writeVInt(out, -2);
+		WritableUtils.writeVInt(out, -1);
+		assertCorrupt(out);
+
+		out.reset();
+		out.writeByte(WorkDesc.VERSION);
+		WritableUtils.writeVInt(out, -1);
+		WritableUtils.writeVInt(out, -5);
+		assertCorrupt(out);
+	}
+
+	private static void assertCorrupt(DataOutputBuffer out) {
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(out.getData(), out.getLength());
+		try {
+			new WorkDesc().readFields(in);
+			fail("Read a corrupt WorkDesc");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static WorkDesc roundTrip(WorkDesc work) throws IOException {
+		DataOutputBuffer out = new DataOutputBuffer();
+		work.write(out);
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(out.getData(), out.getLength());
+		WorkDesc read = new WorkDesc("stale", new byte[] { 9 });
+		read.readFields(in);
+		return read;
+	}
+
+	private static byte[] payload(WorkDesc work) {
+		return Arrays.copyOfRange(work.getPayloadBytes(), work.getPayloadOffset(),
+				work.getPayloadOffset() + work.getPayloadLength());
+	}
+
+}